@@ -211,6 +211,8 @@ public Map<String, OutputFormat> getOutputFormats(SqlLine sqlLine) {
     outputFormats.put("xmlattrs", xmlAttrs);
     outputFormats.put("xmlelements", new XmlElementOutputFormat(sqlLine));
     outputFormats.put("json", new JsonOutputFormat(sqlLine));
+    outputFormats.put("json-lines", new JsonOutputFormat(sqlLine, true));
+    outputFormats.put("arrow", new ArrowOutputFormat(sqlLine));
     return Collections.unmodifiableMap(outputFormats);
   }
 
@@ -292,6 +294,16 @@ public Collection<CommandHandler> getCommandHandlers(SqlLine sqlLine) {
         },
         new ReflectiveCommandHandler(sqlLine, new FileNameCompleter(),
             "record"),
+        new ReflectiveCommandHandler(sqlLine,
+            new StringsCompleter(outputFormats.keySet()), "export"),
+        new AbstractCommandHandler(sqlLine, new String[] {"import"},
+            sqlLine.loc("help-import"),
+            Arrays.asList(tableCompleter, new FileNameCompleter())) {
+          @Override public void execute(String line,
+              DispatchCallback callback) {
+            sqlLine.getCommands().importFile(line, callback);
+          }
+        },
         new ReflectiveCommandHandler(sqlLine, empty, "brief"),
         new ReflectiveCommandHandler(sqlLine, empty, "close"),
         new ReflectiveCommandHandler(sqlLine, empty, "closeall"),
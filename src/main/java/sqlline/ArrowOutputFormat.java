@@ -0,0 +1,772 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Implementation of {@link OutputFormat} that writes rows in the
+ * <a href="https://arrow.apache.org/docs/format/Columnar.html">Apache Arrow
+ * IPC streaming format</a>, which pandas, DuckDB and other tools read
+ * directly.
+ *
+ * <p>The output is binary, so it is intended to be redirected to a file or
+ * a pipe. It consists of a schema message, one record batch per
+ * {@code incrementalBufferRows} rows (a single batch if that is negative),
+ * and an end-of-stream marker.
+ *
+ * <p>When given a result set, values keep their JDBC type: integers, floating
+ * point numbers, booleans, decimals, dates, times, timestamps and binary
+ * strings are written as the corresponding Arrow types, and all other
+ * types as UTF-8 strings. Options that control how values are displayed,
+ * such as {@code numberFormat} and {@code dateFormat}, do not apply. Rows
+ * that have already been converted to strings are written as UTF-8
+ * strings.
+ *
+ * <p>Metadata is written as FlatBuffers by a minimal writer in this class,
+ * so that no Arrow library is required.
+ */
+public class ArrowOutputFormat implements OutputFormat {
+  /** MetadataVersion.V5 */
+  private static final short METADATA_VERSION = 4;
+  private static final byte HEADER_SCHEMA = 1;
+  private static final byte HEADER_RECORD_BATCH = 3;
+
+  private static final byte TYPE_INT = 2;
+  private static final byte TYPE_FLOATING_POINT = 3;
+  private static final byte TYPE_BINARY = 4;
+  private static final byte TYPE_UTF8 = 5;
+  private static final byte TYPE_BOOL = 6;
+  private static final byte TYPE_DECIMAL = 7;
+  private static final byte TYPE_DATE = 8;
+  private static final byte TYPE_TIME = 9;
+  private static final byte TYPE_TIMESTAMP = 10;
+
+  private static final short PRECISION_SINGLE = 1;
+  private static final short PRECISION_DOUBLE = 2;
+  private static final short DATE_UNIT_DAY = 0;
+  private static final short TIME_UNIT_MICROSECOND = 2;
+
+  private static final int CONTINUATION = 0xFFFFFFFF;
+  private static final int MAX_DECIMAL_PRECISION = 38;
+
+  private final SqlLine sqlLine;
+
+  public ArrowOutputFormat(SqlLine sqlLine) {
+    this.sqlLine = sqlLine;
+  }
+
+  /** Writes rows that have already been converted to strings, as UTF-8
+   * columns. */
+  @Override public int print(Rows rows) {
+    final Rows.Row header = rows.next();
+    final Vector[] vectors = new Vector[header.values.length];
+    for (int i = 0; i < vectors.length; i++) {
+      vectors[i] = new VarVector(header.values[i], TYPE_UTF8, null);
+    }
+    final Stream stream = new Stream(sqlLine.getOutputStream(), vectors,
+        batchSize());
+    int count = 0;
+    while (rows.hasNext()) {
+      final Rows.Row row = rows.next();
+      for (int i = 0; i < vectors.length; i++) {
+        ((VarVector) vectors[i]).append(row.values[i]);
+      }
+      stream.endRow();
+      count++;
+    }
+    stream.close();
+    return count;
+  }
+
+  /** Writes the rows of a result set, keeping the type of each column. */
+  int print(ResultSet rs, DispatchCallback callback) throws SQLException {
+    final ResultSetMetaData meta = rs.getMetaData();
+    final Vector[] vectors = new Vector[meta.getColumnCount()];
+    for (int i = 0; i < vectors.length; i++) {
+      vectors[i] = createVector(meta, i + 1);
+    }
+    final Stream stream = new Stream(sqlLine.getOutputStream(), vectors,
+        batchSize());
+    final FetchSizer fetchSizer = FetchSizer.of(sqlLine, rs);
+    int count = 0;
+    while (!callback.isCanceled()
+        && (fetchSizer == null ? rs.next() : fetchSizer.next())) {
+      long bytes = 0;
+      for (int i = 0; i < vectors.length; i++) {
+        vectors[i].append(rs, i + 1);
+        bytes += vectors[i].lastSize();
+      }
+      if (fetchSizer != null) {
+        fetchSizer.observeBytes(bytes);
+      }
+      stream.endRow();
+      count++;
+    }
+    stream.close();
+    return count;
+  }
+
+  private int batchSize() {
+    final int limit = sqlLine.getOpts().getIncrementalBufferRows();
+    return limit > 0 ? limit : limit == 0 ? 1 : Integer.MAX_VALUE;
+  }
+
+  private static Vector createVector(ResultSetMetaData meta, int column)
+      throws SQLException {
+    final String name = meta.getColumnLabel(column);
+    switch (meta.getColumnType(column)) {
+    case Types.BOOLEAN:
+    case Types.BIT:
+      return new BoolVector(name);
+    case Types.TINYINT:
+      return new IntVector(name, TYPE_INT, intType(8), 1,
+          ResultSet::getByte);
+    case Types.SMALLINT:
+      return new IntVector(name, TYPE_INT, intType(16), 2,
+          ResultSet::getShort);
+    case Types.INTEGER:
+      return new IntVector(name, TYPE_INT, intType(32), 4,
+          ResultSet::getInt);
+    case Types.BIGINT:
+      return new IntVector(name, TYPE_INT, intType(64), 8,
+          ResultSet::getLong);
+    case Types.REAL:
+      return new FloatVector(name, PRECISION_SINGLE);
+    case Types.FLOAT:
+    case Types.DOUBLE:
+      return new FloatVector(name, PRECISION_DOUBLE);
+    case Types.DECIMAL:
+    case Types.NUMERIC:
+      final int precision = meta.getPrecision(column);
+      final int scale = meta.getScale(column);
+      if (precision > 0 && precision <= MAX_DECIMAL_PRECISION
+          && scale >= 0 && scale <= precision) {
+        return new DecimalVector(name, precision, scale);
+      }
+      break;
+    case Types.DATE:
+      return new IntVector(name, TYPE_DATE,
+          new Table().add(0, 2, DATE_UNIT_DAY), 4,
+          (rs, i) -> {
+            final Date date = rs.getDate(i);
+            return date == null ? 0 : date.toLocalDate().toEpochDay();
+          });
+    case Types.TIME:
+      return new IntVector(name, TYPE_TIME,
+          new Table().add(0, 2, TIME_UNIT_MICROSECOND).add(1, 4, 64), 8,
+          (rs, i) -> {
+            final Time time = rs.getTime(i);
+            return time == null ? 0 : time.toLocalTime().toNanoOfDay() / 1000;
+          });
+    case Types.TIMESTAMP:
+      return new IntVector(name, TYPE_TIMESTAMP,
+          new Table().add(0, 2, TIME_UNIT_MICROSECOND), 8,
+          (rs, i) -> {
+            final Timestamp timestamp = rs.getTimestamp(i);
+            return timestamp == null ? 0 : micros(timestamp.toLocalDateTime());
+          });
+    case Types.BINARY:
+    case Types.VARBINARY:
+    case Types.LONGVARBINARY:
+      return new VarVector(name, TYPE_BINARY, null);
+    default:
+      break;
+    }
+    return new VarVector(name, TYPE_UTF8, null);
+  }
+
+  private static Table intType(int bitWidth) {
+    return new Table().add(0, 4, bitWidth).add(1, 1, 1);
+  }
+
+  /** Converts a date-time to microseconds since the epoch, as a wall-clock
+   * time; Arrow timestamps without a time zone are defined that way. */
+  private static long micros(LocalDateTime dateTime) {
+    return dateTime.toEpochSecond(ZoneOffset.UTC) * 1_000_000L
+        + dateTime.getNano() / 1000;
+  }
+
+  /** Reads a column of the current row as a {@code long}. */
+  @FunctionalInterface
+  private interface LongReader {
+    long read(ResultSet rs, int column) throws SQLException;
+  }
+
+  /** Writes the messages of an Arrow stream. */
+  private static class Stream {
+    private final PrintStream out;
+    private final Vector[] vectors;
+    private final int batchSize;
+    private final Body body = new Body();
+    private int rowCount;
+
+    Stream(PrintStream out, Vector[] vectors, int batchSize) {
+      this.out = out;
+      this.vectors = vectors;
+      this.batchSize = batchSize;
+      final Table[] fields = new Table[vectors.length];
+      for (int i = 0; i < vectors.length; i++) {
+        fields[i] = vectors[i].field();
+      }
+      final Table schema = new Table()
+          .add(0, 2, 0) // little-endian
+          .add(1, fields);
+      writeMessage(HEADER_SCHEMA, schema, 0);
+    }
+
+    void endRow() {
+      if (++rowCount == batchSize) {
+        writeBatch();
+      }
+    }
+
+    void close() {
+      if (rowCount > 0) {
+        writeBatch();
+      }
+      writeInt(CONTINUATION);
+      writeInt(0);
+      out.flush();
+    }
+
+    private void writeBatch() {
+      body.reset();
+      final long[] nodes = new long[vectors.length * 2];
+      for (int i = 0; i < vectors.length; i++) {
+        nodes[2 * i] = rowCount;
+        nodes[2 * i + 1] = vectors[i].nullCount;
+        vectors[i].writeBuffers(body);
+        vectors[i].reset();
+      }
+      final Table batch = new Table()
+          .add(0, 8, rowCount)
+          .add(1, nodes)
+          .add(2, body.buffers());
+      writeMessage(HEADER_RECORD_BATCH, batch, body.pos);
+      out.write(body.buf, 0, body.pos);
+      rowCount = 0;
+    }
+
+    private void writeMessage(byte headerType, Table header,
+        int bodyLength) {
+      final Table message = new Table()
+          .add(0, 2, METADATA_VERSION)
+          .add(1, 1, headerType)
+          .add(2, header)
+          .add(3, 8, bodyLength);
+      final FlatBufferWriter writer = new FlatBufferWriter();
+      final int length = writer.finish(message);
+      writeInt(CONTINUATION);
+      writeInt(length);
+      out.write(writer.buf, 0, length);
+    }
+
+    private void writeInt(int v) {
+      out.write(v);
+      out.write(v >>> 8);
+      out.write(v >>> 16);
+      out.write(v >>> 24);
+    }
+  }
+
+  /** Growable little-endian byte buffer. */
+  private static class Bytes {
+    byte[] buf = new byte[256];
+    int pos;
+
+    void ensure(int capacity) {
+      if (capacity > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+      }
+    }
+
+    void align(int alignment) {
+      final int aligned = (pos + alignment - 1) & -alignment;
+      ensure(aligned);
+      Arrays.fill(buf, pos, aligned, (byte) 0);
+      pos = aligned;
+    }
+
+    void put(int at, int size, long v) {
+      ensure(at + size);
+      for (int i = 0; i < size; i++) {
+        buf[at + i] = (byte) (v >>> (8 * i));
+      }
+    }
+
+    void append(int size, long v) {
+      put(pos, size, v);
+      pos += size;
+    }
+
+    void append(byte[] bytes, int offset, int length) {
+      ensure(pos + length);
+      System.arraycopy(bytes, offset, buf, pos, length);
+      pos += length;
+    }
+  }
+
+  /** Body of a record batch: a sequence of buffers, each padded to a
+   * multiple of 8 bytes. */
+  private static class Body extends Bytes {
+    private final List<long[]> buffers = new ArrayList<>();
+    private int start;
+
+    void reset() {
+      pos = 0;
+      buffers.clear();
+    }
+
+    /** Starts a buffer. */
+    void begin() {
+      start = pos;
+    }
+
+    /** Ends the current buffer. */
+    void end() {
+      buffers.add(new long[] {start, pos - start});
+      align(8);
+    }
+
+    /** Returns the offset and length of each buffer. */
+    long[] buffers() {
+      final long[] longs = new long[buffers.size() * 2];
+      for (int i = 0; i < buffers.size(); i++) {
+        longs[2 * i] = buffers.get(i)[0];
+        longs[2 * i + 1] = buffers.get(i)[1];
+      }
+      return longs;
+    }
+  }
+
+  /** Column of a record batch under construction. */
+  private abstract static class Vector {
+    final String name;
+    final byte typeType;
+    final Table type;
+    long[] validity = new long[1];
+    int count;
+    int nullCount;
+
+    Vector(String name, byte typeType, Table type) {
+      this.name = name;
+      this.typeType = typeType;
+      this.type = type == null ? new Table() : type;
+    }
+
+    Table field() {
+      return new Table()
+          .add(0, name == null ? "" : name)
+          .add(1, 1, 1) // nullable
+          .add(2, 1, typeType)
+          .add(3, type)
+          .add(5, new Table[0]);
+    }
+
+    abstract void append(ResultSet rs, int column) throws SQLException;
+
+    /** Records whether the next value is null, and returns its index. */
+    int next(boolean isNull) {
+      if (count >> 6 >= validity.length) {
+        validity = Arrays.copyOf(validity, validity.length * 2);
+      }
+      if (isNull) {
+        nullCount++;
+      } else {
+        validity[count >> 6] |= 1L << count;
+      }
+      return count++;
+    }
+
+    void writeBuffers(Body body) {
+      body.begin();
+      writeBits(body, validity, count);
+      body.end();
+      writeData(body);
+    }
+
+    abstract void writeData(Body body);
+
+    /** Returns the number of bytes of data of the value most recently
+     * appended. */
+    abstract int lastSize();
+
+    void reset() {
+      Arrays.fill(validity, 0L);
+      count = 0;
+      nullCount = 0;
+    }
+
+    static void writeBits(Body body, long[] bits, int count) {
+      final int bytes = (count + 7) >> 3;
+      for (int i = 0; i < bytes; i++) {
+        body.append(1, bits[i >> 3] >>> (8 * (i & 7)));
+      }
+    }
+  }
+
+  /** Column of integral values: Int, Date, Time or Timestamp. */
+  private static class IntVector extends Vector {
+    private final int width;
+    private final LongReader reader;
+    private long[] values = new long[64];
+
+    IntVector(String name, byte typeType, Table type, int width,
+        LongReader reader) {
+      super(name, typeType, type);
+      this.width = width;
+      this.reader = reader;
+    }
+
+    @Override void append(ResultSet rs, int column) throws SQLException {
+      final long v = reader.read(rs, column);
+      final int i = next(rs.wasNull());
+      if (i == values.length) {
+        values = Arrays.copyOf(values, i * 2);
+      }
+      values[i] = v;
+    }
+
+    @Override void writeData(Body body) {
+      body.begin();
+      for (int i = 0; i < count; i++) {
+        body.append(width, values[i]);
+      }
+      body.end();
+    }
+
+    @Override int lastSize() {
+      return width;
+    }
+  }
+
+  /** Column of floating-point values. */
+  private static class FloatVector extends Vector {
+    private final boolean single;
+    private double[] values = new double[64];
+
+    FloatVector(String name, short precision) {
+      super(name, TYPE_FLOATING_POINT, new Table().add(0, 2, precision));
+      this.single = precision == PRECISION_SINGLE;
+    }
+
+    @Override void append(ResultSet rs, int column) throws SQLException {
+      final double v = rs.getDouble(column);
+      final int i = next(rs.wasNull());
+      if (i == values.length) {
+        values = Arrays.copyOf(values, i * 2);
+      }
+      values[i] = v;
+    }
+
+    @Override void writeData(Body body) {
+      body.begin();
+      for (int i = 0; i < count; i++) {
+        if (single) {
+          body.append(4, Float.floatToIntBits((float) values[i]));
+        } else {
+          body.append(8, Double.doubleToLongBits(values[i]));
+        }
+      }
+      body.end();
+    }
+
+    @Override int lastSize() {
+      return single ? 4 : 8;
+    }
+  }
+
+  /** Column of boolean values, stored as a bitmap. */
+  private static class BoolVector extends Vector {
+    private long[] values = new long[1];
+
+    BoolVector(String name) {
+      super(name, TYPE_BOOL, null);
+    }
+
+    @Override void append(ResultSet rs, int column) throws SQLException {
+      final boolean v = rs.getBoolean(column);
+      final int i = next(rs.wasNull());
+      if (i >> 6 == values.length) {
+        values = Arrays.copyOf(values, values.length * 2);
+      }
+      if (v) {
+        values[i >> 6] |= 1L << i;
+      }
+    }
+
+    @Override void writeData(Body body) {
+      body.begin();
+      writeBits(body, values, count);
+      body.end();
+    }
+
+    @Override int lastSize() {
+      return 1;
+    }
+
+    @Override void reset() {
+      super.reset();
+      Arrays.fill(values, 0L);
+    }
+  }
+
+  /** Column of 128-bit decimal values. */
+  private static class DecimalVector extends Vector {
+    private final int scale;
+    private final BigInteger max;
+    private final Bytes values = new Bytes();
+
+    DecimalVector(String name, int precision, int scale) {
+      super(name, TYPE_DECIMAL,
+          new Table().add(0, 4, precision).add(1, 4, scale).add(2, 4, 128));
+      this.scale = scale;
+      this.max = BigInteger.TEN.pow(precision);
+    }
+
+    @Override void append(ResultSet rs, int column) throws SQLException {
+      final BigDecimal v = rs.getBigDecimal(column);
+      next(v == null);
+      if (v == null) {
+        values.append(8, 0L);
+        values.append(8, 0L);
+        return;
+      }
+      final BigInteger unscaled =
+          v.setScale(scale, RoundingMode.HALF_UP).unscaledValue();
+      if (unscaled.abs().compareTo(max) >= 0) {
+        throw new SQLException("Value " + v + " does not fit in column "
+            + name);
+      }
+      values.append(8, unscaled.longValue());
+      values.append(8, unscaled.shiftRight(64).longValue());
+    }
+
+    @Override void writeData(Body body) {
+      body.begin();
+      body.append(values.buf, 0, values.pos);
+      body.end();
+    }
+
+    @Override int lastSize() {
+      return 16;
+    }
+
+    @Override void reset() {
+      super.reset();
+      values.pos = 0;
+    }
+  }
+
+  /** Column of variable-length values: Utf8 or Binary. */
+  private static class VarVector extends Vector {
+    private int[] offsets = new int[65];
+    private final Bytes data = new Bytes();
+
+    VarVector(String name, byte typeType, Table type) {
+      super(name, typeType, type);
+    }
+
+    @Override void append(ResultSet rs, int column) throws SQLException {
+      if (typeType == TYPE_BINARY) {
+        append(rs.getBytes(column));
+      } else {
+        append(rs.getString(column));
+      }
+    }
+
+    void append(String value) {
+      append(value == null
+          ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void append(byte[] value) {
+      final int i = next(value == null);
+      if (i + 1 == offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      if (value != null) {
+        data.append(value, 0, value.length);
+      }
+      offsets[i + 1] = data.pos;
+    }
+
+    @Override void writeData(Body body) {
+      body.begin();
+      for (int i = 0; i <= count; i++) {
+        body.append(4, offsets[i]);
+      }
+      body.end();
+      body.begin();
+      body.append(data.buf, 0, data.pos);
+      body.end();
+    }
+
+    @Override int lastSize() {
+      // The value, and its offset
+      return offsets[count] - offsets[count - 1] + 4;
+    }
+
+    @Override void reset() {
+      super.reset();
+      data.pos = 0;
+    }
+  }
+
+  /** FlatBuffers table under construction. Each field has an id (its
+   * position in the schema); its value is a scalar, a string, a table, a
+   * vector of tables, or a vector of structs of two {@code long}s. */
+  private static class Table {
+    final List<Object[]> fields = new ArrayList<>();
+
+    /** Adds a scalar field of {@code size} bytes. */
+    Table add(int id, int size, long value) {
+      fields.add(new Object[] {id, size, value});
+      return this;
+    }
+
+    /** Adds a field that refers to another object. */
+    Table add(int id, Object child) {
+      fields.add(new Object[] {id, 4, child});
+      return this;
+    }
+  }
+
+  /**
+   * Serializes a {@link Table} and the objects it refers to as a FlatBuffer.
+   *
+   * <p>Unlike the standard builder, which works back to front, this writer
+   * lays out each object before the objects it refers to, so that every
+   * offset points forward, as FlatBuffers requires; each table is preceded
+   * by its vtable.
+   */
+  private static class FlatBufferWriter extends Bytes {
+    /** Writes a root table, and returns the length of the buffer, padded
+     * to a multiple of 8 bytes. */
+    int finish(Table root) {
+      pos = 4;
+      final int table = writeTable(root);
+      put(0, 4, table);
+      align(8);
+      return pos;
+    }
+
+    private int writeTable(Table table) {
+      int maxId = -1;
+      for (Object[] field : table.fields) {
+        maxId = Math.max(maxId, (Integer) field[0]);
+      }
+      final int vtableSize = 4 + 2 * (maxId + 1);
+      align(2);
+      final int vtable = pos;
+      pos += vtableSize;
+      align(8);
+      final int start = pos;
+      // Lay out fields largest first, so that each is aligned
+      final List<Object[]> fields = new ArrayList<>(table.fields);
+      fields.sort(
+          Comparator.comparing((Object[] field) -> (Integer) field[1])
+              .reversed());
+      final int[] offsets = new int[fields.size()];
+      int size = 4;
+      for (int i = 0; i < fields.size(); i++) {
+        final int fieldSize = (Integer) fields.get(i)[1];
+        size = (size + fieldSize - 1) & -fieldSize;
+        offsets[i] = size;
+        size += fieldSize;
+      }
+      ensure(start + size);
+      Arrays.fill(buf, vtable, start + size, (byte) 0);
+      pos = start + size;
+      put(vtable, 2, vtableSize);
+      put(vtable + 2, 2, size);
+      put(start, 4, start - vtable);
+      for (int i = 0; i < fields.size(); i++) {
+        final Object[] field = fields.get(i);
+        put(vtable + 4 + 2 * (Integer) field[0], 2, offsets[i]);
+        if (field[2] instanceof Long) {
+          put(start + offsets[i], (Integer) field[1], (Long) field[2]);
+        }
+      }
+      for (int i = 0; i < fields.size(); i++) {
+        final Object value = fields.get(i)[2];
+        if (!(value instanceof Long)) {
+          final int at = start + offsets[i];
+          put(at, 4, writeObject(value) - at);
+        }
+      }
+      return start;
+    }
+
+    private int writeObject(Object value) {
+      if (value instanceof Table) {
+        return writeTable((Table) value);
+      }
+      if (value instanceof String) {
+        final byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+        align(4);
+        final int start = pos;
+        append(4, bytes.length);
+        append(bytes, 0, bytes.length);
+        append(1, 0);
+        return start;
+      }
+      if (value instanceof Table[]) {
+        final Table[] tables = (Table[]) value;
+        align(4);
+        final int start = pos;
+        append(4, tables.length);
+        final int slots = pos;
+        pos += 4 * tables.length;
+        ensure(pos);
+        for (int i = 0; i < tables.length; i++) {
+          final int at = slots + 4 * i;
+          put(at, 4, writeTable(tables[i]) - at);
+        }
+        return start;
+      }
+      // Vector of structs of two longs; the elements must be 8-byte
+      // aligned, and follow the 4-byte length
+      final long[] longs = (long[]) value;
+      align(4);
+      if ((pos & 7) == 0) {
+        append(4, 0);
+      }
+      final int start = pos;
+      append(4, longs.length / 2);
+      for (long v : longs) {
+        append(8, v);
+      }
+      return start;
+    }
+  }
+}
+
+// End ArrowOutputFormat.java
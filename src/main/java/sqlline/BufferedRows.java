@@ -13,12 +13,17 @@
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
 /**
- * Rows implementation that buffers rows in a linked list.
+ * Rows implementation that buffers rows in a linked list, or, if
+ * {@link SqlLineOpts#getColumnarBuffer() columnarBuffer} is set, in a
+ * {@link ColumnarBuffer}, or, if
+ * {@link SqlLineOpts#getResultBufferMemory() resultBufferMemory} is set,
+ * in an {@link OffHeapRowBuffer}.
  *
  * <p>Detailed behavior depends on
  * {@link SqlLineOpts#getIncrementalBufferRows() incrementalBufferRows},
@@ -32,6 +37,15 @@
  *     then it enters incremental mode, with buffered limit
  *     {@code incrementalBufferRows}.
  * </ul>
+ *
+ * <p>An {@link OffHeapRowBuffer} may also end a batch early, when its
+ * memory budget is full.
+ *
+ * <p>If {@link SqlLineOpts#getPipelinedFetch() pipelinedFetch} is set and
+ * rows are buffered in a list, a {@link Prefetcher} reads the following
+ * batches on a background thread while the output format prints the
+ * current one. (Columnar and off-heap buffers are reused from one batch to
+ * the next, so they are always filled on the calling thread.)
  */
 class BufferedRows extends Rows {
   private final ResultSet rs;
@@ -39,20 +53,53 @@ class BufferedRows extends Rows {
   private final Row columnTypes;
   private final int columnCount;
   private final int limit;
+  private final RowBuffer buffer;
+  private final Row cursor;
+  private final List<Row> leading = new ArrayList<>();
   private List<Row> list;
   private Iterator<Row> iterator;
   private int batch = 0;
   private int[] max = null;
+  private final Prefetcher<List<Row>> prefetcher;
 
   BufferedRows(SqlLine sqlLine, ResultSet rs) throws SQLException {
+    this(sqlLine, rs, new DispatchCallback());
+  }
+
+  BufferedRows(SqlLine sqlLine, ResultSet rs,
+      DispatchCallback callback) throws SQLException {
     super(sqlLine, rs);
     this.rs = rs;
     limit = sqlLine.getOpts().getIncrementalBufferRows();
     columnCount = rsMeta.getColumnCount();
     columnNames = new Row(columnCount);
     columnTypes = new Row(columnCount, rsMeta::getColumnTypeName);
+    final long bufferMemory = sqlLine.getOpts().getResultBufferMemory();
+    if (bufferMemory > 0) {
+      buffer = new OffHeapRowBuffer(this, bufferMemory);
+      cursor = new Row(columnCount, false);
+    } else if (sqlLine.getOpts().getColumnarBuffer()) {
+      buffer = new ColumnarBuffer(this, limit);
+      cursor = new Row(columnCount, false);
+    } else {
+      buffer = null;
+      cursor = null;
+    }
     list = nextList();
     iterator = list.iterator();
+    if (buffer == null && limit >= 0
+        && sqlLine.getOpts().getPipelinedFetch()) {
+      // Read ahead about as many rows as IncrementalRows would
+      final int capacity =
+          Math.max(1, IncrementalRows.PREFETCH_ROWS / Math.max(1, limit));
+      lookUpPrimaryKeys();
+      prefetcher = new Prefetcher<>(capacity, callback, () -> {
+        final List<Row> next = nextList();
+        return next.isEmpty() ? null : next;
+      });
+    } else {
+      prefetcher = null;
+    }
   }
 
   public boolean hasNext() {
@@ -60,7 +107,10 @@ public boolean hasNext() {
       return true;
     } else {
       try {
-        list = nextList();
+        list = prefetcher == null ? nextList() : prefetcher.next();
+        if (list == null) {
+          list = new LinkedList<>();
+        }
         iterator = list.iterator();
         return iterator.hasNext();
       } catch (SQLException ex) {
@@ -77,28 +127,50 @@ public Row next() {
     return row;
   }
 
+  @Override void close() {
+    if (prefetcher != null) {
+      prefetcher.close();
+    }
+  }
+
   void normalizeWidths(int maxColumnWidth) {
-    for (Row row : list) {
-      normalizeWidth(maxColumnWidth, row);
+    if (buffer == null) {
+      for (Row row : list) {
+        normalizeWidth(maxColumnWidth, row);
+      }
+    } else {
+      // The buffer knows the width of each column, so there is no need to
+      // materialize its rows.
+      for (Row row : leading) {
+        normalizeWidth(maxColumnWidth, row);
+      }
+      normalizeWidth(maxColumnWidth, buffer.widths());
     }
   }
 
   private void normalizeWidth(int maxColumnWidth, Row row) {
+    normalizeWidth(maxColumnWidth, row.sizes);
+    row.sizes = max;
+  }
+
+  private void normalizeWidth(int maxColumnWidth, int[] sizes) {
     if (max == null) {
-      max = new int[row.values.length];
+      max = new int[sizes.length];
     }
     for (int j = 0; j < max.length; j++) {
-      int currentMaxWidth = Math.max(max[j], row.sizes[j]);
+      int currentMaxWidth = Math.max(max[j], sizes[j]);
       // ensure that calculated column width
       // does not exceed max column width
       max[j] = maxColumnWidth > 0
               ? Math.min(currentMaxWidth, maxColumnWidth)
               : currentMaxWidth;
     }
-    row.sizes = max;
   }
 
   private List<Row> nextList() throws SQLException {
+    if (buffer != null) {
+      return nextBuffer();
+    }
     final List<Row> list = new LinkedList<>();
     if (batch == 0) {
       // Add a row of column names as the first row of the first batch.
@@ -114,15 +186,15 @@ private List<Row> nextList() throws SQLException {
       // Obey the limit if the limit is non-negative and this is the first
       // batch.
       int counter = 0;
-      while (counter++ < limit && rs.next()) {
+      while (counter++ < limit && fetchRow(rs)) {
         list.add(new Row(columnCount, rs));
       }
     } else if (limit == 0) {
-      if (rs.next()) {
+      if (fetchRow(rs)) {
         list.add(new Row(columnCount, rs));
       }
     } else {
-      while (rs.next()) {
+      while (fetchRow(rs)) {
         final Row row = new Row(columnCount, rs);
         list.add(row);
       }
@@ -130,6 +202,43 @@ private List<Row> nextList() throws SQLException {
     ++batch;
     return list;
   }
+
+  /** Fills the buffer with the next batch of rows, and returns a view of
+   * it. Follows the same limits as {@link #nextList()}, but ends the batch
+   * early if the buffer is full. A row that did not fit is kept by the
+   * buffer, and becomes the first row of the next batch. */
+  private List<Row> nextBuffer() throws SQLException {
+    leading.clear();
+    buffer.clear();
+    if (batch == 0) {
+      leading.add(columnNames);
+      if (sqlLine.getOpts().getShowTypes()) {
+        leading.add(columnTypes);
+      }
+    }
+    if (rs.isClosed()) {
+      // Result set is closed. Do nothing.
+    } else if (limit > 0) {
+      int counter = buffer.size();
+      while (counter++ < limit && fetchRow(rs)) {
+        if (!buffer.add(rs)) {
+          break;
+        }
+      }
+    } else if (limit == 0) {
+      if (buffer.size() == 0 && fetchRow(rs)) {
+        buffer.add(rs);
+      }
+    } else {
+      while (fetchRow(rs)) {
+        if (!buffer.add(rs)) {
+          break;
+        }
+      }
+    }
+    ++batch;
+    return buffer.asList(leading, cursor);
+  }
 }
 
 // End BufferedRows.java
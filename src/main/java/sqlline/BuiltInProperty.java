@@ -28,27 +28,38 @@
  */
 public enum BuiltInProperty implements SqlLineProperty {
 
+  ADAPTIVE_FETCH_SIZE("adaptiveFetchSize", Type.BOOLEAN, false),
   AUTO_COMMIT("autoCommit", Type.BOOLEAN, true),
   AUTO_PAIRING("autoPairing", Type.BOOLEAN, true),
   AUTO_RESIZE("autoResize", Type.BOOLEAN, false),
   AUTO_SAVE("autoSave", Type.BOOLEAN, false),
+  BACKGROUND_METADATA("backgroundMetadata", Type.BOOLEAN, false),
+  BATCH_COMMIT("batchCommit", Type.BOOLEAN, false),
+  BATCH_SIZE("batchSize", Type.INTEGER, 0),
   COLOR_SCHEME("colorScheme", Type.STRING, DEFAULT, true, false,
       new Application().getName2HighlightStyle().keySet()),
   COLOR("color", Type.BOOLEAN, false),
+  COLUMNAR_BUFFER("columnarBuffer", Type.BOOLEAN, false),
+  COLUMN_CACHE_SIZE("columnCacheSize", Type.INTEGER, 1000),
   CONFIRM("confirm", Type.BOOLEAN, false),
   CONFIRM_PATTERN("confirmPattern", Type.STRING, "^(?i:(DROP|DELETE))"),
   CONNECT_INTERACTION_MODE("connectInteractionMode", Type.STRING,
       new Application().getDefaultInteractiveMode(), true, false,
       new HashSet<>(new Application().getConnectInteractiveModes())),
   CONNECTION_CONFIG("connectionConfig", Type.FILE_PATH, ""),
+  CONNECTION_POOL_MAX_LIFETIME("connectionPoolMaxLifetime", Type.INTEGER,
+      1800),
+  CONNECTION_POOL_MIN_IDLE("connectionPoolMinIdle", Type.INTEGER, 0),
   CSV_DELIMITER("csvDelimiter", Type.STRING, ","),
 
+  CSV_QUOTE_ALL("csvQuoteAll", Type.BOOLEAN, true),
   CSV_QUOTE_CHARACTER("csvQuoteCharacter", Type.CHAR, '\''),
 
   DATE_FORMAT("dateFormat", Type.STRING, DEFAULT),
   ESCAPE_OUTPUT("escapeOutput", Type.BOOLEAN, false),
 
   FAST_CONNECT("fastConnect", Type.BOOLEAN, true),
+  FETCH_SIZE("fetchSize", Type.INTEGER, 0),
   FORCE("force", Type.BOOLEAN, false),
   HEADER_INTERVAL("headerInterval", Type.INTEGER, 100),
   HISTORY_FILE("historyFile", Type.FILE_PATH,
@@ -70,20 +81,26 @@ public enum BuiltInProperty implements SqlLineProperty {
       Type.INTEGER, DefaultHistory.DEFAULT_HISTORY_SIZE),
   MAX_HISTORY_FILE_ROWS("maxHistoryFileRows",
       Type.INTEGER, DefaultHistory.DEFAULT_HISTORY_FILE_SIZE),
+  MAX_OUTPUT_FILE_SIZE("maxOutputFileSize", Type.STRING, "0"),
+  METADATA_CACHE_TTL("metadataCacheTtl", Type.INTEGER, 0),
 
   MODE("mode", Type.STRING, LineReader.EMACS, true,
       false, new HashSet<>(Arrays.asList(LineReader.EMACS, "vi"))),
   NUMBER_FORMAT("numberFormat", Type.STRING, DEFAULT),
   NULL_VALUE("nullValue", Type.STRING, DEFAULT),
+  ON_DEMAND_METADATA("onDemandMetadata", Type.BOOLEAN, false),
   SILENT("silent", Type.BOOLEAN, false),
+  OUTPUT_BUFFER_SIZE("outputBufferSize", Type.INTEGER, 65536),
   OUTPUT_FORMAT("outputFormat", Type.STRING, "table"),
   TABLE_STYLE("tableStyle", Type.STRING, "default", true, false,
       new Application().getName2TableOutputFormatStyle().keySet()),
+  PIPELINED_FETCH("pipelinedFetch", Type.BOOLEAN, false),
   PROMPT("prompt", Type.STRING, "sqlline> "),
   PROMPT_SCRIPT("promptScript", Type.STRING, ""),
   PROPERTIES_FILE("propertiesFile", Type.FILE_PATH,
       new File(SqlLineOpts.saveDir(), "sqlline.properties").getAbsolutePath()),
   READ_ONLY("readOnly", Type.BOOLEAN, false),
+  RESULT_BUFFER_MEMORY("resultBufferMemory", Type.STRING, "0"),
   RIGHT_PROMPT("rightPrompt", Type.STRING, ""),
   ROW_LIMIT("rowLimit", Type.INTEGER, 0),
   SHOW_ELAPSED_TIME("showElapsedTime", Type.BOOLEAN, true),
@@ -95,6 +112,7 @@ public enum BuiltInProperty implements SqlLineProperty {
   SHOW_NESTED_ERRS("showNestedErrs", Type.BOOLEAN, false),
   SHOW_TYPES("showTypes", Type.BOOLEAN, false),
   SHOW_WARNINGS("showWarnings", Type.BOOLEAN, true),
+  STATEMENT_CACHE_SIZE("statementCacheSize", Type.INTEGER, 0),
   STRICT_JDBC("strictJdbc", Type.BOOLEAN, false),
   TIME_FORMAT("timeFormat", Type.STRING, DEFAULT),
   TIMEOUT("timeout", Type.INTEGER, -1),
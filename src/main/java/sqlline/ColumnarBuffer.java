@@ -0,0 +1,407 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Buffer of result set rows that stores values column by column.
+ *
+ * <p>Instead of a {@link Rows.Row}, with its array of strings, per row,
+ * each column is held in one growable array: {@code int[]}, {@code long[]}
+ * or {@code double[]} for integral and floating-point columns (unless a
+ * {@code numberFormat} is set), and a packed {@code char[]} for all other
+ * columns. Nulls are recorded in a bitmap.
+ *
+ * <p>The buffer never runs out of room; {@link #add(ResultSet)} always
+ * returns true.
+ */
+class ColumnarBuffer implements RowBuffer {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Rows rows;
+  private final Column[] columns;
+  private final String numericNull;
+  private final int numericNullWidth;
+  private final int[] widths;
+  private long[] deleted;
+  private long[] updated;
+  private long[] inserted;
+  private int capacity;
+  private int size;
+  /** Scratch row that receives row state flags. */
+  private final Rows.Row stateRow;
+  /** Display widths of the row most recently read. */
+  private int[] readSizes;
+
+  ColumnarBuffer(Rows rows, int expectedRows) throws SQLException {
+    this.rows = rows;
+    final int columnCount = rows.rsMeta.getColumnCount();
+    this.capacity = Math.max(INITIAL_CAPACITY, Math.min(expectedRows, 4096));
+    this.numericNull = String.valueOf(rows.nullValue);
+    this.numericNullWidth = Rows.displayWidth(numericNull);
+    this.columns = new Column[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      columns[i] = createColumn(rows.rsMeta.getColumnType(i + 1));
+    }
+    this.widths = new int[columnCount];
+    this.deleted = new long[words(capacity)];
+    this.updated = new long[words(capacity)];
+    this.inserted = new long[words(capacity)];
+    this.stateRow = rows.new Row(columnCount, false);
+    this.readSizes = new int[columnCount];
+  }
+
+  private Column createColumn(int columnType) {
+    if (rows.numberFormat == null) {
+      switch (columnType) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+        return new IntColumn(capacity);
+      case Types.BIGINT:
+        return new LongColumn(capacity);
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return new DoubleColumn(capacity);
+      default:
+        break;
+      }
+    }
+    return new StringColumn(capacity);
+  }
+
+  @Override public int size() {
+    return size;
+  }
+
+  @Override public void clear() {
+    for (Column column : columns) {
+      column.clear();
+    }
+    Arrays.fill(deleted, 0L);
+    Arrays.fill(updated, 0L);
+    Arrays.fill(inserted, 0L);
+    size = 0;
+  }
+
+  @Override public int[] widths() {
+    for (int i = 0; i < columns.length; i++) {
+      widths[i] = columns[i].maxWidth;
+    }
+    return widths;
+  }
+
+  @Override public boolean add(ResultSet rs) throws SQLException {
+    if (size == capacity) {
+      grow();
+    }
+    stateRow.deleted = false;
+    stateRow.updated = false;
+    stateRow.inserted = false;
+    rows.readRowState(rs, stateRow);
+    if (stateRow.deleted) {
+      set(deleted, size);
+    }
+    if (stateRow.updated) {
+      set(updated, size);
+    }
+    if (stateRow.inserted) {
+      set(inserted, size);
+    }
+    long bytes = 0;
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = columns[i].add(rs, i, size);
+      bytes += FetchSizer.valueBytes(columns[i].lastWidth);
+    }
+    if (rows.fetchSizer != null) {
+      rows.fetchSizer.observeBytes(bytes);
+    }
+    size++;
+    return true;
+  }
+
+  @Override public void read(int row, Rows.Row cursor) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+    }
+    cursor.sizes = readSizes;
+    for (int i = 0; i < columns.length; i++) {
+      cursor.values[i] = columns[i].get(row);
+      readSizes[i] = Rows.displayWidth(cursor.values[i]);
+    }
+    cursor.deleted = get(deleted, row);
+    cursor.updated = get(updated, row);
+    cursor.inserted = get(inserted, row);
+  }
+
+  private void grow() {
+    capacity = newCapacity(capacity);
+    for (Column column : columns) {
+      column.grow(capacity);
+    }
+    deleted = Arrays.copyOf(deleted, words(capacity));
+    updated = Arrays.copyOf(updated, words(capacity));
+    inserted = Arrays.copyOf(inserted, words(capacity));
+  }
+
+  private static int newCapacity(int capacity) {
+    final long newCapacity = (long) capacity + (capacity >> 1) + 1;
+    if (newCapacity > Integer.MAX_VALUE - 8) {
+      throw new OutOfMemoryError("Columnar buffer too large");
+    }
+    return (int) newCapacity;
+  }
+
+  private static int words(int bits) {
+    return (bits + 63) >>> 6;
+  }
+
+  private static void set(long[] bitmap, int i) {
+    bitmap[i >>> 6] |= 1L << i;
+  }
+
+  private static boolean get(long[] bitmap, int i) {
+    return (bitmap[i >>> 6] & (1L << i)) != 0;
+  }
+
+  private static int digits(long v) {
+    if (v == Long.MIN_VALUE) {
+      return 20;
+    }
+    int n = v < 0 ? 2 : 1;
+    for (long x = Math.abs(v); x >= 10; x /= 10) {
+      n++;
+    }
+    return n;
+  }
+
+  /** Storage for one column. */
+  private abstract class Column {
+    long[] nulls;
+    /** Maximum display width of the values in this column. */
+    int maxWidth;
+    /** Display width of the value most recently added. */
+    int lastWidth;
+
+    Column(int capacity) {
+      nulls = new long[words(capacity)];
+    }
+
+    /** Appends the value of column {@code i} of the current row, and
+     * returns this column, or a replacement column if this column cannot
+     * store the value. */
+    abstract Column add(ResultSet rs, int i, int row) throws SQLException;
+
+    abstract String get(int row);
+
+    void grow(int capacity) {
+      nulls = Arrays.copyOf(nulls, words(capacity));
+    }
+
+    void clear() {
+      Arrays.fill(nulls, 0L);
+      maxWidth = 0;
+    }
+
+    boolean isNull(int row) {
+      return ColumnarBuffer.get(nulls, row);
+    }
+
+    void setNull(int row) {
+      set(nulls, row);
+    }
+
+    void addWidth(int width) {
+      lastWidth = width;
+      if (width > maxWidth) {
+        maxWidth = width;
+      }
+    }
+
+    /** Converts this column into a string column holding the same
+     * values. */
+    Column toStringColumn(int rowCount) {
+      final StringColumn column = new StringColumn(capacity);
+      for (int row = 0; row < rowCount; row++) {
+        column.append(row, get(row));
+      }
+      return column;
+    }
+  }
+
+  /** Column of values stored as strings in a packed character array. */
+  private class StringColumn extends Column {
+    char[] chars;
+    /** End offset of each value in {@link #chars}. */
+    int[] ends;
+
+    StringColumn(int capacity) {
+      super(capacity);
+      chars = new char[capacity * 8];
+      ends = new int[capacity];
+    }
+
+    @Override Column add(ResultSet rs, int i, int row) throws SQLException {
+      append(row, rows.readValue(rs, i));
+      return this;
+    }
+
+    void append(int row, String value) {
+      final int start = row == 0 ? 0 : ends[row - 1];
+      addWidth(Rows.displayWidth(value));
+      if (value == null) {
+        setNull(row);
+        ends[row] = start;
+        return;
+      }
+      final int end = start + value.length();
+      if (end < 0) {
+        throw new OutOfMemoryError("Columnar buffer too large");
+      }
+      if (end > chars.length) {
+        int newLength = chars.length;
+        while (newLength < end) {
+          newLength = newCapacity(newLength);
+        }
+        chars = Arrays.copyOf(chars, newLength);
+      }
+      value.getChars(0, value.length(), chars, start);
+      ends[row] = end;
+    }
+
+    @Override String get(int row) {
+      if (isNull(row)) {
+        return null;
+      }
+      final int start = row == 0 ? 0 : ends[row - 1];
+      return new String(chars, start, ends[row] - start);
+    }
+
+    @Override void grow(int capacity) {
+      super.grow(capacity);
+      ends = Arrays.copyOf(ends, capacity);
+    }
+  }
+
+  /** Column of TINYINT, SMALLINT or INTEGER values. */
+  private class IntColumn extends Column {
+    int[] values;
+
+    IntColumn(int capacity) {
+      super(capacity);
+      values = new int[capacity];
+    }
+
+    @Override Column add(ResultSet rs, int i, int row) throws SQLException {
+      final Object o = rs.getObject(i + 1);
+      if (o == null) {
+        setNull(row);
+        addWidth(numericNullWidth);
+      } else if (o instanceof Integer || o instanceof Short
+          || o instanceof Byte) {
+        values[row] = ((Number) o).intValue();
+        addWidth(digits(values[row]));
+      } else {
+        final StringColumn column = (StringColumn) toStringColumn(row);
+        column.append(row, o.toString());
+        return column;
+      }
+      return this;
+    }
+
+    @Override String get(int row) {
+      return isNull(row) ? numericNull : Integer.toString(values[row]);
+    }
+
+    @Override void grow(int capacity) {
+      super.grow(capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+  }
+
+  /** Column of BIGINT values. */
+  private class LongColumn extends Column {
+    long[] values;
+
+    LongColumn(int capacity) {
+      super(capacity);
+      values = new long[capacity];
+    }
+
+    @Override Column add(ResultSet rs, int i, int row) throws SQLException {
+      final Object o = rs.getObject(i + 1);
+      if (o == null) {
+        setNull(row);
+        addWidth(numericNullWidth);
+      } else if (o instanceof Long || o instanceof Integer
+          || o instanceof Short || o instanceof Byte) {
+        values[row] = ((Number) o).longValue();
+        addWidth(digits(values[row]));
+      } else {
+        final StringColumn column = (StringColumn) toStringColumn(row);
+        column.append(row, o.toString());
+        return column;
+      }
+      return this;
+    }
+
+    @Override String get(int row) {
+      return isNull(row) ? numericNull : Long.toString(values[row]);
+    }
+
+    @Override void grow(int capacity) {
+      super.grow(capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+  }
+
+  /** Column of FLOAT or DOUBLE values. */
+  private class DoubleColumn extends Column {
+    double[] values;
+
+    DoubleColumn(int capacity) {
+      super(capacity);
+      values = new double[capacity];
+    }
+
+    @Override Column add(ResultSet rs, int i, int row) throws SQLException {
+      final Object o = rs.getObject(i + 1);
+      if (o == null) {
+        setNull(row);
+        addWidth(numericNullWidth);
+      } else if (o instanceof Double) {
+        values[row] = (Double) o;
+        addWidth(Double.toString(values[row]).length());
+      } else {
+        final StringColumn column = (StringColumn) toStringColumn(row);
+        column.append(row, o.toString());
+        return column;
+      }
+      return this;
+    }
+
+    @Override String get(int row) {
+      return isNull(row) ? numericNull : Double.toString(values[row]);
+    }
+
+    @Override void grow(int capacity) {
+      super.grow(capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+  }
+}
+
+// End ColumnarBuffer.java
@@ -15,14 +15,33 @@
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.jline.reader.History;
 import org.jline.reader.MaskingCallback;
@@ -40,6 +59,13 @@
  * Collection of available commands.
  */
 public class Commands {
+  /** Number of connections on which {@code !all -parallel} runs a
+   * statement at a time, if not specified. */
+  static final int DEFAULT_PARALLELISM = 8;
+  /** Number of rows that {@code !import} inserts in each batch, if not
+   * specified. */
+  static final int DEFAULT_IMPORT_BATCH_SIZE = 1000;
+
   private static final String[] METHODS = {
       "allProceduresAreCallable",
       "allTablesAreSelectable",
@@ -241,7 +267,7 @@ public void metadata(
       }
 
       if (res instanceof ResultSet) {
-        try (ResultSet rs = (ResultSet) res) {
+        try (ResultSet rs = sqlLine.setFetchSize((ResultSet) res)) {
           sqlLine.print(rs, callback);
         }
       } else if (res != null) {
@@ -1011,14 +1037,20 @@ public void batch(String line, DispatchCallback callback) {
       return;
     }
 
-    if (sqlLine.getBatch() == null) {
-      sqlLine.setBatch(new LinkedList<>());
+    final StatementBatch batch = sqlLine.getBatch();
+    if (batch == null) {
+      sqlLine.setBatch(new StatementBatch());
       sqlLine.info(sqlLine.loc("batch-start"));
       callback.setToSuccess();
     } else {
       sqlLine.info(sqlLine.loc("running-batch"));
       try {
-        sqlLine.runBatch(sqlLine.getBatch());
+        sqlLine.runBatch(batch);
+        if (!batch.isReported(0)) {
+          sqlLine.info(
+              sqlLine.loc("batch-complete", batch.executed,
+                  batch.rowsAffected));
+        }
         callback.setToSuccess();
       } catch (Exception e) {
         callback.setToFailure();
@@ -1098,13 +1130,23 @@ private static String skipLast(String s) {
   private void executeSingleQuery(String sql, boolean call,
       DispatchCallback callback) {
     // batch statements?
-    if (sqlLine.getBatch() != null) {
-      sqlLine.getBatch().add(sql);
+    final StatementBatch batch = sqlLine.getBatch();
+    if (batch != null) {
+      batch.add(sql);
+      if (batch.isFull(sqlLine.getOpts().getBatchSize())) {
+        try {
+          sqlLine.runBatch(batch);
+        } catch (SQLException e) {
+          callback.setToFailure();
+          sqlLine.error(e);
+        }
+      }
       return;
     }
 
     try {
       Statement stmnt = null;
+      PreparedStatement cached = null;
       boolean hasResults;
 
       try {
@@ -1122,13 +1164,21 @@ private void executeSingleQuery(String sql, boolean call,
         }
         if (call) {
           stmnt = sqlLine.getDatabaseConnection().connection.prepareCall(sql);
+          sqlLine.setFetchSize(stmnt);
           callback.trackSqlQuery(stmnt);
           hasResults = ((CallableStatement) stmnt).execute();
+        } else if ((cached = sqlLine.takeCachedStatement(sql)) != null) {
+          stmnt = cached;
+          callback.trackSqlQuery(stmnt);
+          hasResults = cached.execute();
         } else {
           stmnt = sqlLine.createStatement();
           callback.trackSqlQuery(stmnt);
           hasResults = stmnt.execute(sql);
         }
+        if (StatementCache.invalidates(sql)) {
+          sqlLine.getDatabaseConnection().statementCache.clear();
+        }
 
         sqlLine.showWarnings();
         sqlLine.showWarnings(stmnt.getWarnings());
@@ -1153,7 +1203,15 @@ private void executeSingleQuery(String sql, boolean call,
           }
         }
       } finally {
-        if (stmnt != null) {
+        if (cached != null) {
+          try {
+            sqlLine.showWarnings(cached.getWarnings());
+            cached.clearWarnings();
+          } finally {
+            sqlLine.getDatabaseConnection().statementCache
+                .release(sql, cached);
+          }
+        } else if (stmnt != null) {
           sqlLine.showWarnings(stmnt.getWarnings());
           stmnt.close();
         }
@@ -1185,6 +1243,7 @@ public void quit(String line, DispatchCallback callback) {
    * @param callback Callback for command status
    */
   public void closeall(String line, DispatchCallback callback) {
+    sqlLine.getConnectionPool().clear();
     close(null, callback);
     if (callback.isSuccess()) {
       while (callback.isSuccess()) {
@@ -1218,6 +1277,8 @@ public void close(String line, DispatchCallback callback) {
     }
 
     try {
+      databaseConnection.statementCache.clear();
+      databaseConnection.saveMetadata();
       Connection connection = databaseConnection.getConnection();
       if (connection != null && !connection.isClosed()) {
         sqlLine.debug(
@@ -1479,6 +1540,7 @@ && isBlank(password)
     try {
       sqlLine.getDatabaseConnections().setConnection(connection);
       sqlLine.getDatabaseConnection().getConnection();
+      sqlLine.getConnectionPool().warm(connection);
       callback.setToSuccess();
     } catch (Exception e) {
       connection.close();
@@ -1511,6 +1573,7 @@ public void rehash(String line, DispatchCallback callback) {
       }
 
       if (sqlLine.getDatabaseConnection() != null) {
+        sqlLine.getDatabaseConnection().invalidateMetadata();
         sqlLine.getDatabaseConnection().setCompletions(false);
       }
 
@@ -1619,16 +1682,90 @@ public void list(String line, DispatchCallback callback) {
     callback.setToSuccess();
   }
 
+  /**
+   * Executes a SQL statement against each connection.
+   *
+   * <p>Options, before the statement:
+   *
+   * <ul>
+   *   <li>{@code -parallel[=n]} runs the statement on up to {@code n}
+   *   connections at a time (default {@link #DEFAULT_PARALLELISM}), each
+   *   on a thread of its own, and prints the output of each connection
+   *   when it is complete;</li>
+   *   <li>{@code -unordered}, with {@code -parallel}, prints the output
+   *   of each connection as soon as it is complete, rather than in
+   *   connection order;</li>
+   *   <li>{@code -filter=regex} runs the statement only on connections
+   *   whose nickname (or URL, if it has no nickname) contains a match for
+   *   {@code regex}.</li>
+   * </ul>
+   *
+   * @param line Command line
+   * @param callback Callback for command status
+   */
   public void all(String line, DispatchCallback callback) {
+    final String usage = "Usage: all [-parallel[=<n>]] [-unordered] "
+        + "[-filter=<regex>] <sql>";
+    String sql = line.substring("all".length()).trim();
+    int parallelism = 0;
+    boolean unordered = false;
+    Pattern filter = null;
+    while (sql.startsWith("-") && !sql.startsWith("--")) {
+      final int end = firstWhitespace(sql);
+      final String option = sql.substring(0, end);
+      sql = sql.substring(end).trim();
+      try {
+        if (parallelism(option) > 0) {
+          parallelism = parallelism(option);
+        } else if (option.equals("-unordered")) {
+          unordered = true;
+        } else if (option.startsWith("-filter=")) {
+          filter = Pattern.compile(option.substring("-filter=".length()));
+        } else {
+          throw new IllegalArgumentException(option);
+        }
+      } catch (IllegalArgumentException e) {
+        sqlLine.error(usage);
+        callback.setToFailure();
+        return;
+      }
+    }
+    if (sql.isEmpty()) {
+      sqlLine.error(usage);
+      callback.setToFailure();
+      return;
+    }
+
+    final List<DatabaseConnection> connections = new ArrayList<>();
+    for (DatabaseConnection connection : sqlLine.getDatabaseConnections()) {
+      final String name = connection.getNickname() != null
+          ? connection.getNickname()
+          : connection.getUrl();
+      if (filter == null || filter.matcher(name).find()) {
+        connections.add(connection);
+      }
+    }
+
+    // Run one connection at a time if statements are being batched, or if
+    // the user must confirm the statement, which workers cannot ask
+    if (parallelism > 0
+        && sqlLine.getBatch() == null
+        && !(sqlLine.getOpts().getConfirm()
+            && sqlLine.getOpts().getCompiledConfirmPattern().matcher(sql)
+                .find())) {
+      allParallel(sql, connections, parallelism, unordered, callback);
+      return;
+    }
+
     int index = sqlLine.getDatabaseConnections().getIndex();
     boolean success = true;
-    for (int i = 0; i < sqlLine.getDatabaseConnections().size(); i++) {
-      sqlLine.getDatabaseConnections().setIndex(i);
+    for (DatabaseConnection connection : connections) {
+      sqlLine.getDatabaseConnections().setConnection(connection);
       sqlLine.output(
           sqlLine.loc("executing-con", sqlLine.getDatabaseConnection()));
 
       // ### FIXME:  this is broken for multi-line SQL
-      sql(line.substring("all ".length()), callback);
+      sql(sql, callback);
       success = callback.isSuccess() && success;
     }
 
@@ -1641,6 +1778,203 @@ public void all(String line, DispatchCallback callback) {
     }
   }
 
+  /** Returns the index of the first whitespace character in a string, or
+   * its length if it has none. */
+  private static int firstWhitespace(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (Character.isWhitespace(s.charAt(i))) {
+        return i;
+      }
+    }
+    return s.length();
+  }
+
+  /** Parses a "-parallel" or "-parallel=n" option, and returns the number
+   * of tasks to run at a time, or 0 if the option is something else. */
+  private static int parallelism(String option) {
+    if (option.equals("-parallel")) {
+      return DEFAULT_PARALLELISM;
+    }
+    if (option.startsWith("-parallel=")) {
+      final int n =
+          Integer.parseInt(option.substring("-parallel=".length()));
+      if (n < 1) {
+        throw new IllegalArgumentException(option);
+      }
+      return n;
+    }
+    return 0;
+  }
+
+  /** Executes a SQL statement against several connections at a time, for
+   * {@link #all}. */
+  private void allParallel(String sql, List<DatabaseConnection> connections,
+      int parallelism, boolean unordered, DispatchCallback callback) {
+    final List<Task> tasks = new ArrayList<>();
+    for (DatabaseConnection connection : connections) {
+      tasks.add(
+          new Task(sqlLine.loc("executing-con", connection),
+              connection.toString(), connection, c -> sql(sql, c)));
+    }
+    final List<Task> done =
+        runParallel(tasks, parallelism, unordered, "all", callback);
+    if (done == null) {
+      return;
+    }
+    final long successes =
+        done.stream().filter(task -> task.callback.isSuccess()).count();
+    sqlLine.info(sqlLine.loc("all-complete", successes, tasks.size()));
+    if (successes == tasks.size()) {
+      callback.setToSuccess();
+    } else {
+      callback.setToFailure();
+    }
+  }
+
+  /**
+   * Runs tasks on worker threads, and prints the output of each task when
+   * it is complete, followed by whether it succeeded and how long it took.
+   *
+   * @param tasks Tasks
+   * @param parallelism Maximum number of tasks to run at a time
+   * @param unordered Whether to print the output of each task as soon as it
+   *                  is complete, rather than in the order of the tasks
+   * @param command Name of the command, used to name the threads
+   * @param callback Callback of the command
+   * @return Tasks that are complete, in the order that they were printed,
+   *   or null if the command was canceled or failed
+   */
+  private List<Task> runParallel(List<Task> tasks, int parallelism,
+      boolean unordered, String command, DispatchCallback callback) {
+    final AtomicInteger threadCount = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(parallelism, tasks.size())), r -> {
+          final Thread thread = new Thread(r,
+              "sqlline-" + command + "-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    final CompletionService<Task> completionService =
+        new ExecutorCompletionService<>(executor);
+    final List<Future<Task>> futures = new ArrayList<>();
+    for (Task task : tasks) {
+      futures.add(completionService.submit(task));
+    }
+
+    final List<Task> done = new ArrayList<>();
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        final Future<Task> future =
+            unordered ? completionService.take() : futures.get(i);
+        final Task task = waitFor(future, tasks, callback);
+        if (task == null) {
+          sqlLine.info(sqlLine.loc("command-canceled"));
+          return null;
+        }
+        done.add(task);
+        sqlLine.output(task.header);
+        if (!task.output.isEmpty()) {
+          sqlLine.output(task.output);
+        }
+        printStatus(task);
+      }
+      return done;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      callback.setToCancel();
+      sqlLine.info(sqlLine.loc("command-canceled"));
+      return null;
+    } catch (ExecutionException e) {
+      callback.setToFailure();
+      sqlLine.error(e.getCause());
+      return null;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Prints whether a task succeeded, and how long it took. */
+  private void printStatus(Task task) {
+    final double seconds = task.nanos / 1e9;
+    if (task.callback.isSuccess()) {
+      sqlLine.info(sqlLine.loc("task-succeeded", task.name, seconds));
+    } else {
+      sqlLine.error(sqlLine.loc("task-failed", task.name, seconds));
+    }
+  }
+
+  /** Waits for a task to finish, and returns it; or, if the command is
+   * canceled while it waits, cancels the statements of all tasks and
+   * returns null. */
+  private static Task waitFor(Future<Task> future, List<Task> tasks,
+      DispatchCallback callback)
+      throws InterruptedException, ExecutionException {
+    for (;;) {
+      if (callback.isCanceled()) {
+        for (Task task : tasks) {
+          try {
+            task.callback.forceKillSqlQuery();
+          } catch (SQLException e) {
+            // ignore; the statement may be complete
+          }
+        }
+        return null;
+      }
+      try {
+        return future.get(100, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        // check whether canceled, and wait again
+      }
+    }
+  }
+
+  /** Work that a parallel {@link #all} or {@link #run} does on a worker
+   * thread, using a given connection, and sending its output to a
+   * buffer. */
+  private class Task implements Callable<Task> {
+    /** Line printed before the output. */
+    final String header;
+    /** Name of the connection or script, printed with the status. */
+    final String name;
+    final DatabaseConnection connection;
+    final Consumer<DispatchCallback> work;
+    final DispatchCallback callback = new DispatchCallback();
+    String output = "";
+    long nanos;
+
+    Task(String header, String name, DatabaseConnection connection,
+        Consumer<DispatchCallback> work) {
+      this.header = header;
+      this.name = name;
+      this.connection = connection;
+      this.work = work;
+    }
+
+    public Task call() throws UnsupportedEncodingException {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final PrintStream out =
+          new PrintStream(bytes, false, StandardCharsets.UTF_8.name());
+      final long start = System.nanoTime();
+      sqlLine.setRedirect(
+          new SqlLine.Redirect(out, true, connection,
+              sqlLine.createOutputFormats()));
+      try {
+        work.accept(callback);
+      } finally {
+        sqlLine.setRedirect(null);
+        nanos = System.nanoTime() - start;
+      }
+      out.flush();
+      output = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+      if (output.endsWith(SqlLine.getSeparator())) {
+        // SqlLine.output adds the final line separator
+        output = output.substring(0,
+            output.length() - SqlLine.getSeparator().length());
+      }
+      return this;
+    }
+  }
+
   public void go(String line, DispatchCallback callback) {
     String[] parts = sqlLine.split(line, 2, "Usage: go <connection index>");
     if (parts == null) {
@@ -1716,7 +2050,8 @@ private void startScript(String line, DispatchCallback callback) {
     }
 
     try {
-      outFile = new OutputFile(expand(filename));
+      outFile = new OutputFile(expand(filename),
+          sqlLine.getOpts().getMaxOutputFileSize());
       sqlLine.setScriptOutputFile(outFile);
       sqlLine.info(sqlLine.loc("script-started", outFile));
       callback.setToSuccess();
@@ -1733,6 +2068,11 @@ private void startScript(String line, DispatchCallback callback) {
    * @param callback Callback for command status
    */
   public void run(String line, DispatchCallback callback) {
+    final String rest = line.substring("run".length()).trim();
+    if (rest.startsWith("-")) {
+      runParallel(rest, callback);
+      return;
+    }
     String filename;
     if (line.length() == "run".length()
         || (filename =
@@ -1741,39 +2081,13 @@ public void run(String line, DispatchCallback callback) {
       callback.setToFailure();
       return;
     }
-    List<String> cmds = new LinkedList<>();
+    runScript(filename, callback);
+  }
 
+  /** Runs the commands in a script file, on the current thread. */
+  private void runScript(String filename, DispatchCallback callback) {
     try {
-      try (BufferedReader reader = new BufferedReader(
-          new InputStreamReader(
-              new FileInputStream(expand(filename)), StandardCharsets.UTF_8))) {
-        // ### NOTE: fix for sf.net bug 879427
-        final StringBuilder cmd = new StringBuilder();
-        boolean needsContinuation;
-        for (;;) {
-          final String scriptLine = reader.readLine();
-          if (scriptLine == null) {
-            break;
-          }
-          // we're continuing an existing command
-          cmd.append(" \n");
-          cmd.append(scriptLine);
-
-          needsContinuation = stateIsNotOk(cmd.toString());
-          if (!needsContinuation && !cmd.toString().trim().isEmpty()) {
-            cmds.add(maybeTrim(flush(cmd)));
-          }
-        }
-
-        if (SqlLineParser.isSql(sqlLine, cmd.toString(),
-            Parser.ParseContext.ACCEPT_LINE)) {
-          // ### REVIEW: oops, somebody left the last command
-          // unterminated; should we fix it for them or complain?
-          // For now be nice and fix it.
-          cmd.append(";");
-          cmds.add(cmd.toString());
-        }
-      }
+      final List<String> cmds = readScript(filename);
 
       // success only if all the commands were successful
       if (sqlLine.runCommands(cmds, callback) == cmds.size()) {
@@ -1787,6 +2101,142 @@ public void run(String line, DispatchCallback callback) {
     }
   }
 
+  /**
+   * Runs several scripts at a time, for "run -parallel[=n] file...".
+   *
+   * <p>Each script runs on a thread of its own, with a connection of its
+   * own to the same database as the current connection, and its output
+   * goes to a buffer that is printed when the script is complete, followed
+   * by whether the script succeeded and how long it took.
+   *
+   * <p>The scripts run one at a time, on the current connection, if
+   * statements are being batched, if the user may have to confirm a
+   * statement, which workers cannot ask, or if this is itself a script
+   * running on a worker.
+   */
+  private void runParallel(String args, DispatchCallback callback) {
+    final String usage = "Usage: run -parallel[=<n>] <file name>...";
+    final String[] parts = sqlLine.split(args);
+    int parallelism;
+    try {
+      parallelism = parts == null ? 0 : parallelism(parts[0]);
+    } catch (IllegalArgumentException e) {
+      parallelism = 0;
+    }
+    if (parallelism == 0 || parts.length < 2) {
+      sqlLine.error(usage);
+      callback.setToFailure();
+      return;
+    }
+    if (!sqlLine.assertConnection()) {
+      callback.setToFailure();
+      return;
+    }
+
+    if (sqlLine.getBatch() != null
+        || sqlLine.getOpts().getConfirm()
+        || sqlLine.getRedirect() != null) {
+      int successes = 0;
+      for (int i = 1; i < parts.length; i++) {
+        sqlLine.info(sqlLine.loc("running-script", parts[i]));
+        final DispatchCallback c = new DispatchCallback();
+        runScript(parts[i], c);
+        if (c.isSuccess()) {
+          ++successes;
+        }
+      }
+      sqlLine.info(sqlLine.loc("run-complete", successes, parts.length - 1));
+      if (successes == parts.length - 1) {
+        callback.setToSuccess();
+      } else {
+        callback.setToFailure();
+      }
+      return;
+    }
+
+    final List<Task> tasks = new ArrayList<>();
+    for (int i = 1; i < parts.length; i++) {
+      final String filename = parts[i];
+      final DatabaseConnection prototype = sqlLine.getDatabaseConnection();
+      tasks.add(
+          new Task(sqlLine.loc("running-script", filename), filename,
+              prototype, c -> runScript(filename, prototype, c)));
+    }
+    final List<Task> done =
+        runParallel(tasks, parallelism, false, "run", callback);
+    if (done == null) {
+      return;
+    }
+    final long successes =
+        done.stream().filter(task -> task.callback.isSuccess()).count();
+    sqlLine.info(sqlLine.loc("run-complete", successes, tasks.size()));
+    if (successes == tasks.size()) {
+      callback.setToSuccess();
+    } else {
+      callback.setToFailure();
+    }
+  }
+
+  /** Borrows a connection like {@code prototype} from the pool, runs a
+   * script on it, and gives it back, on a worker thread of
+   * {@link #runParallel}. */
+  private void runScript(String filename, DatabaseConnection prototype,
+      DispatchCallback callback) {
+    final ConnectionPool pool = sqlLine.getConnectionPool();
+    final DatabaseConnection connection;
+    try {
+      connection = pool.borrow(prototype);
+    } catch (SQLException e) {
+      callback.setToFailure();
+      sqlLine.error(e);
+      return;
+    }
+    final SqlLine.Redirect redirect = sqlLine.getRedirect();
+    sqlLine.setRedirect(redirect.withConnection(connection));
+    try {
+      runScript(filename, callback);
+    } finally {
+      sqlLine.setRedirect(redirect);
+      pool.release(connection);
+    }
+  }
+
+  /** Reads a script file, and returns the commands in it. */
+  private List<String> readScript(String filename) throws IOException {
+    List<String> cmds = new LinkedList<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(
+            new FileInputStream(expand(filename)), StandardCharsets.UTF_8))) {
+      // ### NOTE: fix for sf.net bug 879427
+      final StringBuilder cmd = new StringBuilder();
+      boolean needsContinuation;
+      for (;;) {
+        final String scriptLine = reader.readLine();
+        if (scriptLine == null) {
+          break;
+        }
+        // we're continuing an existing command
+        cmd.append(" \n");
+        cmd.append(scriptLine);
+
+        needsContinuation = stateIsNotOk(cmd.toString());
+        if (!needsContinuation && !cmd.toString().trim().isEmpty()) {
+          cmds.add(maybeTrim(flush(cmd)));
+        }
+      }
+
+      if (SqlLineParser.isSql(sqlLine, cmd.toString(),
+          Parser.ParseContext.ACCEPT_LINE)) {
+        // ### REVIEW: oops, somebody left the last command
+        // unterminated; should we fix it for them or complain?
+        // For now be nice and fix it.
+        cmd.append(";");
+        cmds.add(cmd.toString());
+      }
+    }
+    return cmds;
+  }
+
   /** Returns a line, trimmed if the
    * {@link BuiltInProperty#TRIM_SCRIPTS options require trimming}. */
   private String maybeTrim(String line) {
@@ -1918,7 +2368,8 @@ private void startRecording(String line, DispatchCallback callback) {
     final String filename = cmd[1];
 
     try {
-      outputFile = new OutputFile(expand(filename));
+      outputFile = new OutputFile(expand(filename),
+          sqlLine.getOpts().getMaxOutputFileSize());
       sqlLine.setRecordOutputFile(outputFile);
       sqlLine.info(sqlLine.loc("record-started", outputFile));
       callback.setToSuccess();
@@ -1928,6 +2379,428 @@ private void startRecording(String line, DispatchCallback callback) {
     }
   }
 
+  /**
+   * Executes a query and writes its results, in a given output format, to
+   * a file.
+   *
+   * <p>Rows go straight to the file: they are not written to the console
+   * or to the record file, and have no colors. If the file name ends with
+   * ".gz", the file is compressed with gzip.
+   *
+   * @param line Command line, "export {format} {file name} {query}"
+   * @param callback Callback for command status
+   */
+  public void export(String line, DispatchCallback callback) {
+    final String[] parts = line.trim().split("\\s+", 4);
+    if (parts.length != 4) {
+      sqlLine.error("Usage: export <format> <file name> <query>");
+      callback.setToFailure();
+      return;
+    }
+    final String format = parts[1];
+    if (!sqlLine.getOutputFormats().containsKey(format)) {
+      sqlLine.error(
+          sqlLine.loc("unknown-value",
+              BuiltInProperty.OUTPUT_FORMAT.propertyName(), format,
+              sqlLine.getOutputFormats().keySet()));
+      callback.setToFailure();
+      return;
+    }
+    if (!sqlLine.assertConnection()) {
+      callback.setToFailure();
+      return;
+    }
+    final Path path = Paths.get(expand(parts[2]));
+    String sql = parts[3].trim();
+    if (sql.endsWith(";")) {
+      sql = skipLast(sql);
+    }
+
+    try {
+      final long start = System.nanoTime();
+      final int count;
+      try (Statement stmnt = sqlLine.createStatement()) {
+        callback.trackSqlQuery(stmnt);
+        if (!stmnt.execute(sql)) {
+          sqlLine.error(sqlLine.loc("export-no-results"));
+          callback.setToFailure();
+          return;
+        }
+        sqlLine.showWarnings(stmnt.getWarnings());
+        try (ResultSet rs = stmnt.getResultSet();
+             OutputStream out = openExportFile(path)) {
+          count = sqlLine.export(rs, format, out, callback);
+        }
+      }
+      final double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+      final long bytes = Files.size(path);
+      sqlLine.info(
+          sqlLine.loc("export-complete",
+              sqlLine.loc("rows-exported", count), bytes, path, seconds,
+              count / seconds, bytes / seconds / (1 << 20)));
+      callback.setToSuccess();
+    } catch (UserInterruptException uie) {
+      callback.setStatus(DispatchCallback.Status.CANCELED);
+      sqlLine.info(sqlLine.loc("command-canceled"));
+    } catch (Exception e) {
+      callback.setToFailure();
+      sqlLine.error(e);
+    }
+  }
+
+  /** Opens a file for {@link #export}, compressed if its name ends with
+   * ".gz". */
+  private static OutputStream openExportFile(Path path) throws IOException {
+    final int bufferSize = 1 << 16;
+    final OutputStream out = Channels.newOutputStream(FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE));
+    if (path.getFileName().toString().endsWith(".gz")) {
+      return new GZIPOutputStream(out, bufferSize);
+    }
+    return new BufferedOutputStream(out, bufferSize);
+  }
+
+  /**
+   * Loads rows from a file of comma- or tab-separated values into a table,
+   * for "import &lt;table&gt; &lt;file name&gt; [options]".
+   *
+   * <p>Each row is inserted by a prepared statement built from the
+   * columns of the table, in batches. With "-parallel", the batches are
+   * spread over several connections borrowed from the
+   * {@link ConnectionPool}.
+   *
+   * <p>The method is not called "import" because that is a Java keyword.
+   *
+   * @param line Command line
+   * @param callback Callback for command status
+   */
+  public void importFile(String line, DispatchCallback callback) {
+    final String usage = "Usage: import <table> <file name> [-format=csv|tsv]"
+        + " [-noheader] [-null=<s>] [-batch=<n>] [-commit=<n>]"
+        + " [-parallel[=<n>]]";
+    final String[] parts = sqlLine.split(line);
+    String table = null;
+    String filename = null;
+    String format = null;
+    boolean header = true;
+    String nullValue = null;
+    int batchSize = DEFAULT_IMPORT_BATCH_SIZE;
+    int commitInterval = 0;
+    int parallelism = 0;
+    try {
+      for (int i = 1; parts != null && i < parts.length; i++) {
+        final String part = parts[i];
+        if (part.startsWith("-format=")) {
+          format = part.substring("-format=".length());
+        } else if (part.equals("-noheader")) {
+          header = false;
+        } else if (part.startsWith("-null=")) {
+          nullValue = part.substring("-null=".length());
+        } else if (part.startsWith("-batch=")) {
+          batchSize = Integer.parseInt(part.substring("-batch=".length()));
+          if (batchSize < 1) {
+            throw new IllegalArgumentException(part);
+          }
+        } else if (part.startsWith("-commit=")) {
+          commitInterval =
+              Integer.parseInt(part.substring("-commit=".length()));
+          if (commitInterval < 0) {
+            throw new IllegalArgumentException(part);
+          }
+        } else if (part.startsWith("-")) {
+          parallelism = parallelism(part);
+          if (parallelism == 0) {
+            throw new IllegalArgumentException(part);
+          }
+        } else if (table == null) {
+          table = part;
+        } else if (filename == null) {
+          filename = part;
+        } else {
+          throw new IllegalArgumentException(part);
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      table = null;
+    }
+    if (table == null || filename == null) {
+      sqlLine.error(usage);
+      callback.setToFailure();
+      return;
+    }
+    if (format == null) {
+      format = filename.endsWith(".tsv") || filename.endsWith(".tsv.gz")
+          ? "tsv"
+          : "csv";
+    }
+    final String separator;
+    final char quoteCharacter;
+    switch (format) {
+    case "csv":
+      separator = sqlLine.getOpts().getCsvDelimiter();
+      quoteCharacter = sqlLine.getOpts().getCsvQuoteCharacter();
+      break;
+    case "tsv":
+      separator = "\t";
+      quoteCharacter = '"';
+      break;
+    default:
+      sqlLine.error(
+          sqlLine.loc("unknown-value", "format", format,
+              Arrays.asList("csv", "tsv")));
+      callback.setToFailure();
+      return;
+    }
+    if (!sqlLine.assertConnection()) {
+      callback.setToFailure();
+      return;
+    }
+    try {
+      // The loader commits, and rolls back if it fails, which would end the
+      // user's transaction on the current connection
+      if (parallelism == 0
+          && !sqlLine.getDatabaseConnection().connection.getAutoCommit()) {
+        sqlLine.error(sqlLine.loc("import-in-transaction"));
+        callback.setToFailure();
+        return;
+      }
+    } catch (SQLException e) {
+      callback.setToFailure();
+      sqlLine.error(e);
+      return;
+    }
+
+    final Path path = Paths.get(expand(filename));
+    try (SeparatedValuesReader reader =
+             openImportFile(path, separator, quoteCharacter, nullValue)) {
+      final long start = System.nanoTime();
+      final List<String> columns = header ? reader.next() : null;
+      final DatabaseConnection connection = sqlLine.getDatabaseConnection();
+      final TableLoader.Target target =
+          TableLoader.target(sqlLine, connection.meta,
+              sqlLine.splitCompound(table)[0], columns);
+      final long count;
+      if (parallelism > 0) {
+        count = importParallel(reader, target, batchSize, commitInterval,
+            parallelism, callback);
+      } else {
+        count = importRows(reader, target, batchSize, commitInterval,
+            callback);
+      }
+      if (count < 0) {
+        callback.setStatus(DispatchCallback.Status.CANCELED);
+        sqlLine.info(sqlLine.loc("command-canceled"));
+        return;
+      }
+      final double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+      sqlLine.info(
+          sqlLine.loc("import-complete",
+              sqlLine.loc("rows-imported", count), table, path, seconds,
+              count / seconds));
+      callback.setToSuccess();
+    } catch (Exception e) {
+      if (callback.isCanceled()) {
+        // The statement failed because it was canceled
+        sqlLine.info(sqlLine.loc("command-canceled"));
+        return;
+      }
+      callback.setToFailure();
+      sqlLine.error(e);
+    }
+  }
+
+  /** Opens a file for {@link #importFile}, uncompressing it if its name
+   * ends with ".gz". */
+  private static SeparatedValuesReader openImportFile(Path path,
+      String separator, char quoteCharacter, String nullValue)
+      throws IOException {
+    final int bufferSize = 1 << 16;
+    InputStream in = Files.newInputStream(path);
+    if (path.getFileName().toString().endsWith(".gz")) {
+      in = new GZIPInputStream(in, bufferSize);
+    }
+    return new SeparatedValuesReader(
+        new InputStreamReader(in, StandardCharsets.UTF_8), separator,
+        quoteCharacter, nullValue);
+  }
+
+  /** Returns the next row from a reader for {@link #importFile}, or null if
+   * there are no more; throws if the row has the wrong number of
+   * values. */
+  private List<String> nextRow(SeparatedValuesReader reader,
+      TableLoader.Target target) throws IOException {
+    final List<String> row = reader.next();
+    if (row != null && row.size() != target.types.length) {
+      throw new IllegalArgumentException(
+          sqlLine.loc("import-bad-row", reader.getLineNumber(), row.size(),
+              target.types.length));
+    }
+    return row;
+  }
+
+  /** Loads rows into a table on the current connection, and returns the
+   * number of rows, or -1 if canceled. */
+  private long importRows(SeparatedValuesReader reader,
+      TableLoader.Target target, int batchSize, int commitInterval,
+      DispatchCallback callback) throws IOException, SQLException {
+    try (TableLoader loader =
+             new TableLoader(sqlLine.getDatabaseConnection().connection,
+                 target, batchSize, commitInterval)) {
+      callback.trackSqlQuery(loader.getStatement());
+      long count = 0;
+      for (List<String> row; (row = nextRow(reader, target)) != null;) {
+        if (callback.isCanceled()) {
+          return -1;
+        }
+        loader.add(row);
+        ++count;
+      }
+      loader.flush();
+      return count;
+    }
+  }
+
+  /** Loads rows into a table using several connections, each on a thread
+   * of its own, and returns the number of rows, or -1 if canceled. This
+   * thread reads batches of rows, and each worker takes a batch and
+   * inserts it. */
+  private long importParallel(SeparatedValuesReader reader,
+      TableLoader.Target target, int batchSize, int commitInterval,
+      int parallelism, DispatchCallback callback) throws Exception {
+    final DatabaseConnection prototype = sqlLine.getDatabaseConnection();
+    final BlockingQueue<List<List<String>>> queue =
+        new ArrayBlockingQueue<>(parallelism * 2);
+    final List<List<String>> end = new ArrayList<>();
+    final AtomicInteger threadCount = new AtomicInteger();
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(parallelism, r -> {
+          final Thread thread = new Thread(r,
+              "sqlline-import-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    final List<DispatchCallback> callbacks = new ArrayList<>();
+    final List<Future<Long>> futures = new ArrayList<>();
+    try {
+      for (int i = 0; i < parallelism; i++) {
+        final DispatchCallback workerCallback = new DispatchCallback();
+        callbacks.add(workerCallback);
+        futures.add(
+            executor.submit(() ->
+                importWorker(prototype, target, batchSize, commitInterval,
+                    queue, end, workerCallback)));
+      }
+      List<List<String>> batch = new ArrayList<>(batchSize);
+      for (List<String> row; (row = nextRow(reader, target)) != null;) {
+        batch.add(row);
+        if (batch.size() == batchSize) {
+          if (!put(queue, batch, futures, callbacks, callback)) {
+            return -1;
+          }
+          batch = new ArrayList<>(batchSize);
+        }
+      }
+      if (!batch.isEmpty()
+          && !put(queue, batch, futures, callbacks, callback)) {
+        return -1;
+      }
+      for (int i = 0; i < parallelism; i++) {
+        if (!put(queue, end, futures, callbacks, callback)) {
+          return -1;
+        }
+      }
+      long count = 0;
+      for (Future<Long> future : futures) {
+        for (;;) {
+          if (callback.isCanceled()) {
+            cancel(callbacks);
+            return -1;
+          }
+          try {
+            count += future.get(100, TimeUnit.MILLISECONDS);
+            break;
+          } catch (TimeoutException e) {
+            // check whether canceled, and wait again
+          }
+        }
+      }
+      return count;
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception
+          ? (Exception) e.getCause()
+          : e;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Puts a batch of rows onto the queue for the import workers, waiting
+   * while it is full; returns false if the command is canceled, and throws
+   * if a worker has failed. */
+  private static boolean put(BlockingQueue<List<List<String>>> queue,
+      List<List<String>> batch, List<Future<Long>> futures,
+      List<DispatchCallback> callbacks, DispatchCallback callback)
+      throws InterruptedException, ExecutionException {
+    for (;;) {
+      if (callback.isCanceled()) {
+        cancel(callbacks);
+        return false;
+      }
+      for (Future<Long> future : futures) {
+        if (future.isDone()) {
+          // A worker that stops before it takes the end marker has
+          // failed, and this throws its exception
+          future.get();
+        }
+      }
+      if (queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+    }
+  }
+
+  private static void cancel(List<DispatchCallback> callbacks) {
+    for (DispatchCallback callback : callbacks) {
+      try {
+        callback.forceKillSqlQuery();
+      } catch (SQLException e) {
+        // ignore; the statement may be complete
+      }
+    }
+  }
+
+  /** Borrows a connection like {@code prototype} from the pool, and
+   * inserts batches of rows from the queue until it takes {@code end};
+   * runs on a worker thread of {@link #importParallel}. */
+  private long importWorker(DatabaseConnection prototype,
+      TableLoader.Target target, int batchSize, int commitInterval,
+      BlockingQueue<List<List<String>>> queue, List<List<String>> end,
+      DispatchCallback callback) throws Exception {
+    // Connecting may print messages, but nobody would see them in order;
+    // failures are thrown
+    final ConnectionPool pool = sqlLine.getConnectionPool();
+    final DatabaseConnection connection = pool.borrowQuietly(prototype);
+    try (TableLoader loader = new TableLoader(connection.connection, target,
+        batchSize, commitInterval)) {
+      callback.trackSqlQuery(loader.getStatement());
+      long count = 0;
+      for (;;) {
+        final List<List<String>> batch = queue.take();
+        if (batch == end) {
+          loader.flush();
+          return count;
+        }
+        for (List<String> row : batch) {
+          loader.add(row);
+        }
+        count += batch.size();
+      }
+    } finally {
+      pool.release(connection);
+    }
+  }
+
   public void describe(String line, DispatchCallback callback)
       throws SQLException {
     String[][] cmd = sqlLine.splitCompound(line);
@@ -0,0 +1,305 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of connections for work that needs a connection other than the
+ * current one, such as the scripts of {@code !run -parallel}. The current
+ * connection is never pooled.
+ *
+ * <p>Connections are pooled by driver, URL and properties (which include
+ * the user name and password), and are borrowed with
+ * {@link #borrow(DatabaseConnection)}, giving a connection like the one to
+ * copy, and given back with {@link #release(DatabaseConnection)}.
+ *
+ * <p>An idle connection is closed rather than reused once it is older than
+ * {@link SqlLineOpts#getConnectionPoolMaxLifetime() connectionPoolMaxLifetime}
+ * seconds, or if {@link Connection#isValid(int)} returns false. If
+ * {@link SqlLineOpts#getConnectionPoolMinIdle() connectionPoolMinIdle} is
+ * positive, then after a connection is made to a database, a background
+ * thread opens connections until that many are idle, so that the next
+ * borrower does not wait for one to open.
+ */
+class ConnectionPool {
+  /** Maximum number of idle connections kept for each database, unless
+   * connectionPoolMinIdle is larger. */
+  static final int MAX_IDLE = 16;
+  private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+  /** Stream that discards messages from connecting that nobody would
+   * see. */
+  private static final PrintStream QUIET = new PrintStream(
+      new OutputStream() {
+        @Override public void write(int b) {
+        }
+
+        @Override public void write(byte[] b, int off, int len) {
+        }
+      });
+
+  private final SqlLine sqlLine;
+  private final Map<List<Object>, Deque<Entry>> idle = new HashMap<>();
+  /** Time at which each borrowed connection was opened. */
+  private final Map<DatabaseConnection, Long> borrowed =
+      new IdentityHashMap<>();
+  /** Thread that opens connections until enough are idle; created on
+   * first use. */
+  private ExecutorService warmer;
+
+  ConnectionPool(SqlLine sqlLine) {
+    this.sqlLine = sqlLine;
+  }
+
+  /**
+   * Borrows a connection to the same database, with the same properties,
+   * as a given connection; reuses an idle one if possible, otherwise
+   * opens one.
+   *
+   * @param prototype Connection to copy
+   * @return Open connection, to be given back by calling {@link #release}
+   * @throws SQLException if a connection cannot be opened
+   */
+  DatabaseConnection borrow(DatabaseConnection prototype)
+      throws SQLException {
+    return borrow(prototype, null);
+  }
+
+  /**
+   * Borrows a connection like {@link #borrow(DatabaseConnection)}, but
+   * discards the messages printed while connecting; for background work
+   * that nobody is waiting for. Failure is still thrown.
+   *
+   * @param prototype Connection to copy
+   * @return Open connection, to be given back by calling {@link #release}
+   * @throws SQLException if a connection cannot be opened
+   */
+  DatabaseConnection borrowQuietly(DatabaseConnection prototype)
+      throws SQLException {
+    return borrow(prototype, QUIET);
+  }
+
+  private DatabaseConnection borrow(DatabaseConnection prototype,
+      PrintStream out) throws SQLException {
+    final List<Object> key = prototype.poolKey();
+    for (;;) {
+      final Entry entry;
+      synchronized (this) {
+        final Deque<Entry> deque = idle.get(key);
+        entry = deque == null ? null : deque.pollFirst();
+      }
+      if (entry == null) {
+        break;
+      }
+      if (isUsable(entry)) {
+        synchronized (this) {
+          borrowed.put(entry.connection, entry.created);
+        }
+        warm(prototype);
+        return entry.connection;
+      }
+      entry.connection.close();
+    }
+
+    final long created = System.nanoTime();
+    final DatabaseConnection connection = open(prototype, out);
+    if (connection == null) {
+      throw new SQLException(
+          sqlLine.loc("pool-connect-failed", prototype.getUrl()));
+    }
+    synchronized (this) {
+      borrowed.put(connection, created);
+    }
+    warm(prototype);
+    return connection;
+  }
+
+  /**
+   * Gives back a borrowed connection. Any transaction is rolled back, and
+   * auto-commit and read-only are set as the options say. If the
+   * connection is broken, too old, or there are enough idle connections,
+   * it is closed.
+   *
+   * @param connection Connection returned by {@link #borrow}
+   */
+  void release(DatabaseConnection connection) {
+    final Long created;
+    synchronized (this) {
+      created = borrowed.remove(connection);
+    }
+    if (created == null || isExpired(created)) {
+      connection.close();
+      return;
+    }
+    try {
+      final Connection c = connection.connection;
+      if (c == null || c.isClosed()) {
+        connection.close();
+        return;
+      }
+      if (!c.getAutoCommit()) {
+        c.rollback();
+      }
+      c.setAutoCommit(sqlLine.getOpts().getAutoCommit());
+      c.setReadOnly(sqlLine.getOpts().getReadOnly());
+    } catch (SQLException e) {
+      connection.close();
+      return;
+    }
+    if (!offer(new Entry(connection, created))) {
+      connection.close();
+    }
+  }
+
+  /** Closes all idle connections. Borrowed connections are closed when they
+   * are released. */
+  void clear() {
+    final List<Entry> entries = new ArrayList<>();
+    synchronized (this) {
+      for (Deque<Entry> deque : idle.values()) {
+        entries.addAll(deque);
+      }
+      idle.clear();
+    }
+    for (Entry entry : entries) {
+      entry.connection.close();
+    }
+  }
+
+  /** Returns the number of idle connections like a given one. */
+  synchronized int idleCount(DatabaseConnection prototype) {
+    final Deque<Entry> deque = idle.get(prototype.poolKey());
+    return deque == null ? 0 : deque.size();
+  }
+
+  /** Opens idle connections, in the background, until there are
+   * {@link SqlLineOpts#getConnectionPoolMinIdle() connectionPoolMinIdle}
+   * like a given connection. */
+  void warm(DatabaseConnection prototype) {
+    if (sqlLine.getOpts().getConnectionPoolMinIdle() <= 0) {
+      return;
+    }
+    synchronized (this) {
+      if (warmer == null) {
+        warmer = Executors.newSingleThreadExecutor(r -> {
+          final Thread thread = new Thread(r, "sqlline-connection-pool");
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+      warmer.execute(() -> fill(prototype));
+    }
+  }
+
+  private void fill(DatabaseConnection prototype) {
+    while (idleCount(prototype)
+        < sqlLine.getOpts().getConnectionPoolMinIdle()) {
+      final long created = System.nanoTime();
+      final DatabaseConnection connection;
+      try {
+        // Nobody is waiting for these connections
+        connection = open(prototype, QUIET);
+      } catch (SQLException e) {
+        return;
+      }
+      if (connection == null) {
+        return;
+      }
+      if (!offer(new Entry(connection, created))) {
+        connection.close();
+        return;
+      }
+    }
+  }
+
+  /** Opens a connection like a given one, or returns null if it cannot.
+   * Messages go to {@code out}, if not null. */
+  private DatabaseConnection open(DatabaseConnection prototype,
+      PrintStream out) throws SQLException {
+    final DatabaseConnection connection = prototype.copy();
+    // While connecting, commands such as "isolation" apply to the new
+    // connection, not the current one
+    final SqlLine.Redirect saved = sqlLine.getRedirect();
+    sqlLine.setRedirect(
+        out != null
+            ? new SqlLine.Redirect(out, true, connection, null)
+            : saved != null
+            ? saved.withConnection(connection)
+            : new SqlLine.Redirect(sqlLine.getOutputStream(), false,
+                connection, null));
+    try {
+      return connection.connect() ? connection : null;
+    } finally {
+      sqlLine.setRedirect(saved);
+    }
+  }
+
+  private synchronized boolean offer(Entry entry) {
+    final Deque<Entry> deque = idle.computeIfAbsent(
+        entry.connection.poolKey(), k -> new ArrayDeque<>());
+    if (deque.size()
+        >= Math.max(MAX_IDLE, sqlLine.getOpts().getConnectionPoolMinIdle())) {
+      return false;
+    }
+    // Most recently used first; the others are more likely to expire
+    deque.addFirst(entry);
+    return true;
+  }
+
+  private boolean isUsable(Entry entry) {
+    if (isExpired(entry.created)) {
+      return false;
+    }
+    try {
+      return entry.connection.connection != null
+          && entry.connection.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+    } catch (SQLException e) {
+      return false;
+    } catch (AbstractMethodError e) {
+      // JDBC 3 driver; assume that the connection is good
+      return true;
+    }
+  }
+
+  private boolean isExpired(long created) {
+    final int maxLifetime = sqlLine.getOpts().getConnectionPoolMaxLifetime();
+    return maxLifetime > 0
+        && System.nanoTime() - created
+            >= TimeUnit.SECONDS.toNanos(maxLifetime);
+  }
+
+  /** Idle connection, and the time at which it was opened. */
+  private static class Entry {
+    final DatabaseConnection connection;
+    final long created;
+
+    Entry(DatabaseConnection connection, long created) {
+      this.connection = connection;
+      this.created = created;
+    }
+  }
+}
+
+// End ConnectionPool.java
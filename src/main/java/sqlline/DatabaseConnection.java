@@ -14,8 +14,12 @@
 import java.lang.reflect.Proxy;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import org.jline.reader.Completer;
 import org.jline.reader.impl.completer.ArgumentCompleter;
@@ -24,6 +28,13 @@
  * Holds a database connection, credentials, and other associated state.
  */
 class DatabaseConnection {
+  /** Seconds for which the thread that loads columns in the background
+   * waits for more work before it stops. */
+  private static final int COLUMN_LOADER_KEEP_ALIVE_SECONDS = 10;
+  /** Seconds for which closing waits for columns being loaded in the
+   * background, before it saves the metadata cache. */
+  private static final int COLUMN_LOADER_SHUTDOWN_SECONDS = 5;
+
   private final SqlLine sqlLine;
   Connection connection;
   DatabaseMetaData meta;
@@ -31,15 +42,30 @@ class DatabaseConnection {
   private final String url;
   private final Properties info;
   private String nickname;
-  private Schema schema = null;
-  private Completer sqlCompleter = null;
-  private Dialect dialect;
+  private volatile Schema schema = null;
+  private volatile Completer sqlCompleter = null;
+  private volatile Dialect dialect;
+  /** Metadata cached on disk, or null; see
+   * {@link SqlLineOpts#getMetadataCacheTtl() metadataCacheTtl}. */
+  private MetadataCache metadataCache;
+  /** Loads metadata for completion in the background, or null; see
+   * {@link SqlLineOpts#getBackgroundMetadata() backgroundMetadata}. */
+  private volatile MetadataLoader metadataLoader;
+  /** Loader that could not borrow a connection, so completion must load
+   * metadata on this connection when it is next used; or null. */
+  private MetadataLoader failedMetadataLoader;
+  /** Prepared statements of {@link #connection}; see
+   * {@link SqlLineOpts#getStatementCacheSize() statementCacheSize}. */
+  final StatementCache statementCache;
+  /** Loads columns in the background; created on first use. */
+  private ExecutorService columnLoader;
 
   DatabaseConnection(SqlLine sqlLine, String driver, String url,
       String username, String password, Properties properties) {
     this.sqlLine = sqlLine;
     this.driver = driver;
     this.url = url;
+    this.statementCache = new StatementCache(sqlLine);
     this.info = properties == null ? new Properties() : properties;
     if (username != null) {
       this.info.put("user", username);
@@ -53,11 +79,118 @@ class DatabaseConnection {
     return getUrl() + "";
   }
 
+  /** Returns a new connection, not yet connected, with the same driver,
+   * URL, properties and nickname as this one. */
+  DatabaseConnection copy() {
+    final DatabaseConnection copy = new DatabaseConnection(sqlLine, driver,
+        url, null, null, (Properties) info.clone());
+    copy.nickname = nickname;
+    return copy;
+  }
+
+  /** Returns the key under which {@link ConnectionPool} pools connections
+   * like this one. */
+  List<Object> poolKey() {
+    return Arrays.asList(driver, url, info);
+  }
+
   void setCompletions(boolean skipmeta) {
+    cancelMetadataLoad();
+    final SqlCompleter completer;
+    if (sqlLine.getOpts().getOnDemandMetadata()) {
+      completer =
+          new SqlCompleter(sqlLine, new MetadataLookup(sqlLine, this));
+    } else if (sqlLine.getOpts().getBackgroundMetadata()
+        && !isCached(skipmeta)) {
+      if (!skipmeta) {
+        // Until the loader has finished, complete with no tables rather
+        // than read them here
+        schema = new Schema(new HashMap<>());
+      }
+      synchronized (this) {
+        metadataLoader = MetadataLoader.start(sqlLine, this, skipmeta);
+        completer = metadataLoader.getCompleter();
+      }
+    } else {
+      completer = new SqlCompleter(sqlLine, skipmeta);
+    }
+    setSqlCompleter(completer);
+  }
+
+  private void setSqlCompleter(SqlCompleter completer) {
     // setup the completer for the database
-    sqlCompleter = new ArgumentCompleter(new SqlCompleter(sqlLine, skipmeta));
+    final ArgumentCompleter argumentCompleter =
+        new ArgumentCompleter(completer);
     // not all argument elements need to hold true
-    ((ArgumentCompleter) sqlCompleter).setStrict(false);
+    argumentCompleter.setStrict(false);
+    sqlCompleter = argumentCompleter;
+  }
+
+  /** Returns whether the metadata cache has all the metadata that
+   * completion needs. */
+  private boolean isCached(boolean skipmeta) {
+    final MetadataCache.Metadata metadata =
+        metadataCache == null ? null : metadataCache.get();
+    return metadata != null && (skipmeta || metadata.schema2tables != null);
+  }
+
+  /** Cancels loading metadata in the background; returns whether it was
+   * running. */
+  boolean cancelMetadataLoad() {
+    final MetadataLoader loader;
+    synchronized (this) {
+      loader = metadataLoader;
+      metadataLoader = null;
+      failedMetadataLoader = null;
+    }
+    return loader != null && loader.cancel();
+  }
+
+  /**
+   * Called by {@link MetadataLoader} if it cannot open another connection
+   * to the database. The next completion loads metadata on this
+   * connection, as if {@link SqlLineOpts#getBackgroundMetadata()
+   * backgroundMetadata} were false.
+   *
+   * @param loader Loader
+   */
+  void metadataLoaderFailed(MetadataLoader loader) {
+    synchronized (this) {
+      if (metadataLoader != loader) {
+        // Superseded by another loader, or canceled
+        return;
+      }
+      metadataLoader = null;
+      failedMetadataLoader = loader;
+    }
+  }
+
+  /**
+   * Called by {@link MetadataLoader} when it has finished or been canceled.
+   *
+   * @param loader Loader
+   * @param metadata Keywords, functions and dialect, or null if canceled
+   *                 before they were loaded
+   * @param tables Tables, or null if not loaded
+   * @param complete Whether everything was loaded
+   */
+  void metadataLoaded(MetadataLoader loader, MetadataCache.Metadata metadata,
+      Map<String, Map<String, Set<String>>> tables, boolean complete) {
+    synchronized (this) {
+      if (metadataLoader == loader) {
+        metadataLoader = null;
+      } else if (metadataLoader != null || connection == null) {
+        // Superseded by another loader, or the connection is closed
+        return;
+      }
+    }
+    if (tables != null) {
+      schema = new Schema(tables);
+    }
+    if (complete && metadataCache != null) {
+      metadataCache.put(
+          tables == null ? metadata : metadata.withTables(tables));
+    }
   }
 
   /**
@@ -68,22 +201,12 @@ void setCompletions(boolean skipmeta) {
    * depends on the set of keywords and identifier quote string).
    */
   private void initSyntaxRule() throws SQLException {
-    // Deduce the string used to quote identifiers. For example, Oracle
-    // uses double-quotes:
-    //   SELECT * FROM "My Schema"."My Table"
-    String identifierQuoteString = meta.getIdentifierQuoteString();
-    if (identifierQuoteString.length() > 1) {
-      sqlLine.error("Identifier quote string is '" + identifierQuoteString
-          + "'; quote strings longer than 1 char are not supported");
-      identifierQuoteString = null;
-    }
-    final String productName = meta.getDatabaseProductName();
-    final Set<String> keywords =
-        Stream.of(meta.getSQLKeywords().split(","))
-            .collect(Collectors.toSet());
-    dialect = DialectImpl.create(keywords, identifierQuoteString,
-        productName, meta.storesLowerCaseIdentifiers(),
-        meta.storesUpperCaseIdentifiers(), meta.getExtraNameCharacters());
+    MetadataCache.Metadata metadata =
+        metadataCache == null ? null : metadataCache.get();
+    if (metadata == null) {
+      metadata = MetadataCache.Metadata.load(meta, false);
+    }
+    dialect = metadata.createDialect(sqlLine);
   }
 
   /**
@@ -189,8 +312,12 @@ public Connection getConnection() throws SQLException {
       return connection;
     }
 
+    metadataCache = MetadataCache.open(sqlLine, url, info.getProperty("user"));
     connect();
     sqlLine.setCompletions();
+    if (metadataCache != null) {
+      metadataCache.reloadIfStale(this);
+    }
     return connection;
   }
 
@@ -202,6 +329,20 @@ public void reconnect() throws Exception {
   public void close() {
     try {
       try {
+        cancelMetadataLoad();
+        statementCache.clear();
+        final ExecutorService loader;
+        synchronized (this) {
+          loader = columnLoader;
+          columnLoader = null;
+        }
+        if (loader != null) {
+          // Columns must not change while the cache is being saved
+          loader.shutdownNow();
+          loader.awaitTermination(COLUMN_LOADER_SHUTDOWN_SECONDS,
+              TimeUnit.SECONDS);
+        }
+        saveMetadata();
         if (connection != null && !connection.isClosed()) {
           sqlLine.debug(
               sqlLine.loc("closing", connection.getClass().getName()));
@@ -225,11 +366,68 @@ public Collection<String> getTableNames(boolean force) {
 
   Schema getSchema(boolean force) {
     if (schema == null || force) {
-      schema = new Schema();
+      final MetadataCache.Metadata metadata =
+          metadataCache == null ? null : metadataCache.get();
+      schema = new Schema(metadata == null ? null : metadata.schema2tables);
     }
     return schema;
   }
 
+  /** Returns the metadata that completion uses; from the cache if there is
+   * one, otherwise read from the database. */
+  MetadataCache.Metadata getMetadata() throws SQLException {
+    MetadataCache.Metadata metadata =
+        metadataCache == null ? null : metadataCache.get();
+    if (metadata == null) {
+      metadata = MetadataCache.Metadata.load(meta, true);
+      if (metadataCache != null) {
+        metadataCache.put(metadata);
+      }
+    }
+    return metadata;
+  }
+
+  /** Discards cached metadata, so that it is read again from the
+   * database. */
+  void invalidateMetadata() {
+    if (metadataCache != null) {
+      metadataCache.invalidate();
+    }
+  }
+
+  /** Writes columns that have been loaded since the metadata cache was
+   * last written to the cache. */
+  void saveMetadata() {
+    final Schema schema = this.schema;
+    if (metadataCache != null && schema != null && schema.dirty) {
+      schema.dirty = false;
+      cacheTables(schema.schema2tables);
+    }
+  }
+
+  /** Writes tables, and the columns loaded so far, to the metadata
+   * cache. */
+  private void cacheTables(Map<String, Map<String, Set<String>>> tables) {
+    final MetadataCache.Metadata metadata = metadataCache.get();
+    if (metadata != null) {
+      metadataCache.put(metadata.withTables(tables));
+    }
+  }
+
+  /** Called by {@link MetadataCache} when it has reloaded metadata in the
+   * background. Uses the new metadata, and if this is the current
+   * connection, rebuilds the completer. */
+  void metadataReloaded(MetadataCache.Metadata metadata) {
+    if (connection == null) {
+      return;
+    }
+    dialect = metadata.createDialect(sqlLine);
+    schema = new Schema(metadata.schema2tables);
+    if (sqlLine.getDatabaseConnection() == this) {
+      setCompletions(sqlLine.getOpts().getFastConnect());
+    }
+  }
+
   Schema getSchema() {
     return getSchema(false);
   }
@@ -251,6 +449,18 @@ void setNickname(String nickname) {
   }
 
   Completer getSqlCompleter() {
+    final MetadataLoader loader;
+    synchronized (this) {
+      loader = failedMetadataLoader;
+      failedMetadataLoader = null;
+    }
+    if (loader != null) {
+      if (!loader.isSkipMeta()) {
+        // Forget the empty tables that stood in while loading
+        schema = null;
+      }
+      setSqlCompleter(new SqlCompleter(sqlLine, loader.isSkipMeta()));
+    }
     return sqlCompleter;
   }
 
@@ -267,9 +477,90 @@ String getCurrentSchema() {
     }
   }
 
+  /**
+   * Reads the tables of the current catalog.
+   *
+   * @param schema2tables Map to add the tables of each schema to
+   * @param progress Called with the number of tables read so far, after
+   *                 each table; reading stops if it returns false
+   * @return Whether all tables were read
+   */
+  boolean loadTables(Map<String, Map<String, Set<String>>> schema2tables,
+      IntPredicate progress) throws SQLException {
+    int count = 0;
+    try (ResultSet rs = sqlLine.setFetchSize(getDatabaseMetaData()
+        .getTables(getConnection().getCatalog(),
+        null, "%", new String[] {"TABLE"}))) {
+      while (rs.next()) {
+        final String tableSchema = rs.getString("TABLE_SCHEM");
+        schema2tables.computeIfAbsent(tableSchema, k -> new HashMap<>());
+        schema2tables.get(tableSchema).put(rs.getString("TABLE_NAME"), null);
+        if (!progress.test(++count)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Reads the columns of a table. */
+  Set<String> readColumns(String schemaName, String tableName)
+      throws SQLException {
+    final Set<String> columns = new HashSet<>();
+    try (ResultSet rs = sqlLine.setFetchSize(getDatabaseMetaData()
+        .getColumns(getConnection().getCatalog(), schemaName, tableName,
+            "%"))) {
+      while (rs.next()) {
+        columns.add(rs.getString("COLUMN_NAME"));
+      }
+    }
+    return columns;
+  }
+
+  /** Returns the executor that loads columns in the background, creating
+   * it if necessary. Its thread stops when it has been idle for a while. */
+  private synchronized ExecutorService columnLoader() {
+    if (columnLoader == null) {
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+          COLUMN_LOADER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(), r -> {
+            final Thread thread = new Thread(r, "sqlline-column-loader");
+            thread.setDaemon(true);
+            return thread;
+          });
+      executor.allowCoreThreadTimeOut(true);
+      columnLoader = executor;
+    }
+    return columnLoader;
+  }
+
   /** Schema. */
   class Schema {
     private Map<String, Map<String, Set<String>>> schema2tables;
+    /** Whether columns have been loaded that are not in the metadata
+     * cache. */
+    private boolean dirty;
+    /** Schema and name of each table whose columns are loaded, least
+     * recently used first, and when its columns were loaded; see
+     * {@link SqlLineOpts#getColumnCacheSize() columnCacheSize}. */
+    private final Map<List<String>, Long> columnsLoaded =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** Tables whose columns are waiting to be loaded in the background. */
+    private final Set<List<String>> columnsPending = new HashSet<>();
+
+    Schema(Map<String, Map<String, Set<String>>> schema2tables) {
+      this.schema2tables = schema2tables;
+      if (schema2tables != null) {
+        final long now = System.nanoTime();
+        schema2tables.forEach((schemaName, tables) ->
+            tables.forEach((tableName, columns) -> {
+              if (columns != null) {
+                columnsLoaded.put(Arrays.asList(schemaName, tableName), now);
+              }
+            }));
+        evictColumns();
+      }
+    }
 
     Map<String, Map<String, Set<String>>> getSchema2tables() {
       if (schema2tables != null) {
@@ -278,46 +569,180 @@ Map<String, Map<String, Set<String>>> getSchema2tables() {
 
       schema2tables = new HashMap<>();
 
-      try (ResultSet rs = getDatabaseMetaData()
-          .getTables(getConnection().getCatalog(),
-          null, "%", new String[] {"TABLE"})) {
-        while (rs.next()) {
-          final String tableSchema = rs.getString("TABLE_SCHEM");
-          schema2tables.computeIfAbsent(tableSchema, k -> new HashMap<>());
-          schema2tables.get(tableSchema).put(rs.getString("TABLE_NAME"), null);
-        }
+      try {
+        loadTables(schema2tables, n -> true);
       } catch (Throwable t) {
         // ignore
       }
 
+      if (metadataCache != null) {
+        cacheTables(schema2tables);
+      }
       return schema2tables;
     }
 
 
     Set<String> getColumnNames(String schemaName, String tableName) {
-      Map<String, Set<String>> table2Column = schema2tables.get(schemaName);
-      if (schemaName == null) {
-        schema2tables.putIfAbsent(null, new HashMap<>());
-        table2Column = schema2tables.get(null);
+      final Map<String, Set<String>> table2Column;
+      final List<String> key = Arrays.asList(schemaName, tableName);
+      synchronized (this) {
+        table2Column = schemaName == null
+            ? schema2tables.computeIfAbsent(null, k -> new HashMap<>())
+            : schema2tables.get(schemaName);
+        if (table2Column == null) {
+          return Collections.emptySet();
+        }
+        final Set<String> columns = table2Column.get(tableName);
+        if (columns != null) {
+          final Long loaded = columnsLoaded.get(key);
+          if (loaded == null || !isStale(loaded)) {
+            return columns;
+          }
+          if (sqlLine.getOpts().getBackgroundMetadata()) {
+            // Use the columns we have; the next completion gets new ones
+            prefetchColumns(Collections.singleton(key));
+            return columns;
+          }
+        }
       }
-      if (table2Column == null) {
-        return Collections.emptySet();
+      Set<String> columns;
+      try {
+        columns = readColumns(schemaName, tableName);
+      } catch (Throwable t) {
+        // ignore
+        columns = Collections.emptySet();
       }
-      if (table2Column.get(tableName) != null) {
-        return table2Column.get(tableName);
+      putColumns(key, columns);
+      return columns;
+    }
+
+    /**
+     * Loads in the background the columns of tables whose columns are not
+     * loaded, or were loaded longer ago than
+     * {@link SqlLineOpts#getMetadataCacheTtl() metadataCacheTtl}, so that
+     * completion does not have to wait for them. Tables that are not known
+     * are ignored.
+     *
+     * <p>Does nothing unless
+     * {@link SqlLineOpts#getBackgroundMetadata() backgroundMetadata} is set:
+     * columns are read on a second connection from the pool, which does not
+     * see what is private to the user's session, such as temporary tables.
+     *
+     * @param tables Schema and name of each table; as in
+     *               {@link #getColumnNames}, a null schema means whichever
+     *               schema the table is in
+     */
+    void prefetchColumns(Collection<List<String>> tables) {
+      if (!sqlLine.getOpts().getBackgroundMetadata()) {
+        return;
       }
-      try (ResultSet rs = getDatabaseMetaData().getColumns(
-          getConnection().getCatalog(), schemaName, tableName, "%")) {
-        table2Column.put(tableName, new HashSet<>());
-        while (rs.next()) {
-          final String columnName = rs.getString("COLUMN_NAME");
-          table2Column.get(tableName).add(columnName);
+      final List<List<String>> keys = new ArrayList<>();
+      synchronized (this) {
+        if (schema2tables == null) {
+          return;
+        }
+        for (List<String> key : tables) {
+          if (key.get(0) == null && schema2tables.values().stream()
+              .anyMatch(t -> t.containsKey(key.get(1)))) {
+            schema2tables.computeIfAbsent(null, k -> new HashMap<>())
+                .putIfAbsent(key.get(1), null);
+          }
+          final Map<String, Set<String>> table2Column =
+              schema2tables.get(key.get(0));
+          if (table2Column == null
+              || !table2Column.containsKey(key.get(1))
+              || columnsPending.contains(key)) {
+            continue;
+          }
+          final Long loaded = columnsLoaded.get(key);
+          if (table2Column.get(key.get(1)) == null
+              || loaded != null && isStale(loaded)) {
+            columnsPending.add(key);
+            keys.add(key);
+          }
         }
-      } catch (Throwable t) {
-        // ignore
       }
-      table2Column.putIfAbsent(tableName, Collections.emptySet());
-      return table2Column.get(tableName);
+      if (!keys.isEmpty()) {
+        columnLoader().execute(() -> loadColumns(keys));
+      }
+    }
+
+    /** Loads the columns of tables, on a connection from the pool. Runs in
+     * the background. */
+    private void loadColumns(List<List<String>> keys) {
+      DatabaseConnection connection = null;
+      try {
+        connection = sqlLine.getConnectionPool().borrowQuietly(
+            DatabaseConnection.this);
+        for (List<String> key : keys) {
+          if (schema != this) {
+            // Superseded by "!rehash" or "!close"
+            break;
+          }
+          final Set<String> columns =
+              connection.readColumns(key.get(0), key.get(1));
+          if (!columns.isEmpty()) {
+            // An empty result may only mean that the table is private to
+            // the user's session; getColumnNames will read it there
+            putColumns(key, columns);
+          }
+        }
+      } catch (SQLException e) {
+        sqlLine.debug(sqlLine.loc("metadata-load-failed", e.toString()));
+      } finally {
+        synchronized (this) {
+          columnsPending.removeAll(keys);
+        }
+        if (connection != null) {
+          sqlLine.getConnectionPool().release(connection);
+        }
+      }
+    }
+
+    /** Stores the columns of a table, evicting the columns of the least
+     * recently used tables if there are too many. */
+    private synchronized void putColumns(List<String> key,
+        Set<String> columns) {
+      final Map<String, Set<String>> table2Column =
+          schema2tables.get(key.get(0));
+      if (table2Column == null) {
+        return;
+      }
+      table2Column.put(key.get(1), columns);
+      columnsLoaded.put(key, System.nanoTime());
+      dirty = true;
+      evictColumns();
+    }
+
+    /** Forgets the columns of the least recently used tables until there
+     * are no more than columnCacheSize. The tables stay; their columns are
+     * read again when needed. */
+    private void evictColumns() {
+      final int max = sqlLine.getOpts().getColumnCacheSize();
+      final Iterator<List<String>> iterator =
+          columnsLoaded.keySet().iterator();
+      while (max > 0 && columnsLoaded.size() > max) {
+        final List<String> key = iterator.next();
+        iterator.remove();
+        final Map<String, Set<String>> table2Column =
+            schema2tables.get(key.get(0));
+        if (table2Column != null) {
+          table2Column.put(key.get(1), null);
+        }
+      }
+    }
+
+    /** Returns whether columns loaded at a given time should be loaded
+     * again. */
+    private boolean isStale(long loaded) {
+      final int ttl = sqlLine.getOpts().getMetadataCacheTtl();
+      return ttl > 0
+          && System.nanoTime() - loaded > TimeUnit.SECONDS.toNanos(ttl);
+    }
+
+    /** Returns the number of tables whose columns are loaded. */
+    synchronized int columnCacheSize() {
+      return columnsLoaded.size();
     }
   }
 }
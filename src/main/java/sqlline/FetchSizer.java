@@ -0,0 +1,136 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Adjusts the fetch size of a result set while it is being read, if
+ * {@link SqlLineOpts#getAdaptiveFetchSize() adaptiveFetchSize} is set.
+ *
+ * <p>Rows are counted in windows of one fetch size, so that each window
+ * usually contains one round-trip to the server. At the end of each window,
+ * if reading its rows took at least {@link #MIN_WINDOW_NANOS}, the fetch
+ * size doubles, until a fetch would hold about {@link #MAX_FETCH_BYTES} of
+ * rows, judging by the width of the rows seen so far, or reaches
+ * {@link #MAX_FETCH_SIZE} rows. If rows become wider, the fetch size
+ * shrinks to fit.
+ */
+class FetchSizer {
+  /** Fetch size of a statement whose result set will be adapted, if
+   * {@link SqlLineOpts#getFetchSize() fetchSize} is not set. */
+  static final int INITIAL_FETCH_SIZE = 100;
+  static final int MAX_FETCH_SIZE = 100_000;
+  static final long MAX_FETCH_BYTES = 8L << 20;
+  /** Time spent in {@link ResultSet#next()} during a window below which
+   * round-trips are cheap enough not to bother. */
+  static final long MIN_WINDOW_NANOS = 1_000_000L;
+  /** Assumed size of a column value, until a row has been seen. */
+  private static final int DEFAULT_COLUMN_BYTES = 32;
+
+  private final ResultSet rs;
+  private final int columnCount;
+  private int fetchSize;
+  /** Number of rows left in the current window. */
+  private int remaining;
+  private long windowNanos;
+  private long rowBytes;
+  private int rowCount;
+
+  FetchSizer(ResultSet rs, int columnCount) throws SQLException {
+    this.rs = rs;
+    this.columnCount = columnCount;
+    final int size = rs.getFetchSize();
+    this.fetchSize = size > 0 ? size : INITIAL_FETCH_SIZE;
+    this.remaining = fetchSize;
+  }
+
+  /** Creates a FetchSizer for a result set, or returns null if
+   * {@code adaptiveFetchSize} is not set. */
+  static FetchSizer of(SqlLine sqlLine, ResultSet rs) throws SQLException {
+    if (!sqlLine.getOpts().getAdaptiveFetchSize()) {
+      return null;
+    }
+    return new FetchSizer(rs, rs.getMetaData().getColumnCount());
+  }
+
+  /** Returns the current fetch size. */
+  int fetchSize() {
+    return fetchSize;
+  }
+
+  /** Moves the result set to the next row, as {@link ResultSet#next()}
+   * does, timing it. */
+  boolean next() throws SQLException {
+    final long start = System.nanoTime();
+    final boolean hasNext = rs.next();
+    windowNanos += System.nanoTime() - start;
+    if (hasNext && --remaining <= 0) {
+      endWindow();
+    }
+    return hasNext;
+  }
+
+  /** Records the values of a row, to estimate the width of rows. */
+  void observe(String[] values) {
+    long bytes = 0;
+    for (String value : values) {
+      bytes += valueBytes(value == null ? 0 : value.length());
+    }
+    observeBytes(bytes);
+  }
+
+  /** Records the size of a row, in bytes, to estimate the width of rows;
+   * for rows that are not held as strings. */
+  void observeBytes(long bytes) {
+    rowBytes += bytes;
+    rowCount++;
+  }
+
+  /** Returns the estimated size of a value of a given number of
+   * characters. */
+  static long valueBytes(int length) {
+    // UTF-16 characters plus some overhead per value
+    return 8 + 2L * length;
+  }
+
+  private void endWindow() {
+    final long bytesPerRow = rowCount == 0
+        ? (long) columnCount * DEFAULT_COLUMN_BYTES
+        : Math.max(1, rowBytes / rowCount);
+    final int limit = (int) Math.max(1,
+        Math.min(MAX_FETCH_SIZE, MAX_FETCH_BYTES / bytesPerRow));
+    int size = fetchSize;
+    if (windowNanos >= MIN_WINDOW_NANOS) {
+      size = (int) Math.min(limit, 2L * fetchSize);
+    } else if (size > limit) {
+      size = limit;
+    }
+    remaining = size;
+    if (size != fetchSize) {
+      try {
+        rs.setFetchSize(size);
+        fetchSize = size;
+      } catch (SQLException e) {
+        // The driver cannot change the fetch size of an open result set;
+        // stop trying
+        remaining = Integer.MAX_VALUE;
+      }
+    }
+    windowNanos = 0;
+    rowBytes = 0;
+    rowCount = 0;
+  }
+}
+
+// End FetchSizer.java
@@ -18,8 +18,15 @@
 /**
  * Rows implementation which returns rows incrementally from result set
  * without any buffering.
+ *
+ * <p>If {@link SqlLineOpts#getPipelinedFetch() pipelinedFetch} is set,
+ * a {@link Prefetcher} reads up to {@link #PREFETCH_ROWS} rows ahead on a
+ * background thread while the output format prints the current row.
  */
 class IncrementalRows extends Rows {
+  /** Maximum number of rows that a pipelined fetch reads ahead. */
+  static final int PREFETCH_ROWS = 1000;
+
   private final ResultSet rs;
   private final Row labelRow;
   private final Row typesRow;
@@ -28,6 +35,7 @@ class IncrementalRows extends Rows {
   private boolean endOfResult;
   private boolean normalizingWidths;
   private final DispatchCallback dispatchCallback;
+  private final Prefetcher<Row> prefetcher;
 
   IncrementalRows(SqlLine sqlLine, ResultSet rs,
       DispatchCallback dispatchCallback) throws SQLException {
@@ -49,6 +57,13 @@ class IncrementalRows extends Rows {
     }
     nextRow = labelRow;
     endOfResult = false;
+    if (sqlLine.getOpts().getPipelinedFetch()) {
+      lookUpPrimaryKeys();
+      prefetcher = new Prefetcher<>(PREFETCH_ROWS, dispatchCallback,
+          () -> fetchRow(rs) ? new Row(columnCount, rs) : null);
+    } else {
+      prefetcher = null;
+    }
   }
 
   private int getDisplaySizeOrDefault(final int i, final int defaultValue) {
@@ -72,9 +87,12 @@ public boolean hasNext() {
 
     if (nextRow == null) {
       try {
-        if (rs.next()) {
+        if (prefetcher != null) {
+          nextRow = prefetcher.next();
+        } else if (fetchRow(rs)) {
           nextRow = new Row(labelRow.sizes.length, rs);
-
+        }
+        if (nextRow != null) {
           if (normalizingWidths) {
             // perform incremental normalization
             nextRow.sizes = labelRow.sizes;
@@ -90,6 +108,12 @@ public boolean hasNext() {
     return nextRow != null;
   }
 
+  @Override void close() {
+    if (prefetcher != null) {
+      prefetcher.close();
+    }
+  }
+
   public Row next() {
     if (!hasNext() && !dispatchCallback.isCanceled()) {
       throw new NoSuchElementException();
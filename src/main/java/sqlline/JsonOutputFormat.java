@@ -13,43 +13,110 @@
 
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.Map;
 
 /**
  * Implementation of {@link OutputFormat} that formats rows as JSON.
+ *
+ * <p>By default, rows are written as an array of objects, the value of a
+ * "resultset" field. In "JSON Lines" mode, each row is written as an object
+ * on a line of its own, with nothing around it, so that a consumer can
+ * process rows as they arrive.
+ *
+ * <p>Rows are written into a buffer that is reused for the whole result
+ * set, and that is passed to {@link SqlLine#output(String)} several lines
+ * at a time.
  */
 public class JsonOutputFormat extends AbstractOutputFormat {
+  /** Escape sequence of each ASCII character, or null if the character
+   * needs no escaping. */
+  private static final String[] ESCAPES = createEscapes();
+  /** Number of characters at which the buffer is written out. */
+  private static final int FLUSH_SIZE = 8192;
+
+  private final boolean lines;
+  private final LineBuffer out;
+  private final StringBuilder buffer;
   private int[] columnTypes;
+  /** Quoted name of each column, followed by a colon. */
+  private String[] keys;
+
   public JsonOutputFormat(SqlLine sqlLine) {
+    this(sqlLine, false);
+  }
+
+  /**
+   * Creates a JSON output format.
+   *
+   * @param sqlLine SqlLine instance
+   * @param lines Whether to write one object per line, without an
+   *              enclosing array
+   */
+  public JsonOutputFormat(SqlLine sqlLine, boolean lines) {
     super(sqlLine);
+    this.lines = lines;
+    this.out = new LineBuffer(sqlLine, FLUSH_SIZE);
+    this.buffer = out.sb;
+  }
+
+  private static String[] createEscapes() {
+    final String[] escapes = new String[128];
+    for (Map.Entry<Character, String> entry : Rows.ESCAPING_MAP.entrySet()) {
+      if (entry.getKey() < escapes.length) {
+        escapes[entry.getKey()] = entry.getValue();
+      }
+    }
+    return escapes;
+  }
+
+  @Override public int print(Rows rows) {
+    columnTypes = null;
+    keys = null;
+    try {
+      return super.print(rows);
+    } finally {
+      out.flush();
+    }
   }
 
   @Override void printHeader(Rows.Row header) {
-    sqlLine.output("{\"resultset\":[");
+    if (!lines) {
+      buffer.append("{\"resultset\":[");
+      out.endLine();
+    }
   }
 
   @Override void printFooter(Rows.Row header) {
-    sqlLine.output("]}");
+    if (!lines) {
+      buffer.append("]}");
+      out.endLine();
+    }
   }
 
   @Override void printRow(Rows rows, Rows.Row header, Rows.Row row) {
-    String[] head = header.values;
-    String[] vals = row.values;
-    StringBuilder sb = new StringBuilder("{");
-    for (int i = 0; (i < head.length) && (i < vals.length); i++) {
-      if (columnTypes == null) {
-        initColumnTypes(rows, header);
+    if (columnTypes == null) {
+      initColumns(rows, header);
+    }
+    final String[] vals = row.values;
+    final int count = Math.min(keys.length, vals.length);
+    buffer.append('{');
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        buffer.append(',');
       }
-      sb.append("\"").append(head[i]).append("\":");
-      setJsonValue(sb, vals[i], columnTypes[i]);
-      sb.append((i < head.length - 1) && (i < vals.length - 1) ? "," : "");
+      buffer.append(keys[i]);
+      appendValue(vals[i], columnTypes[i]);
+    }
+    buffer.append('}');
+    if (!lines && rows.hasNext()) {
+      buffer.append(',');
     }
-    sb.append(rows.hasNext() ? "}," : "}");
-    sqlLine.output(sb.toString());
+    out.endLine();
   }
 
-  private void setJsonValue(StringBuilder sb, String value, int columnTypeId) {
+  private void appendValue(String value, int columnTypeId) {
     if (value == null) {
-      sb.append(value);
+      buffer.append("null");
       return;
     }
     switch (columnTypeId) {
@@ -63,32 +130,43 @@ private void setJsonValue(StringBuilder sb, String value, int columnTypeId) {
     case Types.DECIMAL:
     case Types.NUMERIC:
     case Types.NULL:
-      sb.append(value);
+      buffer.append(value);
       return;
     case Types.BOOLEAN:
       // JSON requires true and false, not TRUE and FALSE
-      sb.append(value.equalsIgnoreCase("TRUE"));
+      buffer.append(value.equalsIgnoreCase("TRUE"));
       return;
     }
-    sb.append("\"");
+    appendString(buffer, value);
+  }
+
+  /** Appends a string as a quoted, escaped JSON string. */
+  private static void appendString(StringBuilder sb, String value) {
+    sb.append('"');
+    int start = 0;
     for (int i = 0; i < value.length(); i++) {
-      if (Rows.ESCAPING_MAP.get(value.charAt(i)) != null) {
-        sb.append(Rows.ESCAPING_MAP.get(value.charAt(i)));
-      } else {
-        sb.append(value.charAt(i));
+      final char c = value.charAt(i);
+      if (c < ESCAPES.length && ESCAPES[c] != null) {
+        sb.append(value, start, i).append(ESCAPES[c]);
+        start = i + 1;
       }
     }
-    sb.append("\"");
+    sb.append(value, start, value.length()).append('"');
   }
 
-  private void initColumnTypes(Rows rows, Rows.Row header) {
+  private void initColumns(Rows rows, Rows.Row header) {
     columnTypes = new int[header.values.length];
+    keys = new String[header.values.length];
+    final StringBuilder sb = new StringBuilder();
     for (int j = 0; j < header.values.length; j++) {
       try {
         columnTypes[j] = rows.rsMeta.getColumnType(j + 1);
       } catch (SQLException e) {
         throw new RuntimeException(e);
       }
+      sb.setLength(0);
+      appendString(sb, String.valueOf(header.values[j]));
+      keys[j] = sb.append(':').toString();
     }
   }
 }
@@ -0,0 +1,66 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+/**
+ * Buffer in which an output format builds lines of output, and which
+ * passes them to {@link SqlLine#output(String)} several lines at a time.
+ *
+ * <p>The buffer is reused from one line to the next. Append the
+ * characters of a line to {@link #sb}, then call {@link #endLine()}; call
+ * {@link #flush()} when the result set has been printed.
+ */
+class LineBuffer {
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+
+  private final SqlLine sqlLine;
+  private final int flushSize;
+  final StringBuilder sb;
+  /** Length of the complete lines in the buffer. */
+  private int complete;
+
+  /**
+   * Creates a line buffer.
+   *
+   * @param sqlLine SqlLine instance
+   * @param flushSize Number of characters at which buffered lines are
+   *                  written out
+   */
+  LineBuffer(SqlLine sqlLine, int flushSize) {
+    this.sqlLine = sqlLine;
+    this.flushSize = flushSize;
+    this.sb = new StringBuilder(flushSize * 2);
+  }
+
+  /** Ends the current line, and writes out the buffered lines if there are
+   * enough of them. */
+  void endLine() {
+    sb.append(LINE_SEPARATOR);
+    complete = sb.length();
+    if (complete >= flushSize) {
+      flush();
+    }
+  }
+
+  /** Writes the complete lines in the buffer, if any, and discards the
+   * rest. */
+  void flush() {
+    if (complete > 0) {
+      // SqlLine.output adds the final line separator
+      sqlLine.output(sb.substring(0, complete - LINE_SEPARATOR.length()));
+    }
+    sb.setLength(0);
+    complete = 0;
+  }
+}
+
+// End LineBuffer.java
@@ -0,0 +1,462 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Copy, in a local file, of the metadata of a database that completion and
+ * highlighting use, so that it is not read from the database every time
+ * sqlline connects.
+ *
+ * <p>The metadata is the keywords and functions of the database, how it
+ * quotes and stores identifiers, and the schemas and tables of the current
+ * catalog, with the columns of the tables whose columns have been needed.
+ * There is a file for each URL and user, in the {@code metadata} directory
+ * under {@link SqlLineOpts#saveDir()}.
+ *
+ * <p>A file older than
+ * {@link SqlLineOpts#getMetadataCacheTtl() metadataCacheTtl} seconds is
+ * still used, but the metadata is reloaded in the background, on a
+ * connection from the {@link ConnectionPool}, and the file is rewritten.
+ * {@code !rehash} deletes the file.
+ */
+class MetadataCache {
+  private static final int MAGIC = 0x53514c4d;
+  private static final int VERSION = 1;
+
+  private final SqlLine sqlLine;
+  private final File file;
+  private volatile Metadata metadata;
+  /** Whether the metadata is being reloaded in the background. */
+  private final AtomicBoolean reloading = new AtomicBoolean();
+
+  private MetadataCache(SqlLine sqlLine, File file) {
+    this.sqlLine = sqlLine;
+    this.file = file;
+  }
+
+  /**
+   * Returns the cache for a database and user, with the contents of its
+   * file if there is one; or null if
+   * {@link SqlLineOpts#getMetadataCacheTtl() metadataCacheTtl} is not
+   * positive.
+   *
+   * @param sqlLine SqlLine
+   * @param url URL of the database
+   * @param user User name, or null
+   * @return Cache, or null
+   */
+  static MetadataCache open(SqlLine sqlLine, String url, String user) {
+    if (sqlLine.getOpts().getMetadataCacheTtl() <= 0) {
+      return null;
+    }
+    final MetadataCache cache = new MetadataCache(sqlLine, file(url, user));
+    if (cache.file.exists()) {
+      try {
+        cache.metadata = read(cache.file);
+      } catch (IOException e) {
+        sqlLine.debug(
+            sqlLine.loc("metadata-cache-failed", cache.file, e.toString()));
+      }
+    }
+    return cache;
+  }
+
+  /** Returns the file that holds the metadata of a database for a user. */
+  static File file(String url, String user) {
+    final byte[] digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256").digest(
+          (url + '\0' + (user == null ? "" : user))
+              .getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+    final StringBuilder name = new StringBuilder();
+    for (int i = 0; i < 16; i++) {
+      name.append(String.format("%02x", digest[i]));
+    }
+    return new File(new File(SqlLineOpts.saveDir(), "metadata"),
+        name.append(".metadata").toString());
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  /** Returns the cached metadata, or null if there is none. */
+  Metadata get() {
+    return metadata;
+  }
+
+  /** Returns whether there is no cached metadata, or it is older than
+   * metadataCacheTtl. */
+  boolean isStale() {
+    final Metadata metadata = this.metadata;
+    return metadata == null
+        || System.currentTimeMillis() - metadata.loaded
+        > sqlLine.getOpts().getMetadataCacheTtl() * 1000L;
+  }
+
+  /** Replaces the cached metadata, and writes it to the file. */
+  void put(Metadata metadata) {
+    synchronized (this) {
+      try {
+        write(file, metadata);
+      } catch (IOException e) {
+        sqlLine.debug(
+            sqlLine.loc("metadata-cache-failed", file, e.toString()));
+      }
+    }
+    this.metadata = metadata;
+  }
+
+  /** Discards the cached metadata, and deletes the file. */
+  synchronized void invalidate() {
+    metadata = null;
+    if (file.exists() && !file.delete()) {
+      sqlLine.debug(
+          sqlLine.loc("metadata-cache-failed", file, "cannot delete"));
+    }
+  }
+
+  /**
+   * If the cached metadata is stale, reloads it in the background and
+   * then calls {@link DatabaseConnection#metadataReloaded}.
+   *
+   * <p>Tables are reloaded only if the cache has tables, and columns only
+   * for tables that have columns in the cache.
+   *
+   * @param connection Connection whose metadata is cached; the metadata is
+   *                   reloaded on a pooled connection like it
+   */
+  void reloadIfStale(DatabaseConnection connection) {
+    final Metadata old = metadata;
+    if (old == null || !isStale() || !reloading.compareAndSet(false, true)) {
+      return;
+    }
+    // Note which tables have columns now, while nothing else is reading
+    // the maps
+    final List<String[]> tablesWithColumns = new ArrayList<>();
+    if (old.schema2tables != null) {
+      old.schema2tables.forEach((schema, tables) ->
+          tables.forEach((table, columns) -> {
+            if (columns != null) {
+              tablesWithColumns.add(new String[] {schema, table});
+            }
+          }));
+    }
+    final Thread thread = new Thread(() -> {
+      try {
+        reload(connection, old.schema2tables != null, tablesWithColumns);
+      } finally {
+        reloading.set(false);
+      }
+    }, "sqlline-metadata-cache");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void reload(DatabaseConnection prototype, boolean tables,
+      List<String[]> tablesWithColumns) {
+    final ConnectionPool pool = sqlLine.getConnectionPool();
+    final DatabaseConnection connection;
+    try {
+      connection = pool.borrowQuietly(prototype);
+    } catch (SQLException e) {
+      return;
+    }
+    final Metadata metadata;
+    try {
+      Metadata m = Metadata.load(connection.meta, true);
+      if (tables) {
+        final DatabaseConnection.Schema schema = connection.getSchema();
+        final Map<String, Map<String, Set<String>>> schema2tables =
+            schema.getSchema2tables();
+        for (String[] table : tablesWithColumns) {
+          schema.getColumnNames(table[0], table[1]);
+        }
+        m = m.withTables(schema2tables);
+      }
+      metadata = m;
+    } catch (SQLException e) {
+      sqlLine.debug(sqlLine.loc("metadata-cache-failed", file, e.toString()));
+      return;
+    } finally {
+      pool.release(connection);
+    }
+    put(metadata);
+    prototype.metadataReloaded(metadata);
+  }
+
+  private static Metadata read(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(
+            new GZIPInputStream(new FileInputStream(file), 1 << 16)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("not a metadata cache file");
+      }
+      final long loaded = in.readLong();
+      final String productName = readString(in);
+      final String identifierQuoteString = readString(in);
+      final boolean storesLowerCaseIdentifiers = in.readBoolean();
+      final boolean storesUpperCaseIdentifiers = in.readBoolean();
+      final String extraNameCharacters = readString(in);
+      final String keywords = readString(in);
+      final List<String> functions = new ArrayList<>();
+      for (int i = in.readInt(); i > 0; i--) {
+        functions.add(readString(in));
+      }
+      Map<String, Map<String, Set<String>>> schema2tables = null;
+      final int schemaCount = in.readInt();
+      if (schemaCount >= 0) {
+        schema2tables = new HashMap<>();
+        for (int i = 0; i < schemaCount; i++) {
+          final String schema = readString(in);
+          final int tableCount = in.readInt();
+          final Map<String, Set<String>> tables = new HashMap<>(
+              Math.max(16, tableCount * 4 / 3 + 1));
+          for (int j = 0; j < tableCount; j++) {
+            final String table = readString(in);
+            final int columnCount = in.readInt();
+            Set<String> columns = null;
+            if (columnCount >= 0) {
+              columns = new HashSet<>();
+              for (int k = 0; k < columnCount; k++) {
+                columns.add(readString(in));
+              }
+            }
+            tables.put(table, columns);
+          }
+          schema2tables.put(schema, tables);
+        }
+      }
+      return new Metadata(loaded, productName, identifierQuoteString,
+          storesLowerCaseIdentifiers, storesUpperCaseIdentifiers,
+          extraNameCharacters, keywords, functions, schema2tables);
+    }
+  }
+
+  private static void write(File file, Metadata metadata)
+      throws IOException {
+    final File dir = file.getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("cannot create directory " + dir);
+    }
+    final File tmp = File.createTempFile("metadata", ".tmp", dir);
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(
+              new GZIPOutputStream(new FileOutputStream(tmp), 1 << 16)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(metadata.loaded);
+        writeString(out, metadata.productName);
+        writeString(out, metadata.identifierQuoteString);
+        out.writeBoolean(metadata.storesLowerCaseIdentifiers);
+        out.writeBoolean(metadata.storesUpperCaseIdentifiers);
+        writeString(out, metadata.extraNameCharacters);
+        writeString(out, metadata.keywords);
+        out.writeInt(metadata.functions.size());
+        for (String function : metadata.functions) {
+          writeString(out, function);
+        }
+        if (metadata.schema2tables == null) {
+          out.writeInt(-1);
+        } else {
+          out.writeInt(metadata.schema2tables.size());
+          for (Map.Entry<String, Map<String, Set<String>>> schema
+              : metadata.schema2tables.entrySet()) {
+            writeString(out, schema.getKey());
+            out.writeInt(schema.getValue().size());
+            for (Map.Entry<String, Set<String>> table
+                : schema.getValue().entrySet()) {
+              writeString(out, table.getKey());
+              final Set<String> columns = table.getValue();
+              if (columns == null) {
+                out.writeInt(-1);
+              } else {
+                out.writeInt(columns.size());
+                for (String column : columns) {
+                  writeString(out, column);
+                }
+              }
+            }
+          }
+        }
+      }
+      Files.move(tmp.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp.toPath());
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeString(DataOutputStream out, String s)
+      throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  /** Metadata of a database, as of a point in time. */
+  static class Metadata {
+    /** Time at which the metadata was read from the database, in
+     * milliseconds since the epoch. */
+    final long loaded;
+    final String productName;
+    final String identifierQuoteString;
+    final boolean storesLowerCaseIdentifiers;
+    final boolean storesUpperCaseIdentifiers;
+    final String extraNameCharacters;
+    /** Keywords, separated by commas. */
+    final String keywords;
+    /** Numeric, string, system and time and date functions. */
+    final List<String> functions;
+    /** Tables of each schema, and the columns of each table (null if not
+     * loaded); or null if tables have not been loaded. */
+    final Map<String, Map<String, Set<String>>> schema2tables;
+
+    Metadata(long loaded, String productName, String identifierQuoteString,
+        boolean storesLowerCaseIdentifiers,
+        boolean storesUpperCaseIdentifiers, String extraNameCharacters,
+        String keywords, List<String> functions,
+        Map<String, Map<String, Set<String>>> schema2tables) {
+      this.loaded = loaded;
+      this.productName = productName;
+      this.identifierQuoteString = identifierQuoteString;
+      this.storesLowerCaseIdentifiers = storesLowerCaseIdentifiers;
+      this.storesUpperCaseIdentifiers = storesUpperCaseIdentifiers;
+      this.extraNameCharacters = extraNameCharacters;
+      this.keywords = keywords;
+      this.functions = functions;
+      this.schema2tables = schema2tables;
+    }
+
+    /**
+     * Reads metadata, except tables, from the database.
+     *
+     * @param meta Database metadata
+     * @param functions Whether to read functions; they are needed for
+     *                  completion, not for the dialect
+     * @return Metadata
+     */
+    static Metadata load(DatabaseMetaData meta, boolean functions)
+        throws SQLException {
+      final List<String> functionList = new ArrayList<>();
+      if (functions) {
+        for (MetaFunction f : Arrays.<MetaFunction>asList(
+            DatabaseMetaData::getNumericFunctions,
+            DatabaseMetaData::getStringFunctions,
+            DatabaseMetaData::getSystemFunctions,
+            DatabaseMetaData::getTimeDateFunctions)) {
+          try {
+            functionList.addAll(split(f.apply(meta)));
+          } catch (Throwable t) {
+            // ignore
+          }
+        }
+      }
+      String keywords;
+      try {
+        keywords = meta.getSQLKeywords();
+      } catch (Throwable t) {
+        keywords = null;
+      }
+      return new Metadata(System.currentTimeMillis(),
+          meta.getDatabaseProductName(), meta.getIdentifierQuoteString(),
+          meta.storesLowerCaseIdentifiers(),
+          meta.storesUpperCaseIdentifiers(), meta.getExtraNameCharacters(),
+          keywords, functionList, null);
+    }
+
+    /** Returns a copy of this metadata with the given tables. */
+    Metadata withTables(Map<String, Map<String, Set<String>>> schema2tables) {
+      return new Metadata(loaded, productName, identifierQuoteString,
+          storesLowerCaseIdentifiers, storesUpperCaseIdentifiers,
+          extraNameCharacters, keywords, functions, schema2tables);
+    }
+
+    /** Returns the keywords, trimmed. */
+    List<String> getKeywords() {
+      return split(keywords);
+    }
+
+    /** Creates the dialect of the database. */
+    Dialect createDialect(SqlLine sqlLine) {
+      // Deduce the string used to quote identifiers. For example, Oracle
+      // uses double-quotes:
+      //   SELECT * FROM "My Schema"."My Table"
+      String identifierQuoteString = this.identifierQuoteString;
+      if (identifierQuoteString != null
+          && identifierQuoteString.length() > 1) {
+        sqlLine.error("Identifier quote string is '" + identifierQuoteString
+            + "'; quote strings longer than 1 char are not supported");
+        identifierQuoteString = null;
+      }
+      final Set<String> keywordSet = keywords == null
+          ? null
+          : Stream.of(keywords.split(",")).collect(Collectors.toSet());
+      return DialectImpl.create(keywordSet, identifierQuoteString,
+          productName, storesLowerCaseIdentifiers, storesUpperCaseIdentifiers,
+          extraNameCharacters);
+    }
+
+    private static List<String> split(String s) {
+      if (s == null) {
+        return new ArrayList<>();
+      }
+      return Stream.of(s.split(",")).map(String::trim)
+          .filter(t -> !t.isEmpty()).collect(Collectors.toList());
+    }
+  }
+
+  /** Method of {@link DatabaseMetaData} that returns a list of
+   * functions. */
+  private interface MetaFunction {
+    String apply(DatabaseMetaData meta) throws SQLException;
+  }
+}
+
+// End MetadataCache.java
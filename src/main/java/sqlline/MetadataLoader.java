@@ -0,0 +1,200 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.jline.reader.LineReader;
+import org.jline.utils.AttributedString;
+import org.jline.utils.Status;
+
+/**
+ * Loads the metadata that completion needs in the background, on a
+ * connection from the {@link ConnectionPool}, so that connecting to a
+ * database with many tables does not wait for it; see
+ * {@link SqlLineOpts#getBackgroundMetadata() backgroundMetadata}.
+ *
+ * <p>Until the loader has finished, its {@link SqlCompleter} offers what
+ * has been loaded so far: at first only the default keywords, then the
+ * keywords and functions of the database, then more and more tables.
+ * Progress is shown in the terminal's status line, if it has one. Ctrl-C
+ * at the prompt cancels the loader; completion keeps what was loaded.
+ */
+class MetadataLoader {
+  /** Number of tables after which completion first offers tables; the
+   * candidates are rebuilt each time the number of tables doubles. */
+  private static final int FIRST_PUBLISH = 1000;
+  /** Number of tables between updates of the status line. */
+  private static final int STATUS_INTERVAL = 1000;
+
+  private final SqlLine sqlLine;
+  private final DatabaseConnection owner;
+  /** Connection from the pool, once borrowed. */
+  private volatile DatabaseConnection connection;
+  private final boolean skipMeta;
+  private final SqlCompleter completer;
+  private final Status status;
+  private final Thread thread;
+  private volatile boolean canceled;
+  private volatile boolean finished;
+
+  private MetadataLoader(SqlLine sqlLine, DatabaseConnection owner,
+      boolean skipMeta) {
+    this.sqlLine = sqlLine;
+    this.owner = owner;
+    this.skipMeta = skipMeta;
+    this.completer = new SqlCompleter(sqlLine, skipMeta,
+        SqlCompleter.getCompletions(sqlLine, null, null));
+    final LineReader lineReader = sqlLine.getLineReader();
+    this.status = lineReader == null
+        ? null
+        : Status.getStatus(lineReader.getTerminal());
+    this.thread = new Thread(this::run, "sqlline-metadata-loader");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Starts loading metadata for a connection.
+   *
+   * <p>The loader borrows a connection from the pool on its own thread, so
+   * that the prompt does not wait for it. If no other connection to the
+   * database can be opened, it calls
+   * {@link DatabaseConnection#metadataLoaderFailed}.
+   *
+   * @param sqlLine SqlLine
+   * @param owner Connection whose metadata to load
+   * @param skipMeta Whether to skip tables
+   * @return Loader
+   */
+  static MetadataLoader start(SqlLine sqlLine, DatabaseConnection owner,
+      boolean skipMeta) {
+    final MetadataLoader loader = new MetadataLoader(sqlLine, owner, skipMeta);
+    loader.thread.start();
+    return loader;
+  }
+
+  SqlCompleter getCompleter() {
+    return completer;
+  }
+
+  boolean isSkipMeta() {
+    return skipMeta;
+  }
+
+  /** Cancels loading; returns whether the loader was still running. */
+  boolean cancel() {
+    if (finished || canceled) {
+      return false;
+    }
+    canceled = true;
+    // The loader may be waiting for the database; abort its connection,
+    // which the pool will then discard
+    final DatabaseConnection connection = this.connection;
+    if (connection != null) {
+      try {
+        connection.connection.abort(Runnable::run);
+      } catch (Throwable t) {
+        // ignore; the loader stops after its current call
+      }
+    }
+    return true;
+  }
+
+  private void run() {
+    final DatabaseConnection connection;
+    try {
+      connection = sqlLine.getConnectionPool().borrowQuietly(owner);
+    } catch (SQLException e) {
+      finished = true;
+      owner.metadataLoaderFailed(this);
+      return;
+    }
+    this.connection = connection;
+    load(connection);
+  }
+
+  private void load(DatabaseConnection connection) {
+    MetadataCache.Metadata metadata = null;
+    Map<String, Map<String, Set<String>>> tables = null;
+    boolean complete = false;
+    try {
+      if (canceled) {
+        return;
+      }
+      showStatus(sqlLine.loc("metadata-loading-keywords"));
+      metadata = MetadataCache.Metadata.load(connection.meta, true);
+      if (canceled) {
+        return;
+      }
+      completer.setCompletions(
+          SqlCompleter.getCompletions(sqlLine, metadata, null));
+      if (skipMeta) {
+        complete = true;
+        return;
+      }
+      final MetadataCache.Metadata m = metadata;
+      final Map<String, Map<String, Set<String>>> schema2tables =
+          new HashMap<>();
+      // If canceled, completion keeps the tables loaded so far
+      tables = schema2tables;
+      final int[] publishAt = {FIRST_PUBLISH};
+      showStatus(sqlLine.loc("metadata-loading-tables", 0));
+      complete = connection.loadTables(schema2tables, n -> {
+        if (n % STATUS_INTERVAL == 0) {
+          showStatus(sqlLine.loc("metadata-loading-tables", n));
+        }
+        if (n == publishAt[0]) {
+          publishAt[0] *= 2;
+          completer.setCompletions(
+              SqlCompleter.getCompletions(sqlLine, m, schema2tables));
+        }
+        return !canceled;
+      }) && !canceled;
+      completer.setCompletions(
+          SqlCompleter.getCompletions(sqlLine, metadata, tables));
+    } catch (SQLException e) {
+      if (!canceled) {
+        sqlLine.debug(sqlLine.loc("metadata-load-failed", e.toString()));
+      }
+      if (tables != null) {
+        completer.setCompletions(
+            SqlCompleter.getCompletions(sqlLine, metadata, tables));
+      }
+    } finally {
+      finished = true;
+      showStatus(null);
+      sqlLine.getConnectionPool().release(connection);
+      owner.metadataLoaded(this, metadata, tables, complete);
+    }
+  }
+
+  /** Shows a message in the status line, or clears it if the message is
+   * null. */
+  private void showStatus(String message) {
+    if (status == null) {
+      return;
+    }
+    try {
+      status.update(message == null
+          ? Collections.emptyList()
+          : Collections.singletonList(new AttributedString(message)));
+    } catch (Exception e) {
+      // ignore; the status line is only a courtesy
+    }
+  }
+}
+
+// End MetadataLoader.java
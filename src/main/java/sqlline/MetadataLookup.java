@@ -0,0 +1,188 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks up the schemas, tables and columns that completion offers in the
+ * database as they are typed, by turning what has been typed into the
+ * patterns of {@link DatabaseMetaData#getTables} and
+ * {@link DatabaseMetaData#getColumns}; see
+ * {@link SqlLineOpts#getOnDemandMetadata() onDemandMetadata}.
+ *
+ * <p>Each Tab costs at most one small round trip to the database, rather
+ * than reading every table of the catalog when connecting. Results are kept
+ * in a least-recently-used cache, keyed by schema, table and prefix, until
+ * {@code !rehash}.
+ */
+class MetadataLookup {
+  /** Maximum number of lookups whose results are cached. */
+  private static final int CACHE_SIZE = 256;
+  /** Maximum number of names read by one lookup; in a large catalog, a
+   * short prefix matches more names than anyone would read. */
+  static final int MAX_NAMES = 1000;
+
+  private final SqlLine sqlLine;
+  private final DatabaseConnection connection;
+  private final Map<List<String>, List<String>> cache =
+      new LinkedHashMap<List<String>, List<String>>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(
+            Map.Entry<List<String>, List<String>> eldest) {
+          return size() > CACHE_SIZE;
+        }
+      };
+  private String searchStringEscape;
+
+  MetadataLookup(SqlLine sqlLine, DatabaseConnection connection) {
+    this.sqlLine = sqlLine;
+    this.connection = connection;
+  }
+
+  /**
+   * Returns the schemas whose name starts with a prefix.
+   *
+   * @param prefix Prefix, as stored in the database; null for all
+   * @return Schema names
+   */
+  List<String> schemas(String prefix) {
+    return lookup(Arrays.asList("schemas", prefix), prefix, "TABLE_SCHEM",
+        (meta, catalog) -> {
+          try {
+            return meta.getSchemas(catalog, pattern(meta, prefix));
+          } catch (SQLFeatureNotSupportedException | AbstractMethodError e) {
+            // JDBC 3 driver
+            return meta.getSchemas();
+          }
+        });
+  }
+
+  /**
+   * Returns the tables whose name starts with a prefix.
+   *
+   * @param schema Schema, or null for all schemas
+   * @param prefix Prefix, as stored in the database; null for all
+   * @return Table names
+   */
+  List<String> tables(String schema, String prefix) {
+    return lookup(Arrays.asList("tables", schema, prefix), prefix,
+        "TABLE_NAME",
+        (meta, catalog) -> meta.getTables(catalog, escape(meta, schema),
+            pattern(meta, prefix), new String[] {"TABLE"}));
+  }
+
+  /**
+   * Returns the columns of a table whose name starts with a prefix.
+   *
+   * @param schema Schema, or null for all schemas
+   * @param table Table
+   * @param prefix Prefix, as stored in the database; null for all
+   * @return Column names
+   */
+  List<String> columns(String schema, String table, String prefix) {
+    return lookup(Arrays.asList("columns", schema, table, prefix), prefix,
+        "COLUMN_NAME",
+        (meta, catalog) -> meta.getColumns(catalog, escape(meta, schema),
+            escape(meta, table), pattern(meta, prefix)));
+  }
+
+  private List<String> lookup(List<String> key, String prefix,
+      String columnLabel, Query query) {
+    synchronized (cache) {
+      final List<String> names = cache.get(key);
+      if (names != null) {
+        return names;
+      }
+    }
+    final List<String> names = new ArrayList<>();
+    try (ResultSet rs = sqlLine.setFetchSize(
+        query.run(connection.meta, connection.getConnection().getCatalog()))) {
+      while (rs.next() && names.size() < MAX_NAMES) {
+        final String name = rs.getString(columnLabel);
+        // Without an escape string, '_' and '%' in the prefix match any
+        // character
+        if (name != null && (prefix == null || name.startsWith(prefix))) {
+          names.add(name);
+        }
+      }
+    } catch (SQLException e) {
+      sqlLine.debug(sqlLine.loc("metadata-load-failed", e.toString()));
+      return Collections.emptyList();
+    }
+    final List<String> result = Collections.unmodifiableList(names);
+    synchronized (cache) {
+      cache.put(key, result);
+    }
+    return result;
+  }
+
+  /** Returns the pattern that matches names starting with a prefix. */
+  private String pattern(DatabaseMetaData meta, String prefix)
+      throws SQLException {
+    return prefix == null ? "%" : escape(meta, prefix) + "%";
+  }
+
+  /** Escapes the wildcards in a name, so that it is matched exactly when
+   * used as a pattern. */
+  private String escape(DatabaseMetaData meta, String name)
+      throws SQLException {
+    if (searchStringEscape == null) {
+      final String escape = meta.getSearchStringEscape();
+      searchStringEscape = escape == null ? "" : escape;
+    }
+    return escape(name, searchStringEscape);
+  }
+
+  /**
+   * Escapes the wildcards '%' and '_', and the escape string itself, in a
+   * name.
+   *
+   * @param name Name, or null
+   * @param escape Escape string; if empty, the name is returned unchanged
+   * @return Escaped name
+   */
+  static String escape(String name, String escape) {
+    if (name == null || escape.isEmpty()) {
+      return name;
+    }
+    final StringBuilder buf = new StringBuilder();
+    for (int i = 0; i < name.length(); i++) {
+      if (name.startsWith(escape, i)) {
+        buf.append(escape).append(escape);
+        i += escape.length() - 1;
+        continue;
+      }
+      final char c = name.charAt(i);
+      if (c == '%' || c == '_') {
+        buf.append(escape);
+      }
+      buf.append(c);
+    }
+    return buf.toString();
+  }
+
+  /** Metadata query. */
+  private interface Query {
+    ResultSet run(DatabaseMetaData meta, String catalog) throws SQLException;
+  }
+}
+
+// End MetadataLookup.java
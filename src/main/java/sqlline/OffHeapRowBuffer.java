@@ -0,0 +1,266 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Row buffer that stores encoded rows outside the Java heap, in direct
+ * {@link ByteBuffer} segments, up to a fixed number of bytes.
+ *
+ * <p>Segments are allocated as they are needed, and reused from one batch
+ * to the next. When the memory budget is exhausted, {@link #add(ResultSet)}
+ * returns false, and {@link BufferedRows} displays the rows buffered so far
+ * before continuing, as it does in incremental mode. A single row that is
+ * larger than the whole budget is held on the heap, so that it can still
+ * be displayed.
+ *
+ * <p>Each row is encoded as a flags byte (deleted, updated, inserted)
+ * followed, for each column, by an {@code int} header and the characters
+ * of the value. The header is -1 for null, otherwise the length shifted
+ * left by one, with the low bit set if the value has characters above
+ * U+007F and is stored as two bytes per character rather than one.
+ */
+class OffHeapRowBuffer implements RowBuffer {
+  static final int SEGMENT_SIZE = 1 << 20;
+
+  private static final byte DELETED = 1;
+  private static final byte UPDATED = 2;
+  private static final byte INSERTED = 4;
+
+  private final Rows rows;
+  private long budget;
+  private final List<ByteBuffer> segments = new ArrayList<>();
+  /** Number of segments that belong to the budget; any further segments
+   * hold oversized rows, and are released by {@link #clear()}. */
+  private int budgetSegments;
+  private long allocated;
+  private int segment;
+  private int[] used = new int[4];
+  /** Segment (high 32 bits) and offset (low 32 bits) of each row. */
+  private long[] positions = new long[64];
+  private int size;
+  private final int[] widths;
+  /** Row most recently read from the result set. */
+  private final Rows.Row scratch;
+  private boolean pending;
+  private final int[] readSizes;
+  private char[] chars = new char[256];
+
+  /**
+   * Creates an off-heap row buffer.
+   *
+   * @param rows Rows whose values are buffered
+   * @param budget Maximum number of bytes of direct memory to use
+   */
+  OffHeapRowBuffer(Rows rows, long budget) throws SQLException {
+    this.rows = rows;
+    this.budget = budget;
+    final int columnCount = rows.rsMeta.getColumnCount();
+    this.widths = new int[columnCount];
+    this.scratch = rows.new Row(columnCount, false);
+    this.readSizes = new int[columnCount];
+  }
+
+  @Override public boolean add(ResultSet rs) throws SQLException {
+    scratch.deleted = false;
+    scratch.updated = false;
+    scratch.inserted = false;
+    rows.readRowState(rs, scratch);
+    for (int i = 0; i < scratch.values.length; i++) {
+      scratch.values[i] = rows.readValue(rs, i);
+    }
+    if (rows.fetchSizer != null) {
+      rows.fetchSizer.observe(scratch.values);
+    }
+    if (append()) {
+      return true;
+    }
+    pending = true;
+    return false;
+  }
+
+  @Override public int size() {
+    return size;
+  }
+
+  @Override public void clear() {
+    while (segments.size() > budgetSegments) {
+      segments.remove(segments.size() - 1);
+    }
+    Arrays.fill(used, 0);
+    Arrays.fill(widths, 0);
+    segment = 0;
+    size = 0;
+    if (pending) {
+      pending = false;
+      append();
+    }
+  }
+
+  @Override public int[] widths() {
+    return widths;
+  }
+
+  @Override public void read(int row, Rows.Row cursor) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+    }
+    final ByteBuffer buffer = segments.get((int) (positions[row] >>> 32));
+    int offset = (int) positions[row];
+    final byte flags = buffer.get(offset++);
+    cursor.deleted = (flags & DELETED) != 0;
+    cursor.updated = (flags & UPDATED) != 0;
+    cursor.inserted = (flags & INSERTED) != 0;
+    cursor.sizes = readSizes;
+    for (int i = 0; i < cursor.values.length; i++) {
+      final int header = buffer.getInt(offset);
+      offset += 4;
+      if (header < 0) {
+        cursor.values[i] = null;
+      } else {
+        final int length = header >>> 1;
+        if (chars.length < length) {
+          chars = new char[Math.max(length, chars.length * 2)];
+        }
+        if ((header & 1) == 0) {
+          for (int j = 0; j < length; j++) {
+            chars[j] = (char) buffer.get(offset++);
+          }
+        } else {
+          for (int j = 0; j < length; j++) {
+            chars[j] = buffer.getChar(offset);
+            offset += 2;
+          }
+        }
+        cursor.values[i] = new String(chars, 0, length);
+      }
+      readSizes[i] = Rows.displayWidth(cursor.values[i]);
+    }
+  }
+
+  /** Encodes the scratch row into a segment; returns false if there is
+   * no room for it. */
+  private boolean append() {
+    final int length = encodedLength(scratch.values);
+    final ByteBuffer buffer = reserve(length);
+    if (buffer == null) {
+      return false;
+    }
+    if (size == positions.length) {
+      positions = Arrays.copyOf(positions, size * 2);
+    }
+    int offset = used[segment];
+    positions[size++] = ((long) segment << 32) | offset;
+    used[segment] += length;
+    buffer.put(offset++, (byte) ((scratch.deleted ? DELETED : 0)
+        | (scratch.updated ? UPDATED : 0)
+        | (scratch.inserted ? INSERTED : 0)));
+    for (int i = 0; i < scratch.values.length; i++) {
+      final String value = scratch.values[i];
+      widths[i] = Math.max(widths[i], Rows.displayWidth(value));
+      if (value == null) {
+        buffer.putInt(offset, -1);
+        offset += 4;
+        continue;
+      }
+      final boolean wide = isWide(value);
+      buffer.putInt(offset, value.length() << 1 | (wide ? 1 : 0));
+      offset += 4;
+      if (wide) {
+        for (int j = 0; j < value.length(); j++) {
+          buffer.putChar(offset, value.charAt(j));
+          offset += 2;
+        }
+      } else {
+        for (int j = 0; j < value.length(); j++) {
+          buffer.put(offset++, (byte) value.charAt(j));
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Returns a segment with at least {@code length} free bytes, making it
+   * the current segment, or null if the budget does not allow one. */
+  private ByteBuffer reserve(int length) {
+    while (segment < segments.size()) {
+      final ByteBuffer buffer = segments.get(segment);
+      if (buffer.capacity() - used[segment] >= length) {
+        return buffer;
+      }
+      if (segment + 1 == segments.size()) {
+        break;
+      }
+      segment++;
+    }
+    final int segmentSize =
+        (int) Math.max(length, Math.min(SEGMENT_SIZE, budget));
+    ByteBuffer buffer = null;
+    if (segments.size() == budgetSegments
+        && allocated + segmentSize <= budget) {
+      try {
+        buffer = ByteBuffer.allocateDirect(segmentSize);
+        allocated += segmentSize;
+        budgetSegments++;
+      } catch (OutOfMemoryError e) {
+        // Direct memory is limited by -XX:MaxDirectMemorySize; treat its
+        // exhaustion as the end of our budget.
+        budget = allocated;
+      }
+    }
+    if (buffer == null) {
+      if (size > 0) {
+        return null;
+      }
+      // A row too large for the budget; hold it on the heap.
+      buffer = ByteBuffer.allocate(length);
+    }
+    segments.add(buffer);
+    segment = segments.size() - 1;
+    if (used.length <= segment) {
+      used = Arrays.copyOf(used, segment + 4);
+    }
+    used[segment] = 0;
+    return buffer;
+  }
+
+  private static int encodedLength(String[] values) {
+    long length = 1;
+    for (String value : values) {
+      length += 4;
+      if (value != null) {
+        length += (long) value.length() * (isWide(value) ? 2 : 1);
+      }
+    }
+    if (length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Row too large to buffer");
+    }
+    return (int) length;
+  }
+
+  private static boolean isWide(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) > 0x7F) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
+
+// End OffHeapRowBuffer.java
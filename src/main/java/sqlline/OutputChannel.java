@@ -0,0 +1,105 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stream between SqlLine's output {@link java.io.PrintStream} and the
+ * terminal or standard output, which collects encoded output in a buffer
+ * and writes it a block at a time.
+ *
+ * <p>The buffer is written when it is full; when something is written
+ * more than {@link #FLUSH_INTERVAL_MILLIS} after the buffer was last
+ * written; and when the stream is flushed, which SqlLine does at the end
+ * of each command, and before it writes to the error stream.
+ *
+ * <p>The size of the buffer is
+ * {@link SqlLineOpts#getOutputBufferSize() outputBufferSize}, read each
+ * time the buffer is written. If it is zero, or if SqlLine is reading
+ * commands from a user at a terminal, output is written immediately.
+ */
+class OutputChannel extends OutputStream {
+  static final long FLUSH_INTERVAL_MILLIS = 200;
+  private static final long FLUSH_INTERVAL_NANOS =
+      FLUSH_INTERVAL_MILLIS * 1_000_000L;
+
+  private final SqlLine sqlLine;
+  private final OutputStream out;
+  private byte[] buf = new byte[0];
+  private int count;
+  /** Size of the buffer; -1 until the first write. */
+  private int capacity = -1;
+  private long lastFlush;
+
+  OutputChannel(SqlLine sqlLine, OutputStream out) {
+    this.sqlLine = sqlLine;
+    this.out = out;
+  }
+
+  @Override public synchronized void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override public synchronized void write(byte[] b, int off, int len)
+      throws IOException {
+    if (capacity < 0) {
+      configure();
+    }
+    if (count + len > capacity) {
+      writeBuffer();
+      if (len >= capacity) {
+        // Too big to buffer, or not buffering
+        out.write(b, off, len);
+        out.flush();
+        return;
+      }
+    }
+    System.arraycopy(b, off, buf, count, len);
+    count += len;
+    if (System.nanoTime() - lastFlush >= FLUSH_INTERVAL_NANOS) {
+      flush();
+    }
+  }
+
+  @Override public synchronized void flush() throws IOException {
+    writeBuffer();
+    out.flush();
+  }
+
+  @Override public synchronized void close() throws IOException {
+    flush();
+    out.close();
+  }
+
+  private void writeBuffer() throws IOException {
+    if (count > 0) {
+      out.write(buf, 0, count);
+      count = 0;
+    }
+    lastFlush = System.nanoTime();
+    configure();
+  }
+
+  /** Reads the buffer size from the options. */
+  private void configure() {
+    capacity = sqlLine.isInteractive()
+        ? 0
+        : Math.max(0, sqlLine.getOpts().getOutputBufferSize());
+    if (buf.length != capacity) {
+      buf = new byte[capacity];
+    }
+  }
+}
+
+// End OutputChannel.java
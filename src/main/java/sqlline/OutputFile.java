@@ -11,25 +11,77 @@
 */
 package sqlline;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Output file.
+ * Output file, such as the file written by the {@code !record} and
+ * {@code !script} commands.
+ *
+ * <p>Lines are put into a bounded queue, and a background thread writes
+ * them to the file; if the queue is full, the caller waits. The thread
+ * flushes the file whenever it has written every line in the queue, and
+ * {@link #flush()} waits until it has done so.
+ *
+ * <p>If the file name ends with ".gz", the file is compressed with gzip.
+ * If {@code maxSize} is positive, when the file reaches that many bytes it
+ * is renamed with a number (for example "session.log" becomes
+ * "session.log.1", and "session.log.gz" becomes "session.log.1.gz") and a
+ * new file is started.
  */
 public class OutputFile implements AutoCloseable {
+  /** Number of lines that may be waiting to be written. */
+  private static final int QUEUE_SIZE = 8192;
+  private static final int BUFFER_SIZE = 65536;
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+  private static final String GZIP_SUFFIX = ".gz";
+  /** Marks the end of the lines in the queue. */
+  private static final Object END = new Object();
+
   final File file;
-  final PrintWriter out;
+  private final boolean compress;
+  private final long maxSize;
+  private final BlockingQueue<Object> queue =
+      new ArrayBlockingQueue<>(QUEUE_SIZE);
+  private final Thread thread;
+  private CountingOutputStream counter;
+  private Writer out;
+  /** Number of files that have been rotated out. */
+  private int rotations;
+  private volatile IOException failure;
+  /** Whether {@link #failure} has been thrown to the caller. */
+  private boolean reported;
 
   public OutputFile(String filename) throws IOException {
+    this(filename, 0);
+  }
+
+  /**
+   * Creates an output file.
+   *
+   * @param filename File name
+   * @param maxSize Number of bytes at which the file is rotated, or 0 if
+   *                it is never rotated
+   */
+  public OutputFile(String filename, long maxSize) throws IOException {
     file = new File(filename);
-    out = new PrintWriter(
-        new OutputStreamWriter(
-            new FileOutputStream(file), StandardCharsets.UTF_8), true);
+    compress = filename.endsWith(GZIP_SUFFIX);
+    this.maxSize = maxSize;
+    open();
+    thread = new Thread(this::run, "sqlline-output-file");
+    thread.setDaemon(true);
+    thread.start();
   }
 
   @Override public String toString() {
@@ -37,15 +89,161 @@ public OutputFile(String filename) throws IOException {
   }
 
   public void addLine(String command) {
-    out.println(command);
+    put(command + LINE_SEPARATOR);
   }
 
   public void print(String command) {
-    out.print(command);
+    put(command);
+  }
+
+  /** Waits until every line added so far has been written to the file. */
+  public void flush() throws IOException {
+    if (!thread.isAlive()) {
+      checkFailure();
+      return;
+    }
+    final CountDownLatch latch = new CountDownLatch(1);
+    put(latch);
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    checkFailure();
   }
 
   public void close() throws IOException {
+    if (!thread.isAlive()) {
+      return;
+    }
+    put(END);
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    checkFailure();
+  }
+
+  /** Throws the exception that stopped the writing, if there was one and
+   * it has not been thrown already. */
+  private void checkFailure() throws IOException {
+    final IOException e = failure;
+    if (e != null && !reported) {
+      reported = true;
+      throw e;
+    }
+  }
+
+  private void put(Object o) {
+    try {
+      queue.put(o);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void open() throws IOException {
+    counter = new CountingOutputStream(new FileOutputStream(file));
+    final OutputStream os = compress
+        ? new GZIPOutputStream(counter, BUFFER_SIZE, true)
+        : counter;
+    out = new BufferedWriter(
+        new OutputStreamWriter(os, StandardCharsets.UTF_8), BUFFER_SIZE);
+  }
+
+  /** Closes the current file, renames it, and opens a new one. */
+  private void rotate() throws IOException {
     out.close();
+    final String path = file.getPath();
+    final String base = compress
+        ? path.substring(0, path.length() - GZIP_SUFFIX.length())
+        : path;
+    File target;
+    do {
+      target = new File(base + "." + ++rotations
+          + (compress ? GZIP_SUFFIX : ""));
+    } while (target.exists());
+    if (!file.renameTo(target)) {
+      throw new IOException("Could not rename " + file + " to " + target);
+    }
+    open();
+  }
+
+  /** Writes lines until it reaches the end of the queue. */
+  private void run() {
+    for (;;) {
+      Object o = queue.poll();
+      if (o == null) {
+        // The queue is empty; make what has been written visible
+        write(null);
+        try {
+          o = queue.take();
+        } catch (InterruptedException e) {
+          o = END;
+        }
+      }
+      if (o == END) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          fail(e);
+        }
+        return;
+      }
+      if (o instanceof CountDownLatch) {
+        write(null);
+        ((CountDownLatch) o).countDown();
+      } else {
+        write((String) o);
+      }
+    }
+  }
+
+  /** Writes a string, or flushes the file if the string is null. After a
+   * failure, does nothing. */
+  private void write(String s) {
+    if (failure != null) {
+      return;
+    }
+    try {
+      if (s == null) {
+        out.flush();
+        return;
+      }
+      out.write(s);
+      if (maxSize > 0 && counter.count >= maxSize) {
+        rotate();
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private void fail(IOException e) {
+    if (failure == null) {
+      failure = e;
+    }
+  }
+
+  /** Stream that counts the bytes written to it. */
+  private static class CountingOutputStream extends FilterOutputStream {
+    long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override public void write(int b) throws IOException {
+      out.write(b);
+      ++count;
+    }
+
+    @Override public void write(byte[] b, int off, int len)
+        throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
   }
 }
 
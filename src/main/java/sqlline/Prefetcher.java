@@ -0,0 +1,175 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls a fetch function on a background thread, and hands its results to
+ * the calling thread through a bounded queue.
+ *
+ * <p>While the caller renders one result, the background thread fetches
+ * the following ones; when the queue is full, it waits, so that it never
+ * gets more than {@code capacity} results ahead.
+ *
+ * <p>The fetch function has exclusive use of the result set, and of its
+ * connection, until {@link #close()} returns. If the
+ * {@link DispatchCallback} is canceled, {@link #next()} returns null, as if
+ * there were no more results.
+ *
+ * @param <T> Result type
+ */
+class Prefetcher<T> {
+  private static final long POLL_MILLIS = 100;
+  /** Marks the end of the results in the queue. */
+  private static final Object END = new Object();
+
+  private final BlockingQueue<Object> queue;
+  private final DispatchCallback callback;
+  private final Fetch<T> fetch;
+  private final Thread thread;
+  private volatile boolean closed;
+  private boolean done;
+
+  /**
+   * Creates a prefetcher and starts its thread.
+   *
+   * @param capacity Maximum number of results fetched but not yet consumed
+   * @param callback Callback whose cancellation stops fetching
+   * @param fetch Function that returns the next result, or null if there
+   *              are no more
+   */
+  Prefetcher(int capacity, DispatchCallback callback, Fetch<T> fetch) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.callback = callback;
+    this.fetch = fetch;
+    this.thread = new Thread(this::run, "sqlline-fetch");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void run() {
+    try {
+      while (!closed) {
+        final T t = callback.isCanceled() ? null : fetch.fetch();
+        put(t == null ? END : t);
+        if (t == null) {
+          return;
+        }
+      }
+    } catch (Throwable e) {
+      put(new Failure(e));
+    }
+  }
+
+  private void put(Object o) {
+    try {
+      while (!closed) {
+        if (queue.offer(o, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Returns the next result, waiting for it if necessary, or null if there
+   * are no more results or the callback has been canceled.
+   *
+   * @throws SQLException if the fetch function threw
+   */
+  @SuppressWarnings("unchecked")
+  T next() throws SQLException {
+    while (!done) {
+      if (callback.isCanceled()) {
+        close();
+        return null;
+      }
+      final Object o;
+      try {
+        o = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        close();
+        return null;
+      }
+      if (o == null) {
+        continue;
+      }
+      if (o == END) {
+        done = true;
+      } else if (o instanceof Failure) {
+        done = true;
+        ((Failure) o).rethrow();
+      } else {
+        return (T) o;
+      }
+    }
+    return null;
+  }
+
+  /** Stops fetching, and waits for the background thread to finish its
+   * current fetch, after which the result set may be closed. */
+  void close() {
+    done = true;
+    closed = true;
+    queue.clear();
+    boolean interrupted = false;
+    for (;;) {
+      try {
+        thread.join();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Function that fetches a result.
+   *
+   * @param <T> Result type */
+  @FunctionalInterface
+  interface Fetch<T> {
+    T fetch() throws SQLException;
+  }
+
+  /** Exception thrown by the fetch function, to be rethrown in the
+   * consuming thread. */
+  private static class Failure {
+    final Throwable e;
+
+    Failure(Throwable e) {
+      this.e = e;
+    }
+
+    void rethrow() throws SQLException {
+      if (e instanceof SQLException) {
+        throw (SQLException) e;
+      } else if (e instanceof RuntimeException) {
+        throw (RuntimeException) e;
+      } else if (e instanceof Error) {
+        throw (Error) e;
+      }
+      throw new RuntimeException(e);
+    }
+  }
+}
+
+// End Prefetcher.java
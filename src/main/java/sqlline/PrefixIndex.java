@@ -0,0 +1,112 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Immutable collection of values, sorted by a case-folded key, that finds
+ * the values whose key starts with a given prefix in logarithmic time (plus
+ * the time to copy the values found).
+ *
+ * <p>{@link SqlCompleter} uses it so that completing a word in a catalog
+ * with hundreds of thousands of tables does not look at every table.
+ *
+ * @param <T> Element type
+ */
+class PrefixIndex<T> {
+  private final String[] keys;
+  private final List<T> values;
+
+  /**
+   * Creates an index.
+   *
+   * @param values Values
+   * @param keyFunction Returns the key of a value; the key is folded to
+   *                    lower case
+   */
+  PrefixIndex(Collection<T> values, Function<T, String> keyFunction) {
+    final List<Entry<T>> entries = new ArrayList<>(values.size());
+    for (T value : values) {
+      entries.add(new Entry<>(fold(keyFunction.apply(value)), value));
+    }
+    entries.sort(Comparator.comparing(e -> e.key));
+    this.keys = new String[entries.size()];
+    final List<T> sortedValues = new ArrayList<>(entries.size());
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = entries.get(i).key;
+      sortedValues.add(entries.get(i).value);
+    }
+    this.values = Collections.unmodifiableList(sortedValues);
+  }
+
+  /** Folds a key or prefix to the form in which it is compared. */
+  static String fold(String s) {
+    return s == null ? "" : s.toLowerCase(Locale.ROOT);
+  }
+
+  int size() {
+    return keys.length;
+  }
+
+  /** Returns all values, in key order. */
+  List<T> values() {
+    return values;
+  }
+
+  /**
+   * Returns the values whose key starts with a prefix, ignoring case.
+   *
+   * @param prefix Prefix; null or empty matches every value
+   * @return Values, in key order
+   */
+  List<T> startingWith(String prefix) {
+    if (prefix == null || prefix.isEmpty()) {
+      return values;
+    }
+    final String p = fold(prefix);
+    int start = Arrays.binarySearch(keys, p);
+    if (start < 0) {
+      start = -(start + 1);
+    } else {
+      // Equal keys may precede the one found
+      while (start > 0 && keys[start - 1].equals(p)) {
+        --start;
+      }
+    }
+    int end = start;
+    while (end < keys.length && keys[end].startsWith(p)) {
+      ++end;
+    }
+    return values.subList(start, end);
+  }
+
+  /** Key and value. */
+  private static class Entry<T> {
+    final String key;
+    final T value;
+
+    Entry(String key, T value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+}
+
+// End PrefixIndex.java
@@ -0,0 +1,91 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Compact storage for a batch of result set rows, used by
+ * {@link BufferedRows} in place of a list of {@link Rows.Row} objects.
+ *
+ * <p>Rows are read back through a cursor, a {@link Rows.Row} that is
+ * filled in place; see {@link #read(int, Rows.Row)}.
+ */
+interface RowBuffer {
+  /**
+   * Appends the current row of a result set.
+   *
+   * <p>If the buffer has no room for the row, returns false; the row is
+   * retained, and becomes the first row after the next call to
+   * {@link #clear()}.
+   *
+   * @param rs Result set, positioned on a row
+   * @return Whether the row was added
+   */
+  boolean add(ResultSet rs) throws SQLException;
+
+  /** Returns the number of rows in this buffer. */
+  int size();
+
+  /** Removes all rows, keeping the allocated storage for reuse. */
+  void clear();
+
+  /**
+   * Returns the maximum display width of each column over the rows in this
+   * buffer. The array is owned by the buffer and must not be modified.
+   */
+  int[] widths();
+
+  /**
+   * Reads a row into a cursor row.
+   *
+   * <p>The cursor's values and sizes are overwritten; the previous contents
+   * of the cursor are no longer valid.
+   *
+   * @param row Row number, 0-based
+   * @param cursor Row to fill in, created by
+   *   {@link Rows.Row#Row(int, boolean)}
+   */
+  void read(int row, Rows.Row cursor);
+
+  /**
+   * Returns a read-only view of this buffer as a list of rows, preceded by
+   * some leading rows (such as column headers).
+   *
+   * <p>Every buffered row is returned as the same cursor object, which is
+   * refilled on each call to {@link List#get(int)}.
+   *
+   * @param leading Rows to return before the buffered rows
+   * @param cursor Cursor row
+   * @return List of rows
+   */
+  default List<Rows.Row> asList(List<Rows.Row> leading, Rows.Row cursor) {
+    return new AbstractList<Rows.Row>() {
+      @Override public Rows.Row get(int index) {
+        if (index < leading.size()) {
+          return leading.get(index);
+        }
+        read(index - leading.size(), cursor);
+        return cursor;
+      }
+
+      @Override public int size() {
+        return leading.size() + RowBuffer.this.size();
+      }
+    };
+  }
+}
+
+// End RowBuffer.java
@@ -16,13 +16,14 @@
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Types;
-import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
-import java.text.Format;
 import java.text.NumberFormat;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,6 +32,7 @@
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
 
 /**
  * Abstract base class representing a set of rows to be displayed.
@@ -43,11 +45,19 @@ abstract class Rows implements Iterator<Rows.Row> {
   final Boolean[] primaryKeys;
   final Map<TableKey, Set<String>> tablePrimaryKeysCache = new HashMap<>();
   final NumberFormat numberFormat;
-  final DateFormat dateFormat;
-  final DateFormat timeFormat;
-  final DateFormat timestampFormat;
+  final TemporalFormat dateFormat;
+  final TemporalFormat timeFormat;
+  final TemporalFormat timestampFormat;
   final String nullValue;
   final boolean escapeOutput;
+  /** Per-column value extractors, computed once from the metadata. */
+  final ColumnExtractor[] columnExtractors;
+  /** Adapts the fetch size as rows are read; null unless
+   * {@link SqlLineOpts#getAdaptiveFetchSize() adaptiveFetchSize} is set. */
+  final FetchSizer fetchSizer;
+  private boolean rowDeletedSupported = true;
+  private boolean rowUpdatedSupported = true;
+  private boolean rowInsertedSupported = true;
 
   Rows(SqlLine sqlLine, ResultSet rs) throws SQLException {
     this.sqlLine = sqlLine;
@@ -62,30 +72,192 @@ abstract class Rows implements Iterator<Rows.Row> {
       numberFormat = new DecimalFormat(pattern,
           DecimalFormatSymbols.getInstance(Locale.ROOT));
     }
-    if (sqlLine.getOpts().isDefault(BuiltInProperty.DATE_FORMAT)) {
-      dateFormat = null;
-    } else {
-      String pattern = sqlLine.getOpts().get(BuiltInProperty.DATE_FORMAT);
-      dateFormat = new SimpleDateFormat(pattern, Locale.ROOT);
-    }
-    if (sqlLine.getOpts().isDefault(BuiltInProperty.TIME_FORMAT)) {
-      timeFormat = null;
-    } else {
-      String pattern = sqlLine.getOpts().get(BuiltInProperty.TIME_FORMAT);
-      timeFormat = new SimpleDateFormat(pattern, Locale.ROOT);
-    }
-    if (sqlLine.getOpts().isDefault(BuiltInProperty.TIMESTAMP_FORMAT)) {
-      timestampFormat = null;
-    } else {
-      String pattern = sqlLine.getOpts().get(BuiltInProperty.TIMESTAMP_FORMAT);
-      timestampFormat = new SimpleDateFormat(pattern, Locale.ROOT);
-    }
+    dateFormat =
+        sqlLine.getOpts().getTemporalFormat(BuiltInProperty.DATE_FORMAT);
+    timeFormat =
+        sqlLine.getOpts().getTemporalFormat(BuiltInProperty.TIME_FORMAT);
+    timestampFormat =
+        sqlLine.getOpts().getTemporalFormat(BuiltInProperty.TIMESTAMP_FORMAT);
     if (sqlLine.getOpts().isDefault(BuiltInProperty.NULL_VALUE)) {
       nullValue = null;
     } else {
       nullValue = sqlLine.getOpts().get(BuiltInProperty.NULL_VALUE);
     }
     escapeOutput = sqlLine.getOpts().getEscapeOutput();
+    columnExtractors = new ColumnExtractor[count];
+    for (int i = 0; i < count; i++) {
+      columnExtractors[i] = createExtractor(rsMeta.getColumnType(i + 1));
+    }
+    fetchSizer = sqlLine.getOpts().getAdaptiveFetchSize()
+        ? new FetchSizer(rs, count)
+        : null;
+  }
+
+  /**
+   * Moves the result set to its next row, as {@link ResultSet#next()} does,
+   * adapting the fetch size if required.
+   */
+  boolean fetchRow(ResultSet rs) throws SQLException {
+    return fetchSizer == null ? rs.next() : fetchSizer.next();
+  }
+
+  /**
+   * Creates an extractor that reads and formats a column of the given
+   * JDBC type.
+   *
+   * @param columnType Column type, as in {@link java.sql.Types}
+   * @return Extractor for the column
+   */
+  private ColumnExtractor createExtractor(int columnType) {
+    switch (columnType) {
+    case Types.TINYINT:
+    case Types.SMALLINT:
+    case Types.INTEGER:
+    case Types.BIGINT:
+    case Types.REAL:
+    case Types.FLOAT:
+    case Types.DOUBLE:
+    case Types.DECIMAL:
+    case Types.NUMERIC:
+      return formatting(numberFormat == null ? null : numberFormat::format);
+    case Types.BIT:
+    case Types.CLOB:
+    case Types.BLOB:
+    case Types.REF:
+    case Types.JAVA_OBJECT:
+    case Types.STRUCT:
+    case Types.ROWID:
+    case Types.NCLOB:
+    case Types.SQLXML:
+      return formatting(null);
+    case Types.TIME:
+      return temporal(timeFormat, LocalTime.class);
+    case Types.DATE:
+      return temporal(dateFormat, LocalDate.class);
+    case Types.TIMESTAMP:
+      return temporal(timestampFormat, LocalDateTime.class);
+    case Types.TIME_WITH_TIMEZONE:
+      return timeFormat == null
+          ? ResultSet::getString
+          : temporal(timeFormat, OffsetTime.class);
+    case Types.TIMESTAMP_WITH_TIMEZONE:
+      return timestampFormat == null
+          ? ResultSet::getString
+          : temporal(timestampFormat, OffsetDateTime.class);
+    default:
+      return ResultSet::getString;
+    }
+  }
+
+  private ColumnExtractor formatting(Function<Object, String> format) {
+    return (rs, column) -> {
+      final Object o = rs.getObject(column);
+      if (o == null) {
+        return String.valueOf(nullValue);
+      } else if (format != null) {
+        return format.apply(o);
+      } else {
+        return o.toString();
+      }
+    };
+  }
+
+  /**
+   * Creates an extractor for a date-time column.
+   *
+   * <p>If the format works on {@code java.time} values, reads them using
+   * {@link ResultSet#getObject(int, Class)}, which spares the driver from
+   * creating a legacy {@link java.util.Date}; falls back to
+   * {@link ResultSet#getObject(int)} if the driver does not support it.
+   */
+  private ColumnExtractor temporal(TemporalFormat format, Class<?> type) {
+    if (format == null || !format.isJavaTime()) {
+      return formatting(format == null ? null : format::format);
+    }
+    final ColumnExtractor fallback = formatting(format::format);
+    return new ColumnExtractor() {
+      private boolean typedGetterSupported = true;
+
+      public String extract(ResultSet rs, int column) throws SQLException {
+        if (typedGetterSupported) {
+          try {
+            final Object o = rs.getObject(column, type);
+            return o == null ? String.valueOf(nullValue) : format.format(o);
+          } catch (SQLException | AbstractMethodError e) {
+            typedGetterSupported = false;
+          }
+        }
+        return fallback.extract(rs, column);
+      }
+    };
+  }
+
+  /**
+   * Reads the value of a column of the current row of a result set,
+   * formatted and escaped for display.
+   *
+   * @param rs Result set
+   * @param i Column index, 0-based
+   * @return Value to display, possibly null
+   */
+  String readValue(ResultSet rs, int i) throws SQLException {
+    final String value = columnExtractors[i].extract(rs, i + 1);
+    return value == null
+        ? nullValue
+        : escapeOutput
+            ? escapeControlSymbols(value)
+            : value;
+  }
+
+  /**
+   * Reads the row state flags of the current row of a result set.
+   *
+   * <p>Drivers that do not support {@link ResultSet#rowDeleted()} and
+   * friends usually throw; each method is only probed until it first
+   * fails, so that such drivers do not pay for an exception per row.
+   */
+  void readRowState(ResultSet rs, Row row) {
+    if (rowDeletedSupported) {
+      try {
+        row.deleted = rs.rowDeleted();
+      } catch (Throwable t) {
+        rowDeletedSupported = false;
+      }
+    }
+    if (rowUpdatedSupported) {
+      try {
+        row.updated = rs.rowUpdated();
+      } catch (Throwable t) {
+        rowUpdatedSupported = false;
+      }
+    }
+    if (rowInsertedSupported) {
+      try {
+        row.inserted = rs.rowInserted();
+      } catch (Throwable t) {
+        rowInsertedSupported = false;
+      }
+    }
+  }
+
+  /**
+   * Returns the display width of a value, that is, the length of its
+   * longest line.
+   */
+  static int displayWidth(String value) {
+    if (value == null) {
+      return 1;
+    }
+    int max = 0;
+    int start = 0;
+    for (int end = value.indexOf('\n'); end >= 0;
+         end = value.indexOf('\n', start)) {
+      max = Math.max(max, end - start);
+      start = end + 1;
+    }
+    max = Math.max(max, value.length() - start);
+    // a value consisting only of line breaks is displayed as one character
+    return max == 0 && !value.isEmpty() ? 1 : max;
   }
 
   public void remove() {
@@ -100,6 +272,14 @@ public void remove() {
    */
   abstract void normalizeWidths(int maxColumnWidth);
 
+  /**
+   * Releases resources held by this Rows, such as a thread that fetches
+   * rows in the background. After this method returns, the result set is
+   * no longer used, and may be closed.
+   */
+  void close() {
+  }
+
   /**
    * Return whether the specified column (0-based index) is
    * a primary key. Since this method depends on whether
@@ -153,6 +333,18 @@ boolean isPrimaryKey(int col) {
     }
   }
 
+  /**
+   * Determines now whether each column is a primary key. Called before a
+   * {@link Prefetcher} starts reading the result set, so that
+   * {@link #isPrimaryKey} does not query the connection's metadata while
+   * the result set is being read on another thread.
+   */
+  void lookUpPrimaryKeys() {
+    for (int i = 0; i < primaryKeys.length; i++) {
+      isPrimaryKey(i);
+    }
+  }
+
   private static Map<Character, String> createEscapeMap() {
     final Map<Character, String> map = new HashMap<>();
     map.put('\\', "\\\\");
@@ -207,6 +399,11 @@ private static Map<Character, String> createEscapeMap() {
     R apply(T t) throws SQLException;
   }
 
+  /** Reads a column of the current row of a result set as a string. */
+  @FunctionalInterface interface ColumnExtractor {
+    String extract(ResultSet rs, int column) throws SQLException;
+  }
+
   /** Row from a result set. */
   class Row {
     final String[] values;
@@ -227,8 +424,7 @@ class Row {
       sizes = new int[size];
       for (int i = 0; i < size; i++) {
         values[i] = toValue.apply(i + 1);
-        sizes[i] = values[i] == null ? 1 : Arrays.stream(values[i].split("\n"))
-            .map(String::length).max(Integer::compare).orElse(1);
+        sizes[i] = displayWidth(values[i]);
       }
 
       deleted = false;
@@ -241,77 +437,23 @@ class Row {
       values = new String[size];
       sizes = new int[size];
 
-      try {
-        deleted = rs.rowDeleted();
-      } catch (Throwable t) {
-        // ignore
-      }
-      try {
-        updated = rs.rowUpdated();
-      } catch (Throwable t) {
-        // ignore
-      }
-      try {
-        inserted = rs.rowInserted();
-      } catch (Throwable t) {
-        // ignore
-      }
+      readRowState(rs, this);
 
       for (int i = 0; i < size; i++) {
-        switch (rs.getMetaData().getColumnType(i + 1)) {
-        case Types.TINYINT:
-        case Types.SMALLINT:
-        case Types.INTEGER:
-        case Types.BIGINT:
-        case Types.REAL:
-        case Types.FLOAT:
-        case Types.DOUBLE:
-        case Types.DECIMAL:
-        case Types.NUMERIC:
-          setFormat(rs.getObject(i + 1), numberFormat, i);
-          break;
-        case Types.BIT:
-        case Types.CLOB:
-        case Types.BLOB:
-        case Types.REF:
-        case Types.JAVA_OBJECT:
-        case Types.STRUCT:
-        case Types.ROWID:
-        case Types.NCLOB:
-        case Types.SQLXML:
-          setFormat(rs.getObject(i + 1), null, i);
-          break;
-        case Types.TIME:
-          setFormat(rs.getObject(i + 1), timeFormat, i);
-          break;
-        case Types.DATE:
-          setFormat(rs.getObject(i + 1), dateFormat, i);
-          break;
-        case Types.TIMESTAMP:
-          setFormat(rs.getObject(i + 1), timestampFormat, i);
-          break;
-        default:
-          values[i] = rs.getString(i + 1);
-          break;
-        }
-        values[i] = values[i] == null
-            ? nullValue
-            : escapeOutput
-                ? escapeControlSymbols(values[i])
-                : values[i];
-        sizes[i] = values[i] == null ? 1 : Arrays.stream(values[i].split("\n"))
-            .map(String::length).max(Integer::compare).orElse(1);
+        values[i] = readValue(rs, i);
+        sizes[i] = displayWidth(values[i]);
+      }
+      if (fetchSizer != null) {
+        fetchSizer.observe(values);
       }
     }
 
-    private void setFormat(Object o, Format format, int i) {
-      if (o == null) {
-        values[i] = String.valueOf(nullValue);
-      } else if (format != null) {
-        values[i] = format.format(o);
-      } else {
-        values[i] = o.toString();
-      }
+    /** Creates an empty row, to be filled in later; see
+     * {@link ColumnarBuffer#read(int, Row)}. */
+    Row(int size, boolean isMeta) {
+      this.isMeta = isMeta;
+      values = new String[size];
+      sizes = new int[size];
     }
   }
 
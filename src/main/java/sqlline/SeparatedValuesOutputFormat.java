@@ -13,23 +13,58 @@
 
 /**
  * OutputFormat for values separated by a delimiter.
+ *
+ * <p>If {@link SqlLineOpts#getCsvQuoteAll() csvQuoteAll} is true (the
+ * default), every value is quoted; otherwise, as in RFC 4180, only values
+ * that contain the separator, the quote character or a line break are
+ * quoted. Quote characters within quoted values are doubled.
  */
 class SeparatedValuesOutputFormat extends AbstractOutputFormat {
   private static final char DEFAULT_QUOTE_CHARACTER = '"';
+  /** Number of characters at which the buffer is written out. */
+  private static final int FLUSH_SIZE = 8192;
+
   final String separator;
   final char quoteCharacter;
+  /** For each ASCII character, whether a value that contains it needs to
+   * be quoted. */
+  private final boolean[] special = new boolean[128];
+  private final LineBuffer out;
+  private boolean quoteAll = true;
 
   SeparatedValuesOutputFormat(SqlLine sqlLine,
       String separator, char quoteCharacter) {
     super(sqlLine);
     this.separator = separator;
     this.quoteCharacter = quoteCharacter;
+    this.out = new LineBuffer(sqlLine, FLUSH_SIZE);
+    mark(quoteCharacter);
+    mark('\n');
+    mark('\r');
+    if (separator != null && !separator.isEmpty()) {
+      mark(separator.charAt(0));
+    }
   }
 
   SeparatedValuesOutputFormat(SqlLine sqlLine, String separator) {
     this(sqlLine, separator, DEFAULT_QUOTE_CHARACTER);
   }
 
+  private void mark(char c) {
+    if (c < special.length) {
+      special[c] = true;
+    }
+  }
+
+  @Override public int print(Rows rows) {
+    quoteAll = sqlLine.getOpts().getCsvQuoteAll();
+    try {
+      return super.print(rows);
+    } finally {
+      out.flush();
+    }
+  }
+
   @Override void printHeader(Rows.Row header) {
     printRow(header);
   }
@@ -42,22 +77,60 @@ class SeparatedValuesOutputFormat extends AbstractOutputFormat {
   }
 
   private void printRow(Rows.Row row) {
-    String[] vals = row.values;
-    StringBuilder buf = new StringBuilder();
-    for (String val : vals) {
-      buf.append(buf.length() == 0 ? "" : "" + separator)
-          .append(quoteCharacter);
-      if (val != null) {
-        for (char c : val.toCharArray()) {
-          if (c == quoteCharacter) {
-            buf.append(c);
-          }
-          buf.append(c);
+    final StringBuilder sb = out.sb;
+    final String[] vals = row.values;
+    for (int i = 0; i < vals.length; i++) {
+      if (i > 0) {
+        sb.append(separator);
+      }
+      final String val = vals[i];
+      if (quoteAll) {
+        appendQuoted(sb, val == null ? "" : val);
+      } else if (val != null) {
+        if (needsQuote(val)) {
+          appendQuoted(sb, val);
+        } else {
+          sb.append(val);
         }
       }
-      buf.append(quoteCharacter);
     }
-    sqlLine.output(buf.toString());
+    out.endLine();
+  }
+
+  /** Returns whether a value contains the separator, the quote character
+   * or a line break. */
+  private boolean needsQuote(String val) {
+    for (int i = 0; i < val.length(); i++) {
+      final char c = val.charAt(i);
+      if (c < special.length ? special[c] : isSpecial(c)) {
+        if (c != '\n' && c != '\r' && c != quoteCharacter
+            && !val.startsWith(separator, i)) {
+          // First character of a multi-character separator, but not
+          // followed by the rest of it
+          continue;
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isSpecial(char c) {
+    return c == quoteCharacter
+        || separator != null && !separator.isEmpty()
+            && c == separator.charAt(0);
+  }
+
+  /** Appends a value in quotes, doubling any quote characters in it. */
+  private void appendQuoted(StringBuilder sb, String val) {
+    sb.append(quoteCharacter);
+    int start = 0;
+    for (int i = val.indexOf(quoteCharacter); i >= 0;
+         i = val.indexOf(quoteCharacter, start)) {
+      sb.append(val, start, i + 1).append(quoteCharacter);
+      start = i + 1;
+    }
+    sb.append(val, start, val.length()).append(quoteCharacter);
   }
 }
 
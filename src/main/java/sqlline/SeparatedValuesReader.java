@@ -0,0 +1,141 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads rows of values, separated by a separator such as a comma or a tab,
+ * one row at a time; the inverse of {@link SeparatedValuesOutputFormat}.
+ *
+ * <p>A value may be enclosed in quote characters, in which case it may
+ * contain the separator and line breaks, and a quote character within it
+ * is written twice. An empty value that is not quoted is read as null;
+ * a quoted empty value is read as the empty string. If there is a null
+ * marker, such as the "null" that {@link Rows} writes for null values, a
+ * value equal to it is read as null whether or not it is quoted, because
+ * {@link SqlLineOpts#getCsvQuoteAll() csvQuoteAll} quotes it. Blank lines
+ * are skipped.
+ */
+class SeparatedValuesReader implements AutoCloseable {
+  private final BufferedReader in;
+  private final String separator;
+  private final char quoteCharacter;
+  /** Value that is read as null, or null if there is none. */
+  private final String nullValue;
+  /** Number of lines read. */
+  private int lineNumber;
+  /** Line on which the most recent row started. */
+  private int rowLineNumber;
+
+  /**
+   * Creates a reader.
+   *
+   * @param in Input
+   * @param separator Separator between values
+   * @param quoteCharacter Quote character
+   * @param nullValue Value that is read as null, or null if there is none
+   */
+  SeparatedValuesReader(Reader in, String separator, char quoteCharacter,
+      String nullValue) {
+    this.in = in instanceof BufferedReader
+        ? (BufferedReader) in
+        : new BufferedReader(in, 1 << 16);
+    this.separator = separator;
+    this.quoteCharacter = quoteCharacter;
+    this.nullValue = nullValue;
+  }
+
+  @Override public void close() throws IOException {
+    in.close();
+  }
+
+  /** Returns the line number, starting at 1, on which the most recent row
+   * returned by {@link #next()} started. */
+  int getLineNumber() {
+    return rowLineNumber;
+  }
+
+  /**
+   * Reads the next row.
+   *
+   * @return Values of the row, or null if there are no more rows
+   * @throws IOException if the input cannot be read, or ends within a
+   *   quoted value
+   */
+  List<String> next() throws IOException {
+    String line;
+    do {
+      line = in.readLine();
+      if (line == null) {
+        return null;
+      }
+      ++lineNumber;
+    } while (line.isEmpty());
+    rowLineNumber = lineNumber;
+
+    final List<String> values = new ArrayList<>();
+    final StringBuilder value = new StringBuilder();
+    int i = 0;
+    for (;;) {
+      final int end;
+      if (i < line.length() && line.charAt(i) == quoteCharacter) {
+        value.setLength(0);
+        ++i;
+        for (;;) {
+          if (i == line.length()) {
+            // Line break within a quoted value
+            line = in.readLine();
+            if (line == null) {
+              throw new IOException("Quoted value that starts on line "
+                  + rowLineNumber + " is not closed");
+            }
+            ++lineNumber;
+            value.append('\n');
+            i = 0;
+            continue;
+          }
+          final char c = line.charAt(i++);
+          if (c != quoteCharacter) {
+            value.append(c);
+          } else if (i < line.length() && line.charAt(i) == quoteCharacter) {
+            value.append(c);
+            ++i;
+          } else {
+            break;
+          }
+        }
+        values.add(nullOrValue(value.toString()));
+        // Ignore anything between the closing quote and the separator
+        end = line.indexOf(separator, i);
+      } else {
+        end = line.indexOf(separator, i);
+        final String s = end < 0 ? line.substring(i) : line.substring(i, end);
+        values.add(s.isEmpty() ? null : nullOrValue(s));
+      }
+      if (end < 0) {
+        return values;
+      }
+      i = end + separator.length();
+    }
+  }
+
+  private String nullOrValue(String value) {
+    return value.equals(nullValue) ? null : value;
+  }
+}
+
+// End SeparatedValuesReader.java
@@ -11,8 +11,9 @@
 */
 package sqlline;
 
-import java.sql.DatabaseMetaData;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.jline.reader.Candidate;
@@ -29,77 +30,108 @@ class SqlCompleter extends StringsCompleter {
       "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_";
   private static final String ALLOWED_LOWER_CHARACTERS =
       "abcdefghijklmnopqrstuvwxyz0123456789_";
+  /** Number of names or candidates up to which all are offered, whatever
+   * has been typed, so that jline can also correct typos; above it, only
+   * those that start with what has been typed are offered. */
+  private static final int SMALL_INDEX = 10_000;
+  /** Unquoted name, possibly qualified by a schema. */
+  private static final Pattern NAME =
+      Pattern.compile("[\\w$]+(?:\\.[\\w$]+)?");
   private final SqlLine sqlLine;
   private final boolean skipMeta;
+  /** Looks up schemas, tables and columns in the database as they are
+   * typed, or null to complete them from
+   * {@link DatabaseConnection.Schema}. */
+  private final MetadataLookup lookup;
+  /** Candidates other than schema-based and table-based ones; replaced as
+   * metadata is loaded in the background. */
+  private volatile PrefixIndex<Candidate> completions;
+  /** Indexes of table names, built when first needed: for each map of the
+   * tables of a schema, and, keyed by {@link #indexedSchema2tables}, for
+   * all schemas. */
+  private final Map<Map<?, ?>, PrefixIndex<String>> tableIndexes =
+      new IdentityHashMap<>();
+  /** Tables of each schema, as of when {@link #tableIndexes} was built. */
+  private Map<String, Map<String, Set<String>>> indexedSchema2tables;
 
   SqlCompleter(SqlLine sqlLine, boolean skipMeta) {
-    super(getCompletions(sqlLine, skipMeta));
+    this(sqlLine, skipMeta, getCompletions(sqlLine, skipMeta));
+  }
+
+  SqlCompleter(SqlLine sqlLine, boolean skipMeta, Candidate[] completions) {
+    this(sqlLine, skipMeta, completions, null);
+  }
+
+  /** Creates a completer that looks up schemas, tables and columns in the
+   * database as they are typed. */
+  SqlCompleter(SqlLine sqlLine, MetadataLookup lookup) {
+    this(sqlLine, false, getCompletions(sqlLine, true), lookup);
+  }
+
+  private SqlCompleter(SqlLine sqlLine, boolean skipMeta,
+      Candidate[] completions, MetadataLookup lookup) {
     this.sqlLine = sqlLine;
     this.skipMeta = skipMeta;
+    this.lookup = lookup;
+    setCompletions(completions);
   }
 
-  private static Candidate[] getCompletions(SqlLine sqlLine, boolean skipMeta) {
-    Set<Candidate> completions = new TreeSet<>();
+  /** Replaces the candidates, for instance when more metadata has been
+   * loaded; safe to call from any thread. */
+  void setCompletions(Candidate[] completions) {
+    this.completions =
+        new PrefixIndex<>(Arrays.asList(completions), Candidate::value);
+  }
 
-    // now add the keywords from the current connection
-    final DatabaseMetaData meta = sqlLine.getDatabaseConnection().meta;
-    try {
-      for (String sqlKeyWord: meta.getSQLKeywords().split(",")) {
-        final String keyWord = sqlKeyWord.trim();
-        completions.add(
-            new SqlLineCommandCompleter.SqlLineCandidate(sqlLine, keyWord,
-                keyWord, null, sqlLine.loc("keyword"), null, null, true));
-      }
-    } catch (Throwable t) {
-      // ignore
-    }
+  private static Candidate[] getCompletions(SqlLine sqlLine, boolean skipMeta) {
+    // now add the keywords and functions from the current connection
+    MetadataCache.Metadata metadata = null;
     try {
-      for (String numericFunction: meta.getNumericFunctions().split(",")) {
-        final String function = numericFunction.trim();
-        completions.add(
-            new SqlLineCommandCompleter.SqlLineCandidate(sqlLine, function,
-                function, null, sqlLine.loc("function"), null, null, false));
-      }
+      metadata = sqlLine.getDatabaseConnection().getMetadata();
     } catch (Throwable t) {
       // ignore
     }
-    try {
-      for (String stringFunction: meta.getStringFunctions().split(",")) {
-        final String function = stringFunction.trim();
-        completions.add(
-            new SqlLineCommandCompleter.SqlLineCandidate(sqlLine, function,
-                function, null, sqlLine.loc("function"), null, null, false));
+    Map<String, Map<String, Set<String>>> schema2tables = null;
+    if (!skipMeta) {
+      try {
+        schema2tables =
+            sqlLine.getDatabaseConnection().getSchema(true).getSchema2tables();
+      } catch (Throwable t) {
+        // ignore
       }
-    } catch (Throwable t) {
-      // ignore
     }
-    try {
-      for (String systemFunction: meta.getSystemFunctions().split(",")) {
-        final String function = systemFunction.trim();
+    return getCompletions(sqlLine, metadata, schema2tables);
+  }
+
+  /**
+   * Returns the candidates for given metadata.
+   *
+   * @param sqlLine SqlLine
+   * @param metadata Keywords and functions, or null
+   * @param schema2tables Tables of each schema, or null
+   * @return Candidates
+   */
+  static Candidate[] getCompletions(SqlLine sqlLine,
+      MetadataCache.Metadata metadata,
+      Map<String, Map<String, Set<String>>> schema2tables) {
+    Set<Candidate> completions = new TreeSet<>();
+
+    if (metadata != null) {
+      for (String keyWord : metadata.getKeywords()) {
         completions.add(
-            new SqlLineCommandCompleter.SqlLineCandidate(sqlLine, function,
-                function, null, sqlLine.loc("function"), null, null, false));
+            new SqlLineCommandCompleter.SqlLineCandidate(sqlLine, keyWord,
+                keyWord, null, sqlLine.loc("keyword"), null, null, true));
       }
-    } catch (Throwable t) {
-      // ignore
-    }
-    try {
-      for (String timeDateFunction: meta.getTimeDateFunctions().split(",")) {
-        final String function = timeDateFunction.trim();
+      for (String function : metadata.functions) {
         completions.add(
             new SqlLineCommandCompleter.SqlLineCandidate(sqlLine, function,
                 function, null, sqlLine.loc("function"), null, null, false));
       }
-    } catch (Throwable t) {
-      // ignore
     }
 
-    if (!skipMeta) {
+    if (schema2tables != null) {
       try {
         final Dialect dialect = sqlLine.getDialect();
-        Map<String, Map<String, Set<String>>> schema2tables =
-            sqlLine.getDatabaseConnection()
-                .getSchema(true).getSchema2tables();
         for (String schemaName : schema2tables.keySet()) {
           // mariadb/mysql case of connection without specific db like
           // under user without grants to read any db
@@ -146,8 +178,22 @@ private static Candidate[] getCompletions(SqlLine sqlLine, boolean skipMeta) {
       return;
     }
 
-    if (!skipMeta) {
-      Deque<String> lastWords = getSchemaTableColumn(argumentList.word());
+    final String word = commandLine.word()
+        .substring(0, Math.min(commandLine.wordCursor(),
+            commandLine.word().length()));
+    final Deque<String> lastWords = skipMeta
+        ? new ArrayDeque<>()
+        : getSchemaTableColumn(argumentList.word());
+    if (!skipMeta && lookup == null
+        && sqlLine.getOpts().getBackgroundMetadata()) {
+      // Columns of the word being completed, if it is a table, are read
+      // below
+      final String current = argumentList.word();
+      prefetchColumns(sql.endsWith(current)
+          ? sql.substring(0, sql.length() - current.length())
+          : sql);
+    }
+    if (!lastWords.isEmpty()) {
       candidates.addAll(getSchemaBasedCandidates(new ArrayDeque<>(lastWords)));
       candidates.addAll(getTableBasedCandidates(new ArrayDeque<>(lastWords)));
     }
@@ -160,8 +206,145 @@ private static Candidate[] getCompletions(SqlLine sqlLine, boolean skipMeta) {
                    != SqlLineParser.SqlParserState.ROUND_BRACKET_BALANCE_FAILED)
             || sql.isEmpty()
             || sql.charAt(sql.length() - 1) != '.')) {
-      candidates.addAll(this.candidates);
+      candidates.addAll(lookup(completions, word));
+      if (lookup != null && lastWords.size() == 1) {
+        candidates.addAll(getLookupCandidates(lastWords.peekFirst()));
+      }
+    }
+  }
+
+  /** Returns the schemas and tables, looked up in the database, that start
+   * with an unquoted word; what {@link #getCompletions} offers when names
+   * are not looked up on demand. */
+  private Collection<Candidate> getLookupCandidates(String word) {
+    final Dialect dialect = sqlLine.getDialect();
+    final String prefix = readAsDialectSpecificName(dialect, word);
+    final Collection<Candidate> candidates = new ArrayList<>();
+    for (String schemaName : lookup.schemas(prefix)) {
+      String value = writeAsDialectSpecificValue(dialect, false, schemaName);
+      candidates.add(
+          generateCandidate(schemaName, value, sqlLine, "schema", false));
+    }
+    for (String tableName : new TreeSet<>(lookup.tables(null, prefix))) {
+      String value = writeAsDialectSpecificValue(dialect, false, tableName);
+      candidates.add(
+          generateCandidate(tableName, value, sqlLine, "table", false));
+    }
+    return candidates;
+  }
+
+  /**
+   * Returns the tables of each schema. If names are looked up on demand,
+   * returns only those that completing a word needs.
+   *
+   * @param schemaName Schema that the word starts with, or null if it does
+   *                   not start with a schema
+   * @param tablePrefix Start of the table name that follows, or null
+   * @return Tables of each schema, as
+   *   {@link DatabaseConnection.Schema#getSchema2tables()}
+   */
+  private Map<String, Map<String, Set<String>>> getSchema2tables(
+      String schemaName, String tablePrefix) {
+    if (lookup == null) {
+      return sqlLine.getDatabaseConnection().getSchema().getSchema2tables();
+    }
+    final Map<String, Map<String, Set<String>>> schema2tables =
+        new HashMap<>();
+    if (schemaName != null) {
+      for (String sName : lookup.schemas(schemaName)) {
+        schema2tables.put(sName, Collections.emptyMap());
+      }
+    }
+    if (schemaName == null || schema2tables.containsKey(schemaName)) {
+      final Map<String, Set<String>> tables = new HashMap<>();
+      for (String tName : lookup.tables(schemaName, tablePrefix)) {
+        tables.put(tName, null);
+      }
+      schema2tables.put(schemaName, tables);
+    }
+    return schema2tables;
+  }
+
+  /** Returns the columns of a table; if names are looked up on demand,
+   * only those that start with a prefix. */
+  private Collection<String> getColumnNames(String schemaName,
+      String tableName, String columnPrefix) {
+    return lookup == null
+        ? sqlLine.getDatabaseConnection().getSchema()
+            .getColumnNames(schemaName, tableName)
+        : lookup.columns(schemaName, tableName, columnPrefix);
+  }
+
+  /** Starts loading, in the background, the columns of the tables that
+   * a statement names, so that they are ready when completing after
+   * them. */
+  private void prefetchColumns(String sql) {
+    final Dialect dialect = sqlLine.getDialect();
+    final Set<List<String>> tables = new LinkedHashSet<>();
+    final Matcher matcher = NAME.matcher(sql);
+    while (matcher.find()) {
+      final String[] names = matcher.group().split("\\.");
+      final String tableName =
+          readAsDialectSpecificName(dialect, names[names.length - 1]);
+      tables.add(
+          Arrays.asList(names.length == 1
+              ? null
+              : readAsDialectSpecificName(dialect, names[0]), tableName));
     }
+    if (!tables.isEmpty()) {
+      sqlLine.getDatabaseConnection().getSchema().prefetchColumns(tables);
+    }
+  }
+
+  /** Returns the values in an index that start with a prefix, or all of
+   * them if the index is small. */
+  private static <T> List<T> lookup(PrefixIndex<T> index, String prefix) {
+    return index.size() <= SMALL_INDEX
+        ? index.values()
+        : index.startingWith(prefix);
+  }
+
+  /**
+   * Returns the names of the tables in a schema, or in all schemas, that
+   * start with a prefix, ignoring case.
+   *
+   * @param schema2tables Tables of each schema
+   * @param schemaName Schema, or null for all schemas
+   * @param prefix Prefix, or null
+   * @return Table names; may contain duplicates if schemaName is null
+   */
+  private synchronized List<String> tableNames(
+      Map<String, Map<String, Set<String>>> schema2tables, String schemaName,
+      String prefix) {
+    if (schema2tables != indexedSchema2tables) {
+      tableIndexes.clear();
+      indexedSchema2tables = schema2tables;
+    }
+    final Map<?, ?> key;
+    final int size;
+    final Map<String, Set<String>> tables;
+    if (schemaName == null) {
+      key = schema2tables;
+      tables = null;
+      size = schema2tables.values().stream().mapToInt(Map::size).sum();
+    } else {
+      tables = schema2tables.get(schemaName);
+      key = tables;
+      size = tables.size();
+    }
+    PrefixIndex<String> index = tableIndexes.get(key);
+    if (index == null || index.size() != size) {
+      // Not built yet, or tables have been added since
+      final List<String> names = new ArrayList<>(size);
+      if (tables == null) {
+        schema2tables.values().forEach(t -> names.addAll(t.keySet()));
+      } else {
+        names.addAll(tables.keySet());
+      }
+      index = new PrefixIndex<>(names, name -> name);
+      tableIndexes.put(key, index);
+    }
+    return lookup(index, prefix);
   }
 
   private Collection<Candidate> getSchemaBasedCandidates(
@@ -171,14 +354,14 @@ private Collection<Candidate> getSchemaBasedCandidates(
       return Collections.emptySet();
     }
     Collection<Candidate> candidates = new ArrayList<>();
-    final Map<String, Map<String, Set<String>>> schema2tables =
-        sqlLine.getDatabaseConnection().getSchema().getSchema2tables();
-
     final String originalSchemaName = schemaTableColumn.pollFirst();
     final Dialect dialect = sqlLine.getDialect();
 
     final String schemaName =
         readAsDialectSpecificName(dialect, originalSchemaName);
+    final Map<String, Map<String, Set<String>>> schema2tables =
+        getSchema2tables(schemaName,
+            readAsDialectSpecificName(dialect, schemaTableColumn.peekFirst()));
     final boolean need2Quote =
         isOriginalNameStartedQuoted(dialect, originalSchemaName);
     if (schemaName == null || schema2tables.get(schemaName) == null) {
@@ -202,7 +385,7 @@ private Collection<Candidate> getSchemaBasedCandidates(
         isOriginalNameStartedQuoted(dialect, originalTableName);
     if (tableName == null
         || !schema2tables.get(schemaName).containsKey(tableName)) {
-      for (String tName: schema2tables.get(schemaName).keySet()) {
+      for (String tName: tableNames(schema2tables, schemaName, tableName)) {
         String value =
             writeAsDialectSpecificValue(dialect, need2Quote, schemaName)
             + "."
@@ -211,9 +394,9 @@ private Collection<Candidate> getSchemaBasedCandidates(
             generateCandidate(tName, value, sqlLine, "table", true));
       }
     } else {
-      Collection<String> columnNames = sqlLine.getDatabaseConnection()
-          .getSchema().getColumnNames(schemaName, tableName);
       String userWrittenColumnName = schemaTableColumn.pollFirst();
+      Collection<String> columnNames = getColumnNames(schemaName, tableName,
+          readAsDialectSpecificName(dialect, userWrittenColumnName));
       final boolean need2QuoteColumnName =
           isOriginalNameStartedQuoted(dialect, userWrittenColumnName);
       for (String columnName: columnNames) {
@@ -239,25 +422,22 @@ private Collection<Candidate> getTableBasedCandidates(
       return Collections.emptySet();
     }
     Collection<Candidate> candidates = new ArrayList<>();
-    final Map<String, Set<String>> tables2columns = new HashMap<>();
-    for (Map<String, Set<String>> map: sqlLine.getDatabaseConnection()
-        .getSchema().getSchema2tables().values()) {
-      for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
-        tables2columns.put(entry.getKey(), entry.getValue());
-      }
-    }
     final Dialect dialect = sqlLine.getDialect();
     final String originalTableName = tableColumn.pollFirst();
     final String tableName =
         readAsDialectSpecificName(dialect, originalTableName);
+    final Map<String, Map<String, Set<String>>> schema2tables =
+        getSchema2tables(null, tableName);
     final boolean need2QuoteTableName =
         isOriginalNameStartedQuoted(dialect, originalTableName);
-    if (!tables2columns.containsKey(tableName)) {
-      for (String tName: tables2columns.keySet()) {
-        // covered in getCompletions
-        if (!need2QuoteTableName) {
-          continue;
-        }
+    if (schema2tables.values().stream()
+        .noneMatch(tables -> tables.containsKey(tableName))) {
+      // covered in getCompletions
+      if (!need2QuoteTableName) {
+        return candidates;
+      }
+      for (String tName
+          : new LinkedHashSet<>(tableNames(schema2tables, null, tableName))) {
         String value = writeAsDialectSpecificValue(dialect, true, tName);
         candidates.add(
             generateCandidate(tName, value, sqlLine, "table", false));
@@ -265,9 +445,9 @@ private Collection<Candidate> getTableBasedCandidates(
       return candidates;
     }
 
-    Collection<String> columnNames = sqlLine.getDatabaseConnection()
-        .getSchema().getColumnNames(null, tableName);
     String userWrittenColumnName = tableColumn.pollFirst();
+    Collection<String> columnNames = getColumnNames(null, tableName,
+        readAsDialectSpecificName(dialect, userWrittenColumnName));
     final boolean need2QuoteColumnName =
         isOriginalNameStartedQuoted(dialect, userWrittenColumnName);
     for (String columnName: columnNames) {
@@ -70,16 +70,36 @@ public class SqlLine {
   private boolean prompting = false;
   private final DatabaseConnections connections = new DatabaseConnections();
   public static final String COMMAND_PREFIX = "!";
+
+  /** Commands that a thread whose output is redirected, such as a script
+   * run by "run -parallel", may run. They affect only the thread's own
+   * connection; others, such as "set", "connect" and "batch", would change
+   * the state of the whole session, or ask the user a question that nobody
+   * would see. */
+  private static final Set<String> REDIRECTED_COMMANDS =
+      Collections.unmodifiableSet(
+          new HashSet<>(
+              Arrays.asList("sql", "call", "commit", "rollback", "autocommit",
+                  "readonly", "describe", "indexes", "primarykeys",
+                  "exportedkeys", "importedkeys", "procedures", "schemas",
+                  "tables", "typeinfo", "columns", "metadata", "nativesql",
+                  "dbinfo", "export", "import", "run", "list", "help")));
   private Set<Driver> drivers = null;
-  private final Map<SQLWarning, Date> seenWarnings = new HashMap<>();
+  private final Map<SQLWarning, Date> seenWarnings =
+      Collections.synchronizedMap(new HashMap<>());
   private final Commands commands = new Commands(this);
   private OutputFile scriptOutputFile = null;
   private OutputFile recordOutputFile = null;
   private PrintStream outputStream;
   private PrintStream errorStream;
+  /** Where the output of the current thread goes, if not to the
+   * console. */
+  private final ThreadLocal<Redirect> redirect = new ThreadLocal<>();
+  private final ConnectionPool connectionPool = new ConnectionPool(this);
+  private boolean interactive;
   private LineReader lineReader;
   private AutopairWidgets autopairWidgets;
-  private List<String> batch = null;
+  private StatementBatch batch = null;
   private final Reflector reflector;
   private Application application;
   private Config appConfig;
@@ -231,8 +251,8 @@ public SqlLine() {
     setAppConfig(new Application());
 
     try {
-      outputStream =
-          new PrintStream(System.out, true, StandardCharsets.UTF_8.name());
+      outputStream = new PrintStream(new OutputChannel(this, System.out),
+          false, StandardCharsets.UTF_8.name());
       errorStream =
           new PrintStream(System.err, true, StandardCharsets.UTF_8.name());
     } catch (UnsupportedEncodingException e) {
@@ -275,28 +295,36 @@ public static Status start(String[] args,
     return status;
   }
 
+  ConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
   DatabaseConnection getDatabaseConnection() {
+    final Redirect r = redirect.get();
+    if (r != null && r.connection != null) {
+      return r.connection;
+    }
     return connections.current();
   }
 
   Connection getConnection() {
-    if (getDatabaseConnections().current() == null) {
+    if (getDatabaseConnection() == null) {
       throw new IllegalArgumentException(loc("no-current-connection"));
     }
-    if (getDatabaseConnections().current().connection == null) {
+    if (getDatabaseConnection().connection == null) {
       throw new IllegalArgumentException(loc("no-current-connection"));
     }
-    return getDatabaseConnections().current().connection;
+    return getDatabaseConnection().connection;
   }
 
   DatabaseMetaData getDatabaseMetaData() {
-    if (getDatabaseConnections().current() == null) {
+    if (getDatabaseConnection() == null) {
       throw new IllegalArgumentException(loc("no-current-connection"));
     }
-    if (getDatabaseConnections().current().getDatabaseMetaData() == null) {
+    if (getDatabaseConnection().getDatabaseMetaData() == null) {
       throw new IllegalArgumentException(loc("no-current-connection"));
     }
-    return connections.current().getDatabaseMetaData();
+    return getDatabaseConnection().getDatabaseMetaData();
   }
 
   /**
@@ -560,6 +588,7 @@ public Status begin(String[] args, InputStream inputStream,
       } catch (Throwable t) {
         handleException(t);
         commands.quit(null, new DispatchCallback());
+        getOutputStream().flush();
         return Status.OTHER;
       }
     } else {
@@ -573,6 +602,7 @@ public Status begin(String[] args, InputStream inputStream,
       usage();
       // fall through
     case OTHER:
+      getOutputStream().flush();
       return status;
     default:
       break;
@@ -615,7 +645,10 @@ public Status begin(String[] args, InputStream inputStream,
         try {
           callback.forceKillSqlQuery();
           callback.setToCancel();
-          output(loc("command-canceled"));
+          final DatabaseConnection connection = getDatabaseConnection();
+          output(connection != null && connection.cancelMetadataLoad()
+              ? loc("metadata-load-canceled")
+              : loc("command-canceled"));
         } catch (SQLException sqle) {
           handleException(sqle);
         }
@@ -628,6 +661,7 @@ public Status begin(String[] args, InputStream inputStream,
     // connections automatically.
     // nothing is done with the callback beyond
     commands.closeall(null, new DispatchCallback());
+    getOutputStream().flush();
     if (callback.isFailure()) {
       status = Status.OTHER;
     }
@@ -647,6 +681,7 @@ public LineReader getConsoleReader(InputStream inputStream,
           .build();
     } else {
       terminal = terminalBuilder.system(true).build();
+      interactive = System.console() != null;
       getOpts().set(BuiltInProperty.MAX_WIDTH, terminal.getWidth());
       getOpts().set(BuiltInProperty.MAX_HEIGHT, terminal.getHeight());
     }
@@ -757,6 +792,31 @@ void usage() {
    * @param line The command-line to dispatch
    */
   void dispatch(String line, DispatchCallback callback) {
+    try {
+      dispatchLine(line, callback);
+    } finally {
+      // End of the command; write any buffered output
+      getOutputStream().flush();
+      flushOutputFiles();
+    }
+  }
+
+  /** Waits until the record and script files contain everything written
+   * to them so far. */
+  private void flushOutputFiles() {
+    try {
+      if (recordOutputFile != null) {
+        recordOutputFile.flush();
+      }
+      if (scriptOutputFile != null) {
+        scriptOutputFile.flush();
+      }
+    } catch (IOException e) {
+      handleException(e);
+    }
+  }
+
+  private void dispatchLine(String line, DispatchCallback callback) {
     if (line == null) {
       // exit
       exit = true;
@@ -813,6 +873,13 @@ void dispatch(String line, DispatchCallback callback) {
         break;
       }
 
+      if (getRedirect() != null
+          && !REDIRECTED_COMMANDS.contains(matchingHandler.getName())) {
+        callback.setStatus(DispatchCallback.Status.FAILURE);
+        error(loc("command-not-redirected", matchingHandler.getName()));
+        return;
+      }
+
       echoToFile = matchingHandler.echoToFile();
       callback.setStatus(DispatchCallback.Status.RUNNING);
       matchingHandler.execute(commandLine, callback);
@@ -897,7 +964,8 @@ public void info(AttributedString msg) {
    * @return false always
    */
   public boolean error(String msg) {
-    output(new AttributedString(msg, AttributedStyles.RED), true, errorStream);
+    output(new AttributedString(msg, AttributedStyles.RED), true,
+        getErrorStream());
     return false;
   }
 
@@ -909,7 +977,8 @@ public boolean error(Throwable t) {
   public void debug(String msg) {
     if (getOpts().getVerbose()) {
       output(
-          new AttributedString(msg, AttributedStyles.BLUE), true, errorStream);
+          new AttributedString(msg, AttributedStyles.BLUE), true,
+          getErrorStream());
     }
   }
 
@@ -923,6 +992,18 @@ public void output(AttributedString msg, boolean newline) {
 
   private void output(
       String msg, String ansiMsg, boolean newline, PrintStream out) {
+    if (isRedirected(out)) {
+      if (newline) {
+        out.println(msg);
+      } else {
+        out.print(msg);
+      }
+      return;
+    }
+    if (out != outputStream) {
+      // Keep output in order, if the streams go to the same place
+      outputStream.flush();
+    }
     if (newline) {
       out.println(ansiMsg);
     } else {
@@ -945,7 +1026,7 @@ public void output(String msg, boolean newline, PrintStream out) {
   }
 
   public void output(AttributedString msg, boolean newline, PrintStream out) {
-    if (getOpts().getColor()) {
+    if (getOpts().getColor() && !isRedirected(out)) {
       final String ansiMsg = getTerminal() == null
           ? msg.toAnsi()
           : msg.toAnsi(getTerminal());
@@ -955,6 +1036,14 @@ public void output(AttributedString msg, boolean newline, PrintStream out) {
     }
   }
 
+  /** Returns whether a stream is where the current thread's output is
+   * redirected, and so gets neither styles nor a copy in the record
+   * file. */
+  private boolean isRedirected(PrintStream out) {
+    final Redirect r = redirect.get();
+    return r != null && out == r.out;
+  }
+
   void readonlyStatus(Connection c) throws SQLException {
     debug(loc("readonly-status", c.isReadOnly() + ""));
   }
@@ -1076,11 +1165,12 @@ ResultSet getColumns(String table) throws SQLException {
       return null;
     }
 
-    return getDatabaseConnection().meta.getColumns(
-        getDatabaseConnection().meta.getConnection().getCatalog(),
-        null,
-        table,
-        "%");
+    return setFetchSize(
+        getDatabaseConnection().meta.getColumns(
+            getDatabaseConnection().meta.getConnection().getCatalog(),
+            null,
+            table,
+            "%"));
   }
 
   ResultSet getTables(String schemaTemplate) throws SQLException {
@@ -1088,11 +1178,12 @@ ResultSet getTables(String schemaTemplate) throws SQLException {
       return null;
     }
 
-    return getDatabaseConnection().meta.getTables(
-        getDatabaseConnection().meta.getConnection().getCatalog(),
-        schemaTemplate,
-        "%",
-        new String[] {"TABLE"});
+    return setFetchSize(
+        getDatabaseConnection().meta.getTables(
+            getDatabaseConnection().meta.getConnection().getCatalog(),
+            schemaTemplate,
+            "%",
+            new String[] {"TABLE"}));
   }
 
   /**
@@ -1641,6 +1732,7 @@ public void handleException(Throwable e) {
         error(e.getMessage());
       }
     } else {
+      getOutputStream().flush();
       e.printStackTrace(getErrorStream());
     }
   }
@@ -1744,8 +1836,51 @@ Set<Driver> scanDrivers() {
   ///////////////////////////////////////
 
   int print(ResultSet rs, DispatchCallback callback) throws SQLException {
-    String format = getOpts().getOutputFormat();
-    OutputFormat f = getOutputFormats().get(format);
+    return print(rs, getOpts().getOutputFormat(), callback);
+  }
+
+  /**
+   * Prints a result set to a stream, rather than to the console, for the
+   * {@code !export} command. Output is written without styles, and is not
+   * copied to the record file.
+   *
+   * @param rs Result set
+   * @param format Name of output format
+   * @param out Stream to write to; the caller buffers and closes it
+   * @param callback Callback for command status
+   * @return Number of rows written
+   */
+  int export(ResultSet rs, String format, OutputStream out,
+      DispatchCallback callback) throws SQLException, IOException {
+    final PrintStream exportStream =
+        new PrintStream(out, false, StandardCharsets.UTF_8.name());
+    getOutputStream().flush();
+    final Redirect saved = redirect.get();
+    setRedirect(
+        new Redirect(exportStream, false, getDatabaseConnection(),
+            saved == null ? null : saved.formats));
+    final int count;
+    try {
+      count = print(rs, format, callback);
+    } finally {
+      setRedirect(saved);
+    }
+    // PrintStream does not throw, so the cause of an error is lost
+    if (exportStream.checkError()) {
+      throw new IOException(loc("export-write-failed"));
+    }
+    return count;
+  }
+
+  private int print(ResultSet rs, String format, DispatchCallback callback)
+      throws SQLException {
+    // A worker thread has output formats of its own
+    final Redirect r = redirect.get();
+    final Map<String, OutputFormat> formats =
+        r != null && r.formats != null ? r.formats : null;
+    OutputFormat f = formats != null
+        ? formats.get(format)
+        : getOutputFormats().get(format);
     if ("csv".equals(format)) {
       final SeparatedValuesOutputFormat csvOutput =
           (SeparatedValuesOutputFormat) f;
@@ -1756,21 +1891,35 @@ int print(ResultSet rs, DispatchCallback callback) throws SQLException {
                   != getOpts().getCsvQuoteCharacter())) {
         f = new SeparatedValuesOutputFormat(this,
             getOpts().getCsvDelimiter(), getOpts().getCsvQuoteCharacter());
-        Map<String, OutputFormat> updFormats =
-            new HashMap<>(getOutputFormats());
-        updFormats.put("csv", f);
-        updateOutputFormats(updFormats);
+        if (formats != null) {
+          formats.put("csv", f);
+        } else {
+          Map<String, OutputFormat> updFormats =
+              new HashMap<>(getOutputFormats());
+          updFormats.put("csv", f);
+          updateOutputFormats(updFormats);
+        }
       }
     }
 
+    if (f instanceof ArrowOutputFormat) {
+      // Reads typed values from the result set, rather than strings
+      return ((ArrowOutputFormat) f).print(rs, callback);
+    }
+
     Rows rows;
     if (getOpts().getIncremental()) {
       rows = new IncrementalRows(this, rs, callback);
     } else {
-      rows = new BufferedRows(this, rs);
+      rows = new BufferedRows(this, rs, callback);
     }
 
-    return f.print(rows);
+    try {
+      return f.print(rows);
+    } finally {
+      rows.close();
+      getOutputStream().flush();
+    }
   }
 
   Statement createStatement() throws SQLException {
@@ -1783,34 +1932,148 @@ Statement createStatement() throws SQLException {
     if (rowLimit != 0) {
       stmnt.setMaxRows(rowLimit);
     }
+    setFetchSize(stmnt);
+
+    return stmnt;
+  }
 
+  /**
+   * Takes a prepared statement for some SQL from the statement cache of
+   * the current connection, preparing it if it is not there, and sets its
+   * timeout, row limit and fetch size from the options. Give it back by
+   * calling {@link StatementCache#release}.
+   *
+   * <p>Returns null if statements are not cached (see
+   * {@link SqlLineOpts#getStatementCacheSize() statementCacheSize}), or if
+   * this statement cannot be prepared; then the caller should execute it
+   * with a plain statement.
+   *
+   * @param sql SQL text
+   * @return Prepared statement, or null
+   */
+  PreparedStatement takeCachedStatement(String sql) throws SQLException {
+    final DatabaseConnection connection = getDatabaseConnection();
+    if (getOpts().getStatementCacheSize() <= 0) {
+      connection.statementCache.clear();
+      return null;
+    }
+    if (!StatementCache.isCacheable(sql)) {
+      return null;
+    }
+    final PreparedStatement stmnt;
+    try {
+      stmnt = connection.statementCache.take(connection.connection, sql);
+    } catch (SQLException e) {
+      // Some drivers cannot prepare some statements, such as DDL
+      return null;
+    }
+    try {
+      // The options may have changed since the statement was last used
+      stmnt.setQueryTimeout(Math.max(getOpts().getTimeout(), 0));
+      stmnt.setMaxRows(getOpts().getRowLimit());
+      stmnt.setFetchSize(Math.max(getFetchSize(), 0));
+    } catch (SQLException e) {
+      stmnt.close();
+      throw e;
+    }
     return stmnt;
   }
 
-  void runBatch(List<String> statements) {
+  /**
+   * Sets the fetch size of a statement from the
+   * {@link SqlLineOpts#getFetchSize() fetchSize} property; if it is not set
+   * but {@link SqlLineOpts#getAdaptiveFetchSize() adaptiveFetchSize} is,
+   * uses a small initial fetch size that will grow as rows are read.
+   *
+   * @param stmnt Statement
+   */
+  void setFetchSize(Statement stmnt) throws SQLException {
+    final int fetchSize = getFetchSize();
+    if (fetchSize > 0) {
+      stmnt.setFetchSize(fetchSize);
+    }
+  }
+
+  /**
+   * Sets the fetch size of a result set returned by a
+   * {@link java.sql.DatabaseMetaData} method, which has no statement
+   * of ours. Drivers that do not support it are ignored.
+   *
+   * @param rs Result set
+   * @return The result set
+   */
+  ResultSet setFetchSize(ResultSet rs) {
+    final int fetchSize = getFetchSize();
+    if (rs != null && fetchSize > 0) {
+      try {
+        rs.setFetchSize(fetchSize);
+      } catch (SQLException e) {
+        // ignore; the fetch size is only a hint
+      }
+    }
+    return rs;
+  }
+
+  private int getFetchSize() {
+    final int fetchSize = getOpts().getFetchSize();
+    if (fetchSize <= 0 && getOpts().getAdaptiveFetchSize()) {
+      return FetchSizer.INITIAL_FETCH_SIZE;
+    }
+    return fetchSize;
+  }
+
+  /**
+   * Executes the statements that are waiting in a batch, commits if
+   * {@link SqlLineOpts#getBatchCommit() batchCommit} is set, and prints
+   * the count of each statement, or, if many statements have been
+   * executed, how many.
+   *
+   * @param batch Batch
+   * @throws SQLException if a statement fails; the statements that were
+   *   waiting are discarded
+   */
+  void runBatch(StatementBatch batch) throws SQLException {
+    if (batch.statements.isEmpty()) {
+      return;
+    }
+    int[] counts;
     try (Statement stmnt = createStatement()) {
-      for (String statement : statements) {
+      for (String statement : batch.statements) {
         stmnt.addBatch(statement);
       }
-
-      int[] counts = stmnt.executeBatch();
+      counts = stmnt.executeBatch();
       if (counts == null) {
         counts = new int[0];
       }
+      if (batch.statements.stream().anyMatch(StatementCache::invalidates)) {
+        getDatabaseConnection().statementCache.clear();
+      }
+      final Connection connection = getDatabaseConnection().connection;
+      if (getOpts().getBatchCommit() && !connection.getAutoCommit()) {
+        connection.commit();
+      }
+    } catch (SQLException e) {
+      batch.statements.clear();
+      throw e;
+    }
 
-      output(new AttributedStringBuilder()
-          .append(rpad("COUNT", 8), AttributedStyle.BOLD)
-          .append("STATEMENT", AttributedStyle.BOLD)
-          .toAttributedString());
-
+    if (batch.isReported(batch.statements.size())) {
+      if (batch.executed == 0) {
+        output(new AttributedStringBuilder()
+            .append(rpad("COUNT", 8), AttributedStyle.BOLD)
+            .append("STATEMENT", AttributedStyle.BOLD)
+            .toAttributedString());
+      }
       for (int i = 0; i < counts.length; i++) {
         output(new AttributedStringBuilder()
             .append(rpad(counts[i] + "", 8))
-            .append(statements.get(i))
+            .append(batch.statements.get(i))
             .toAttributedString());
       }
-    } catch (Exception e) {
-      handleException(e);
+      batch.executed(counts);
+    } else {
+      batch.executed(counts);
+      info(loc("batch-progress", batch.executed));
     }
   }
 
@@ -1915,15 +2178,46 @@ void setRecordOutputFile(OutputFile record) {
 
   public void setOutputStream(OutputStream outputStream) {
     try {
-      this.outputStream =
-          new PrintStream(outputStream, true, StandardCharsets.UTF_8.name());
+      this.outputStream = new PrintStream(
+          new OutputChannel(this, outputStream), false,
+          StandardCharsets.UTF_8.name());
     } catch (UnsupportedEncodingException e) {
       handleException(e);
     }
   }
 
   PrintStream getOutputStream() {
-    return outputStream;
+    final Redirect r = redirect.get();
+    return r != null ? r.out : outputStream;
+  }
+
+  /** Returns where the output of the current thread goes, or null if it
+   * goes to the console. */
+  Redirect getRedirect() {
+    return redirect.get();
+  }
+
+  /** Sets where the output of the current thread goes, or, if
+   * {@code redirect} is null, sends it back to the console. */
+  void setRedirect(Redirect redirect) {
+    if (redirect == null) {
+      this.redirect.remove();
+    } else {
+      this.redirect.set(redirect);
+    }
+  }
+
+  /** Creates a set of output formats for a thread other than the main
+   * thread; output formats keep state while they print a result set, so
+   * threads cannot share them. */
+  Map<String, OutputFormat> createOutputFormats() {
+    return new HashMap<>(application.getOutputFormats(this));
+  }
+
+  /** Returns whether SqlLine is reading commands from a user at a
+   * terminal, as opposed to from a script or redirected input. */
+  boolean isInteractive() {
+    return interactive;
   }
 
   public void setErrorStream(OutputStream errorStream) {
@@ -1936,7 +2230,8 @@ public void setErrorStream(OutputStream errorStream) {
   }
 
   PrintStream getErrorStream() {
-    return errorStream;
+    final Redirect r = redirect.get();
+    return r != null && r.errors ? r.out : errorStream;
   }
 
   LineReader getLineReader() {
@@ -1951,11 +2246,11 @@ void setLineReader(LineReader reader) {
     this.lineReader = reader;
   }
 
-  List<String> getBatch() {
+  StatementBatch getBatch() {
     return batch;
   }
 
-  void setBatch(List<String> batch) {
+  void setBatch(StatementBatch batch) {
     this.batch = batch;
   }
 
@@ -2029,6 +2324,35 @@ public enum Status {
     OK, ARGS, OTHER
   }
 
+  /** Where the output of a thread goes, if not to the console, such as the
+   * file written by {@code !export}, or the buffer of a worker running a
+   * command on one of several connections. Output is written without
+   * styles, and is not copied to the record file. */
+  static class Redirect {
+    final PrintStream out;
+    /** Whether error and information messages also go to {@link #out}. */
+    final boolean errors;
+    /** Connection that the thread uses instead of the current connection,
+     * or null. */
+    final DatabaseConnection connection;
+    /** Output formats that the thread uses, or null to use the shared
+     * ones. */
+    final Map<String, OutputFormat> formats;
+
+    Redirect(PrintStream out, boolean errors, DatabaseConnection connection,
+        Map<String, OutputFormat> formats) {
+      this.out = out;
+      this.errors = errors;
+      this.connection = connection;
+      this.formats = formats;
+    }
+
+    /** Returns a redirect like this one, using a different connection. */
+    Redirect withConnection(DatabaseConnection connection) {
+      return new Redirect(out, errors, connection, formats);
+    }
+  }
+
   /** Cache of configuration settings that come from
    * {@link Application}. */
   private class Config {
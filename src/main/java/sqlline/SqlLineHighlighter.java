@@ -12,11 +12,13 @@
 package sqlline;
 
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Deque;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.IntPredicate;
 import java.util.function.Predicate;
 
 import org.jline.reader.LineReader;
@@ -32,12 +34,21 @@
  */
 public class SqlLineHighlighter extends DefaultHighlighter {
   private final SqlLine sqlLine;
+  /** The last plain SQL buffer that was highlighted, or null. The next
+   * plain SQL buffer takes over its bit sets. */
+  private Highlighted previous;
+  /** Bit sets for buffers that are not plain SQL; cleared on each call. */
+  private final BitSet keywords = new BitSet();
+  private final BitSet quotes = new BitSet();
+  private final BitSet identifiers = new BitSet();
+  private final BitSet comments = new BitSet();
+  private final BitSet numbers = new BitSet();
 
   public SqlLineHighlighter(SqlLine sqlLine) {
     this.sqlLine = sqlLine;
   }
 
-  @Override public AttributedString highlight(LineReader reader,
+  @Override public synchronized AttributedString highlight(LineReader reader,
       String buffer) {
     try {
       boolean skipSyntaxHighlighter =
@@ -50,11 +61,6 @@ public SqlLineHighlighter(SqlLine sqlLine) {
       int negativeStart = -1;
       int negativeEnd = -1;
       boolean command = false;
-      final BitSet keywordBitSet = new BitSet(buffer.length());
-      final BitSet quoteBitSet = new BitSet(buffer.length());
-      final BitSet sqlIdentifierQuotesBitSet = new BitSet(buffer.length());
-      final BitSet commentBitSet = new BitSet(buffer.length());
-      final BitSet numberBitSet = new BitSet(buffer.length());
       final String trimmed = buffer.trim();
       final int startingPoint = getStartingPoint(buffer);
       final boolean isCommandPresent =
@@ -64,6 +70,8 @@ public SqlLineHighlighter(SqlLine sqlLine) {
       final boolean isSql = !isComment
           && isSqlQuery(trimmed, isCommandPresent);
       final Deque<String> codeBlocksStarted = new ArrayDeque<>();
+      final HighlightStyle highlightStyle = sqlLine.getHighlightStyle();
+      Highlighted highlighted = null;
 
       if (trimmed.length() > 1 && isCommandPresent) {
         final int end = trimmed.indexOf(' ');
@@ -79,14 +87,41 @@ public SqlLineHighlighter(SqlLine sqlLine) {
           }
         }
       }
-      if (isSql) {
-        handleSqlSyntax(buffer, keywordBitSet, quoteBitSet,
-            sqlIdentifierQuotesBitSet, commentBitSet, numberBitSet,
-            isCommandPresent, codeBlocksStarted);
-      } else if (isCommandPresent) {
-        handleQuotesInCommands(buffer, quoteBitSet, sqlIdentifierQuotesBitSet);
+      final BitSet keywordBitSet;
+      final BitSet quoteBitSet;
+      final BitSet sqlIdentifierQuotesBitSet;
+      final BitSet commentBitSet;
+      final BitSet numberBitSet;
+      if (isSql && !isCommandPresent) {
+        highlighted = new Highlighted(buffer, sqlLine.getDialect(),
+            highlightStyle, previous);
+        lex(highlighted, previous);
+        keywordBitSet = highlighted.keywords;
+        quoteBitSet = highlighted.quotes;
+        sqlIdentifierQuotesBitSet = highlighted.identifiers;
+        commentBitSet = highlighted.comments;
+        numberBitSet = highlighted.numbers;
       } else {
-        handleComments(buffer, commentBitSet, startingPoint, false);
+        keywordBitSet = keywords;
+        quoteBitSet = quotes;
+        sqlIdentifierQuotesBitSet = identifiers;
+        commentBitSet = comments;
+        numberBitSet = numbers;
+        keywordBitSet.clear();
+        quoteBitSet.clear();
+        sqlIdentifierQuotesBitSet.clear();
+        commentBitSet.clear();
+        numberBitSet.clear();
+        if (isSql) {
+          handleSqlSyntax(buffer, keywordBitSet, quoteBitSet,
+              sqlIdentifierQuotesBitSet, commentBitSet, numberBitSet,
+              isCommandPresent, codeBlocksStarted);
+        } else if (isCommandPresent) {
+          handleQuotesInCommands(buffer, quoteBitSet,
+              sqlIdentifierQuotesBitSet);
+        } else {
+          handleComments(buffer, commentBitSet, startingPoint, false);
+        }
       }
 
       final String search = reader.getSearchTerm();
@@ -116,7 +151,6 @@ public SqlLineHighlighter(SqlLine sqlLine) {
         }
       }
 
-      final AttributedStringBuilder sb = new AttributedStringBuilder();
       final int commandStart = command
           ? buffer.indexOf(SqlLine.COMMAND_PREFIX) : -1;
       final int commandEnd = command
@@ -125,84 +159,138 @@ public SqlLineHighlighter(SqlLine sqlLine) {
               : buffer.indexOf(' ', commandStart)
           : -1;
 
-      final HighlightStyle highlightStyle = sqlLine.getHighlightStyle();
-      for (int i = 0; i < buffer.length(); i++) {
-        if (i < startingPoint) {
-          sb.style(highlightStyle.getDefaultStyle());
-        } else {
-          final boolean defaultStyleStart =
-              (i == 0 && commandEnd == -1 && commandStart == -1)
-                  || (i > Math.max(commandEnd, commandStart)
-                      && (i < underlineStart || i > underlineEnd)
-                      && (i < negativeStart || i > negativeEnd));
-          if (isSql) {
-            if (keywordBitSet.get(i)) {
-              sb.style(highlightStyle.getKeywordStyle());
-            } else if (quoteBitSet.get(i)) {
-              sb.style(highlightStyle.getQuotedStyle());
-            } else if (sqlIdentifierQuotesBitSet.get(i)) {
-              sb.style(highlightStyle.getIdentifierStyle());
-            } else if (commentBitSet.get(i)) {
-              sb.style(highlightStyle.getCommentStyle());
-            } else if (numberBitSet.get(i)) {
-              sb.style(highlightStyle.getNumberStyle());
-            } else if (defaultStyleStart) {
-              sb.style(highlightStyle.getDefaultStyle());
-            }
-          } else {
-            if (quoteBitSet.get(i)) {
-              sb.style(highlightStyle.getQuotedStyle());
-            } else if (sqlIdentifierQuotesBitSet.get(i)) {
-              sb.style(highlightStyle.getIdentifierStyle());
-            } else if (commentBitSet.get(i)) {
-              sb.style(highlightStyle.getCommentStyle());
-            } else if (defaultStyleStart) {
-              sb.style(highlightStyle.getDefaultStyle());
-            }
-          }
-        }
-
-        if (i == commandStart && command) {
-          sb.style(highlightStyle.getCommandStyle());
-        }
-        if (i == commandEnd) {
-          sb.style(highlightStyle.getDefaultStyle());
-        }
-        if (i >= underlineStart && i <= underlineEnd) {
-          sb.style(sb.style().underline());
-        }
-        if (i >= negativeStart && i <= negativeEnd) {
-          sb.style(sb.style().inverse());
-        }
-        char c = buffer.charAt(i);
-        if (c == '\t' || c == '\n') {
-          sb.append(c);
-        } else if (c < 32) {
-          sb.style(AttributedStyle::inverseNeg)
-              .append('^')
-              .append((char) (c + '@'))
-              .style(AttributedStyle::inverseNeg);
-        } else {
-          int w = WCWidth.wcwidth(c);
-          if (w > 0) {
-            sb.append(c);
-          }
-        }
-        if (i == underlineEnd) {
-          sb.style(sb.style().underlineOff());
-        }
-        if (i == negativeEnd) {
-          sb.style(sb.style().inverseOff());
-        }
+      final Styler styler = new Styler(highlightStyle, buffer, isSql,
+          command, startingPoint, commandStart, commandEnd, underlineStart,
+          underlineEnd, negativeStart, negativeEnd, keywordBitSet,
+          quoteBitSet, sqlIdentifierQuotesBitSet, commentBitSet,
+          numberBitSet);
+      if (highlighted == null) {
+        final AttributedStringBuilder sb = new AttributedStringBuilder();
+        styler.append(sb, 0, buffer.length());
+        return sb.toAttributedString();
       }
-      return sb.toAttributedString();
+      final AttributedString result = style(highlighted, previous, styler);
+      previous = highlighted;
+      return result;
     } catch (Exception e) {
+      previous = null;
       sqlLine.handleException(e);
       AttributedStringBuilder sb = new AttributedStringBuilder();
       return sb.append(buffer).toAttributedString();
     }
   }
 
+  /**
+   * Lexes plain SQL. Tokens before the first line that changed since the
+   * previous buffer are copied from it, and so are tokens after the last
+   * change, from the first line at which the lexer is in the same state
+   * as it was in the previous buffer.
+   *
+   * <p>The current buffer has taken over the bit sets of the previous
+   * buffer, so tokens before the first changed line stay where they are and
+   * only the rest is cleared. Tokens after the last change are parked
+   * beyond the end of both buffers while the changed lines are lexed, then
+   * moved into place.
+   *
+   * @param current Buffer to lex; its bit sets are filled
+   * @param previous Previous buffer, or null
+   */
+  private void lex(Highlighted current, Highlighted previous) {
+    final String buffer = current.buffer;
+    int from = 0;
+    int park = 0;
+    int suffix = 0;
+    int unchanged = buffer.length();
+    IntPredicate converged = pos -> false;
+    if (previous != null && previous.dialect != current.dialect) {
+      current.clear(0, previous.buffer.length());
+    } else if (previous != null) {
+      final String old = previous.buffer;
+      int prefix = 0;
+      final int length = Math.min(old.length(), buffer.length());
+      while (prefix < length && old.charAt(prefix) == buffer.charAt(prefix)) {
+        prefix++;
+      }
+      while (suffix < length - prefix
+          && old.charAt(old.length() - 1 - suffix)
+              == buffer.charAt(buffer.length() - 1 - suffix)) {
+        suffix++;
+      }
+      from = Math.max(previous.lineStarts.previousSetBit(prefix), 0);
+      park = Math.max(old.length(), buffer.length());
+      unchanged = buffer.length() - suffix;
+      final int oldUnchanged = old.length() - suffix;
+      current.copy(current, oldUnchanged, old.length(), park - oldUnchanged);
+      current.clear(from, park);
+      final BitSet lineStarts = current.lineStarts;
+      final int p = park;
+      final int u = unchanged;
+      converged = pos -> pos >= u && lineStarts.get(pos - u + p);
+    }
+    final int end = handleSqlSyntax(buffer, current.keywords,
+        current.quotes, current.identifiers, current.comments,
+        current.numbers, from, current.lineStarts, converged);
+    if (end < buffer.length()) {
+      current.copy(current, end - unchanged + park, park + suffix,
+          unchanged - park);
+    }
+    current.clear(park, park + suffix);
+    current.lexStart = from;
+    current.lexEnd = end;
+  }
+
+  /**
+   * Styles plain SQL a line at a time. A line whose tokens were copied from
+   * the previous buffer reuses the styled text of that line, unless a
+   * search match or selected region overlaps it.
+   *
+   * @param current Buffer, lexed
+   * @param previous Previous buffer, or null
+   * @param styler Styler for the current buffer
+   * @return Styled buffer
+   */
+  private AttributedString style(Highlighted current, Highlighted previous,
+      Styler styler) {
+    final String buffer = current.buffer;
+    final int[] lines = current.lines;
+    final boolean reuse =
+        previous != null && previous.style == current.style;
+    final int delta =
+        previous == null ? 0 : buffer.length() - previous.buffer.length();
+    final AttributedStringBuilder sb = new AttributedStringBuilder();
+    for (int k = 0; k < lines.length; k++) {
+      final int start = lines[k];
+      final int end = k + 1 < lines.length ? lines[k + 1] : buffer.length();
+      if (!styler.isPlain(start, end)) {
+        // The search match or region continues the style of what
+        // precedes it
+        styler.append(sb, start, end);
+        continue;
+      }
+      int j = -1;
+      if (reuse && end <= current.lexStart) {
+        j = k;
+      } else if (reuse && start >= current.lexEnd) {
+        j = Arrays.binarySearch(previous.lines, start - delta);
+      }
+      if (j >= 0 && j < previous.styled.length && previous.styled[j] != null) {
+        current.styled[k] = previous.styled[j];
+        current.endStyles[k] = previous.endStyles[j];
+      } else {
+        final AttributedStringBuilder line = new AttributedStringBuilder();
+        styler.append(line, start, end);
+        current.styled[k] = line.toAttributedString();
+        current.endStyles[k] = line.style();
+      }
+      // Appended text takes the builder's style where it has none of its
+      // own; make sure it has its own
+      sb.style(AttributedStyle.DEFAULT);
+      sb.append(current.styled[k]);
+      sb.style(current.endStyles[k]);
+    }
+    return sb.toAttributedString();
+  }
+
   /**
    * Returns the index of the first non-whitespace character.
    *
@@ -226,7 +314,6 @@ void handleSqlSyntax(String buffer,
       BitSet numberBitSet,
       boolean isCommandPresent,
       Deque<String> codeBlocksStarted) {
-    int wordStart = -1;
     int start = 0;
     if (isCommandPresent) {
       start = buffer.indexOf(SqlLine.COMMAND_PREFIX)
@@ -236,10 +323,51 @@ void handleSqlSyntax(String buffer,
         start++;
       }
     }
+    handleSqlSyntax(buffer, keywordBitSet, quoteBitSet,
+        sqlIdentifierQuotesBitSet, commentBitSet, numberBitSet, start, null,
+        null);
+  }
 
+  /**
+   * Marks the positions of the tokens of SQL, starting at a given
+   * position.
+   *
+   * @param buffer Buffer
+   * @param keywordBitSet BitSet to use for positions of keywords
+   * @param quoteBitSet BitSet to use for positions of single-quoted strings
+   * @param sqlIdentifierQuotesBitSet BitSet to use for positions of quoted
+   *                                  identifiers
+   * @param commentBitSet BitSet to use for positions of comments
+   * @param numberBitSet BitSet to use for positions of numbers
+   * @param start Position to start at; must not be inside a token
+   * @param lineStarts If not null, the start of each line that is not
+   *                   inside a token is set in it
+   * @param converged If not null, called with the start of each line after
+   *                  {@code start} that is not inside a token; lexing stops
+   *                  if it returns true
+   * @return Position at which lexing stopped, or the length of the buffer
+   */
+  private int handleSqlSyntax(String buffer,
+      BitSet keywordBitSet,
+      BitSet quoteBitSet,
+      BitSet sqlIdentifierQuotesBitSet,
+      BitSet commentBitSet,
+      BitSet numberBitSet,
+      int start,
+      BitSet lineStarts,
+      IntPredicate converged) {
+    int wordStart = -1;
     final Dialect dialect = sqlLine.getDialect();
     for (int pos = start; pos < buffer.length(); pos++) {
       char ch = buffer.charAt(pos);
+      if (wordStart == -1 && (pos == 0 || buffer.charAt(pos - 1) == '\n')) {
+        if (converged != null && pos > start && converged.test(pos)) {
+          return pos;
+        }
+        if (lineStarts != null) {
+          lineStarts.set(pos);
+        }
+      }
       if (wordStart > -1) {
         if (pos == buffer.length() - 1
             || (!Character.isLetterOrDigit(ch) && ch != '_')) {
@@ -299,6 +427,7 @@ void handleSqlSyntax(String buffer,
         continue;
       }
     }
+    return buffer.length();
   }
 
   /**
@@ -587,6 +716,226 @@ int handleSqlSingleQuotes(String line, BitSet quoteBitSet,
     } while (!quotationEnded && end < line.length());
     return startingPoint;
   }
+
+  /** Styles the characters of a buffer from its tokens, the command, the
+   * search match and the selected region. */
+  private static class Styler {
+    private final HighlightStyle highlightStyle;
+    private final String buffer;
+    private final boolean isSql;
+    private final boolean command;
+    private final int startingPoint;
+    private final int commandStart;
+    private final int commandEnd;
+    private final int underlineStart;
+    private final int underlineEnd;
+    private final int negativeStart;
+    private final int negativeEnd;
+    private final BitSet keywordBitSet;
+    private final BitSet quoteBitSet;
+    private final BitSet sqlIdentifierQuotesBitSet;
+    private final BitSet commentBitSet;
+    private final BitSet numberBitSet;
+
+    Styler(HighlightStyle highlightStyle, String buffer, boolean isSql,
+        boolean command, int startingPoint, int commandStart, int commandEnd,
+        int underlineStart, int underlineEnd, int negativeStart,
+        int negativeEnd, BitSet keywordBitSet, BitSet quoteBitSet,
+        BitSet sqlIdentifierQuotesBitSet, BitSet commentBitSet,
+        BitSet numberBitSet) {
+      this.highlightStyle = highlightStyle;
+      this.buffer = buffer;
+      this.isSql = isSql;
+      this.command = command;
+      this.startingPoint = startingPoint;
+      this.commandStart = commandStart;
+      this.commandEnd = commandEnd;
+      this.underlineStart = underlineStart;
+      this.underlineEnd = underlineEnd;
+      this.negativeStart = negativeStart;
+      this.negativeEnd = negativeEnd;
+      this.keywordBitSet = keywordBitSet;
+      this.quoteBitSet = quoteBitSet;
+      this.sqlIdentifierQuotesBitSet = sqlIdentifierQuotesBitSet;
+      this.commentBitSet = commentBitSet;
+      this.numberBitSet = numberBitSet;
+    }
+
+    /** Returns whether the style of each character between two positions
+     * depends only on its tokens; that is, there is no command, search
+     * match or selected region there. */
+    boolean isPlain(int start, int end) {
+      return !command
+          && (end <= underlineStart || start > underlineEnd)
+          && (end <= negativeStart || start > negativeEnd);
+    }
+
+    /** Appends the characters between two positions, styled. */
+    void append(AttributedStringBuilder sb, int start, int end) {
+      for (int i = start; i < end; i++) {
+        if (i < startingPoint) {
+          sb.style(highlightStyle.getDefaultStyle());
+        } else {
+          final boolean defaultStyleStart =
+              (i == 0 && commandEnd == -1 && commandStart == -1)
+                  || (i > Math.max(commandEnd, commandStart)
+                      && (i < underlineStart || i > underlineEnd)
+                      && (i < negativeStart || i > negativeEnd));
+          if (isSql) {
+            if (keywordBitSet.get(i)) {
+              sb.style(highlightStyle.getKeywordStyle());
+            } else if (quoteBitSet.get(i)) {
+              sb.style(highlightStyle.getQuotedStyle());
+            } else if (sqlIdentifierQuotesBitSet.get(i)) {
+              sb.style(highlightStyle.getIdentifierStyle());
+            } else if (commentBitSet.get(i)) {
+              sb.style(highlightStyle.getCommentStyle());
+            } else if (numberBitSet.get(i)) {
+              sb.style(highlightStyle.getNumberStyle());
+            } else if (defaultStyleStart) {
+              sb.style(highlightStyle.getDefaultStyle());
+            }
+          } else {
+            if (quoteBitSet.get(i)) {
+              sb.style(highlightStyle.getQuotedStyle());
+            } else if (sqlIdentifierQuotesBitSet.get(i)) {
+              sb.style(highlightStyle.getIdentifierStyle());
+            } else if (commentBitSet.get(i)) {
+              sb.style(highlightStyle.getCommentStyle());
+            } else if (defaultStyleStart) {
+              sb.style(highlightStyle.getDefaultStyle());
+            }
+          }
+        }
+
+        if (i == commandStart && command) {
+          sb.style(highlightStyle.getCommandStyle());
+        }
+        if (i == commandEnd) {
+          sb.style(highlightStyle.getDefaultStyle());
+        }
+        if (i >= underlineStart && i <= underlineEnd) {
+          sb.style(sb.style().underline());
+        }
+        if (i >= negativeStart && i <= negativeEnd) {
+          sb.style(sb.style().inverse());
+        }
+        char c = buffer.charAt(i);
+        if (c == '\t' || c == '\n') {
+          sb.append(c);
+        } else if (c < 32) {
+          sb.style(AttributedStyle::inverseNeg)
+              .append('^')
+              .append((char) (c + '@'))
+              .style(AttributedStyle::inverseNeg);
+        } else {
+          int w = WCWidth.wcwidth(c);
+          if (w > 0) {
+            sb.append(c);
+          }
+        }
+        if (i == underlineEnd) {
+          sb.style(sb.style().underlineOff());
+        }
+        if (i == negativeEnd) {
+          sb.style(sb.style().inverseOff());
+        }
+      }
+    }
+  }
+
+  /** Tokens and styled lines of a buffer of plain SQL. */
+  private static class Highlighted {
+    final String buffer;
+    final Dialect dialect;
+    final HighlightStyle style;
+    final BitSet keywords;
+    final BitSet quotes;
+    final BitSet identifiers;
+    final BitSet comments;
+    final BitSet numbers;
+    /** Starts of the lines that do not start inside a token; the lexer
+     * can start at any of them. */
+    final BitSet lineStarts;
+    /** Position of the start of each line. */
+    final int[] lines;
+    /** Styled text of each line, or null if the line was not plain. */
+    final AttributedString[] styled;
+    /** Style after each line, or null if the line was not plain. */
+    final AttributedStyle[] endStyles;
+    /** Position at which lexing started; tokens before it were copied. */
+    int lexStart;
+    /** Position at which lexing stopped; tokens after it were copied. */
+    int lexEnd;
+
+    /** Creates a buffer that takes over the bit sets of the previous
+     * buffer, if there is one. */
+    Highlighted(String buffer, Dialect dialect, HighlightStyle style,
+        Highlighted previous) {
+      this.buffer = buffer;
+      this.dialect = dialect;
+      this.style = style;
+      if (previous == null) {
+        this.keywords = new BitSet(buffer.length());
+        this.quotes = new BitSet(buffer.length());
+        this.identifiers = new BitSet(buffer.length());
+        this.comments = new BitSet(buffer.length());
+        this.numbers = new BitSet(buffer.length());
+        this.lineStarts = new BitSet(buffer.length());
+      } else {
+        this.keywords = previous.keywords;
+        this.quotes = previous.quotes;
+        this.identifiers = previous.identifiers;
+        this.comments = previous.comments;
+        this.numbers = previous.numbers;
+        this.lineStarts = previous.lineStarts;
+      }
+      int count = 1;
+      for (int i = buffer.indexOf('\n'); i >= 0;
+          i = buffer.indexOf('\n', i + 1)) {
+        count++;
+      }
+      this.lines = new int[count];
+      for (int i = buffer.indexOf('\n'), k = 1; i >= 0;
+          i = buffer.indexOf('\n', i + 1)) {
+        lines[k++] = i + 1;
+      }
+      this.styled = new AttributedString[count];
+      this.endStyles = new AttributedStyle[count];
+    }
+
+    /** Copies the tokens and line starts of a buffer between two of its
+     * positions, moving them by {@code offset}; the ranges must not
+     * overlap. */
+    void copy(Highlighted from, int start, int end, int offset) {
+      copy(from.keywords, keywords, start, end, offset);
+      copy(from.quotes, quotes, start, end, offset);
+      copy(from.identifiers, identifiers, start, end, offset);
+      copy(from.comments, comments, start, end, offset);
+      copy(from.numbers, numbers, start, end, offset);
+      copy(from.lineStarts, lineStarts, start, end, offset);
+    }
+
+    /** Clears the tokens and line starts between two positions. */
+    void clear(int start, int end) {
+      keywords.clear(start, end);
+      quotes.clear(start, end);
+      identifiers.clear(start, end);
+      comments.clear(start, end);
+      numbers.clear(start, end);
+      lineStarts.clear(start, end);
+    }
+
+    private static void copy(BitSet from, BitSet to, int start, int end,
+        int offset) {
+      for (int i = from.nextSetBit(start); i >= 0 && i < end;
+          i = from.nextSetBit(i)) {
+        final int j = Math.min(from.nextClearBit(i), end);
+        to.set(i + offset, j + offset);
+        i = j;
+      }
+    }
+  }
 }
 
 // End SqlLineHighlighter.java
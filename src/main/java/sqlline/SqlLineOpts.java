@@ -18,8 +18,9 @@
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
@@ -39,23 +40,33 @@
 
 import sqlline.SqlLineProperty.Type;
 
+import static sqlline.BuiltInProperty.ADAPTIVE_FETCH_SIZE;
 import static sqlline.BuiltInProperty.AUTO_COMMIT;
 import static sqlline.BuiltInProperty.AUTO_PAIRING;
 import static sqlline.BuiltInProperty.AUTO_RESIZE;
 import static sqlline.BuiltInProperty.HISTORY_FLAGS;
 import static sqlline.BuiltInProperty.READ_ONLY;
 import static sqlline.BuiltInProperty.AUTO_SAVE;
+import static sqlline.BuiltInProperty.BACKGROUND_METADATA;
+import static sqlline.BuiltInProperty.BATCH_COMMIT;
+import static sqlline.BuiltInProperty.BATCH_SIZE;
 import static sqlline.BuiltInProperty.COLOR;
 import static sqlline.BuiltInProperty.COLOR_SCHEME;
+import static sqlline.BuiltInProperty.COLUMNAR_BUFFER;
+import static sqlline.BuiltInProperty.COLUMN_CACHE_SIZE;
 import static sqlline.BuiltInProperty.CONFIRM;
 import static sqlline.BuiltInProperty.CONFIRM_PATTERN;
 import static sqlline.BuiltInProperty.CONNECTION_CONFIG;
+import static sqlline.BuiltInProperty.CONNECTION_POOL_MAX_LIFETIME;
+import static sqlline.BuiltInProperty.CONNECTION_POOL_MIN_IDLE;
 import static sqlline.BuiltInProperty.CSV_DELIMITER;
+import static sqlline.BuiltInProperty.CSV_QUOTE_ALL;
 import static sqlline.BuiltInProperty.CSV_QUOTE_CHARACTER;
 import static sqlline.BuiltInProperty.DATE_FORMAT;
 import static sqlline.BuiltInProperty.DEFAULT;
 import static sqlline.BuiltInProperty.ESCAPE_OUTPUT;
 import static sqlline.BuiltInProperty.FAST_CONNECT;
+import static sqlline.BuiltInProperty.FETCH_SIZE;
 import static sqlline.BuiltInProperty.FORCE;
 import static sqlline.BuiltInProperty.HEADER_INTERVAL;
 import static sqlline.BuiltInProperty.HISTORY_FILE;
@@ -68,13 +79,19 @@
 import static sqlline.BuiltInProperty.MAX_HEIGHT;
 import static sqlline.BuiltInProperty.MAX_HISTORY_FILE_ROWS;
 import static sqlline.BuiltInProperty.MAX_HISTORY_ROWS;
+import static sqlline.BuiltInProperty.MAX_OUTPUT_FILE_SIZE;
 import static sqlline.BuiltInProperty.MAX_WIDTH;
+import static sqlline.BuiltInProperty.METADATA_CACHE_TTL;
 import static sqlline.BuiltInProperty.MODE;
 import static sqlline.BuiltInProperty.NULL_VALUE;
 import static sqlline.BuiltInProperty.NUMBER_FORMAT;
+import static sqlline.BuiltInProperty.ON_DEMAND_METADATA;
+import static sqlline.BuiltInProperty.OUTPUT_BUFFER_SIZE;
 import static sqlline.BuiltInProperty.OUTPUT_FORMAT;
+import static sqlline.BuiltInProperty.PIPELINED_FETCH;
 import static sqlline.BuiltInProperty.PROMPT;
 import static sqlline.BuiltInProperty.PROPERTIES_FILE;
+import static sqlline.BuiltInProperty.RESULT_BUFFER_MEMORY;
 import static sqlline.BuiltInProperty.RIGHT_PROMPT;
 import static sqlline.BuiltInProperty.ROW_LIMIT;
 import static sqlline.BuiltInProperty.SCRIPT_ENGINE;
@@ -86,6 +103,7 @@
 import static sqlline.BuiltInProperty.SHOW_TYPES;
 import static sqlline.BuiltInProperty.SHOW_WARNINGS;
 import static sqlline.BuiltInProperty.SILENT;
+import static sqlline.BuiltInProperty.STATEMENT_CACHE_SIZE;
 import static sqlline.BuiltInProperty.STRICT_JDBC;
 import static sqlline.BuiltInProperty.TABLE_STYLE;
 import static sqlline.BuiltInProperty.TIMEOUT;
@@ -104,12 +122,17 @@ public class SqlLineOpts implements Completer {
       PROPERTY_PREFIX + "system.exit";
   private static final Date TEST_DATE = new Date();
   private static final String DEV_NULL = "/dev/null";
+  private static final Pattern MEMORY_SIZE_PATTERN =
+      Pattern.compile("([0-9]+)\\s*([kKmMgG]?)[bB]?");
   private final SqlLine sqlLine;
   private String runFile;
   private Pattern compiledConfirmPattern = null;
   private Set<String> propertyNames;
 
   private final Map<SqlLineProperty, Object> propertiesMap = new HashMap<>();
+  /** Compiled formats of date-time properties, by property. */
+  private final Map<SqlLineProperty, TemporalFormat> temporalFormats =
+      new ConcurrentHashMap<>();
   /** Map to setters that are aware of how to set specific properties
    * if a default way
    * {@code sqlline.SqlLineOpts.set(sqlline.SqlLineProperty, java.lang.Object)}
@@ -129,10 +152,14 @@ public class SqlLineOpts implements Completer {
               put(MAX_HISTORY_FILE_ROWS,
                   SqlLineOpts.this::setMaxHistoryFileRows);
               put(MAX_HISTORY_ROWS, SqlLineOpts.this::setMaxHistoryRows);
+              put(MAX_OUTPUT_FILE_SIZE,
+                  SqlLineOpts.this::setMaxOutputFileSize);
               put(MODE, SqlLineOpts.this::setMode);
               put(NUMBER_FORMAT, SqlLineOpts.this::setNumberFormat);
               put(OUTPUT_FORMAT, SqlLineOpts.this::setOutputFormat);
               put(PROPERTIES_FILE, SqlLineOpts.this::setPropertiesFile);
+              put(RESULT_BUFFER_MEMORY,
+                  SqlLineOpts.this::setResultBufferMemory);
               put(SCRIPT_ENGINE, SqlLineOpts.this::setScriptEngine);
               put(SHOW_COMPLETION_DESCR,
                   SqlLineOpts.this::setShowCompletionDesc);
@@ -654,6 +681,31 @@ public void setTimestampFormat(String timestampFormat) {
         getValidDateTimePatternOrThrow(timestampFormat));
   }
 
+  /**
+   * Returns the compiled format of a date-time property
+   * ({@code dateFormat}, {@code timeFormat} or {@code timestampFormat}),
+   * or null if the property has its default value.
+   *
+   * <p>Formats are cached, and are safe to share between result sets and
+   * threads.
+   *
+   * @param property Date-time property
+   * @return Compiled format, or null
+   */
+  public TemporalFormat getTemporalFormat(SqlLineProperty property) {
+    if (isDefault(property)) {
+      return null;
+    }
+    final String pattern = get(property);
+    final TemporalFormat format = temporalFormats.get(property);
+    if (format != null && format.getPattern().equals(pattern)) {
+      return format;
+    }
+    final TemporalFormat newFormat = TemporalFormat.of(pattern);
+    temporalFormats.put(property, newFormat);
+    return newFormat;
+  }
+
   public void setShowCompletionDesc(String setShowCompletionDesc) {
     set(SHOW_COMPLETION_DESCR, setShowCompletionDesc);
   }
@@ -662,10 +714,28 @@ public String getNullValue() {
     return get(NULL_VALUE);
   }
 
+  /** Returns whether completion looks up schemas, tables and columns in
+   * the database as they are typed, rather than reading them all first. */
+  public boolean getOnDemandMetadata() {
+    return getBoolean(ON_DEMAND_METADATA);
+  }
+
+  public int getFetchSize() {
+    return getInt(FETCH_SIZE);
+  }
+
+  public boolean getAdaptiveFetchSize() {
+    return getBoolean(ADAPTIVE_FETCH_SIZE);
+  }
+
   public int getRowLimit() {
     return getInt(ROW_LIMIT);
   }
 
+  public int getStatementCacheSize() {
+    return getInt(STATEMENT_CACHE_SIZE);
+  }
+
   public int getTimeout() {
     return getInt(TIMEOUT);
   }
@@ -729,10 +799,105 @@ public boolean getColor() {
     return getBoolean(COLOR);
   }
 
+  public boolean getColumnarBuffer() {
+    return getBoolean(COLUMNAR_BUFFER);
+  }
+
+  /** Returns the maximum number of tables whose columns are kept for
+   * completion, or 0 if there is no limit. */
+  public int getColumnCacheSize() {
+    return getInt(COLUMN_CACHE_SIZE);
+  }
+
+  public void setResultBufferMemory(String resultBufferMemory) {
+    setMemorySize(RESULT_BUFFER_MEMORY, resultBufferMemory);
+  }
+
+  public void setMaxOutputFileSize(String maxOutputFileSize) {
+    setMemorySize(MAX_OUTPUT_FILE_SIZE, maxOutputFileSize);
+  }
+
+  private void setMemorySize(BuiltInProperty property, String value) {
+    if (DEFAULT.equalsIgnoreCase(value)) {
+      propertiesMap.put(property, property.defaultValue());
+      return;
+    }
+    if (parseMemorySize(value) < 0) {
+      sqlLine.error(
+          sqlLine.loc("not-a-memory-size", property.propertyName(), value));
+      return;
+    }
+    propertiesMap.put(property, value.trim());
+  }
+
+  /** Returns the number of bytes at which record and script files are
+   * rotated, or 0 if they are never rotated. */
+  public long getMaxOutputFileSize() {
+    return Math.max(0, parseMemorySize(get(MAX_OUTPUT_FILE_SIZE)));
+  }
+
+  /** Returns the number of seconds for which metadata cached on disk is
+   * used without being reloaded, or 0 if metadata is not cached. */
+  public int getMetadataCacheTtl() {
+    return getInt(METADATA_CACHE_TTL);
+  }
+
+  /** Returns the number of bytes of direct memory to use to buffer result
+   * rows, or 0 to buffer them on the heap. */
+  public long getResultBufferMemory() {
+    return Math.max(0, parseMemorySize(get(RESULT_BUFFER_MEMORY)));
+  }
+
+  /**
+   * Parses a number of bytes, optionally followed by a {@code k}, {@code m}
+   * or {@code g} suffix, such as "64m".
+   *
+   * @param value Memory size
+   * @return Number of bytes, or -1 if the value is not valid
+   */
+  static long parseMemorySize(String value) {
+    if (value == null) {
+      return -1;
+    }
+    final Matcher matcher = MEMORY_SIZE_PATTERN.matcher(value.trim());
+    if (!matcher.matches()) {
+      return -1;
+    }
+    final long number;
+    try {
+      number = Long.parseLong(matcher.group(1));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+    final int shift;
+    switch (matcher.group(2).toLowerCase(Locale.ROOT)) {
+    case "k":
+      shift = 10;
+      break;
+    case "m":
+      shift = 20;
+      break;
+    case "g":
+      shift = 30;
+      break;
+    default:
+      shift = 0;
+    }
+    return number > Long.MAX_VALUE >> shift ? -1 : number << shift;
+  }
+
   public String getConnectionConfig() {
     return get(CONNECTION_CONFIG);
   }
 
+  public int getConnectionPoolMaxLifetime() {
+    return getInt(CONNECTION_POOL_MAX_LIFETIME);
+  }
+
+  public int getConnectionPoolMinIdle() {
+    return getInt(CONNECTION_POOL_MIN_IDLE);
+  }
+
   public void setConnectionConfig(String filename) {
     if (filename == null || filename.isEmpty()) {
       return;
@@ -754,6 +919,10 @@ public String getCsvDelimiter() {
     return get(CSV_DELIMITER);
   }
 
+  public boolean getCsvQuoteAll() {
+    return getBoolean(CSV_QUOTE_ALL);
+  }
+
   public char getCsvQuoteCharacter() {
     return getChar(CSV_QUOTE_CHARACTER);
   }
@@ -861,6 +1030,20 @@ public boolean getAutoSave() {
     return getBoolean(AUTO_SAVE);
   }
 
+  /** Returns whether to load metadata for completion in the background,
+   * on a pooled connection. */
+  public boolean getBackgroundMetadata() {
+    return getBoolean(BACKGROUND_METADATA);
+  }
+
+  public boolean getBatchCommit() {
+    return getBoolean(BATCH_COMMIT);
+  }
+
+  public int getBatchSize() {
+    return getInt(BATCH_SIZE);
+  }
+
   public boolean getAutoPairing() {
     return getBoolean(AUTO_PAIRING);
   }
@@ -882,6 +1065,14 @@ public String getOutputFormat() {
     return get(OUTPUT_FORMAT);
   }
 
+  public int getOutputBufferSize() {
+    return getInt(OUTPUT_BUFFER_SIZE);
+  }
+
+  public boolean getPipelinedFetch() {
+    return getBoolean(PIPELINED_FETCH);
+  }
+
   public String getPrompt() {
     return get(PROMPT);
   }
@@ -1053,8 +1244,7 @@ private String getValidDateTimePatternOrThrow(String dateTimePattern) {
       return dateTimePattern;
     }
     try {
-      SimpleDateFormat sdf = new SimpleDateFormat(dateTimePattern, Locale.ROOT);
-      sdf.format(TEST_DATE);
+      TemporalFormat.of(dateTimePattern).format(TEST_DATE);
     } catch (Exception e) {
       throw new IllegalArgumentException(e.getMessage());
     }
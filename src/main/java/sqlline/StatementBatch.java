@@ -0,0 +1,71 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Statements collected by the {@code !batch} command, and the progress of
+ * executing them.
+ *
+ * <p>If {@link SqlLineOpts#getBatchSize() batchSize} is positive, the
+ * statements are executed every that many statements, as they are added,
+ * so that only that many are held at a time; otherwise they are executed
+ * when the batch ends.
+ *
+ * <p>The count of each statement is printed until
+ * {@link #MAX_REPORTED_STATEMENTS} have been executed; after that, only the
+ * number of statements executed so far, and a summary at the end.
+ */
+class StatementBatch {
+  /** Number of statements after which statement counts are no longer
+   * printed one per line. */
+  static final int MAX_REPORTED_STATEMENTS = 100;
+
+  /** Statements waiting to be executed. */
+  final List<String> statements = new ArrayList<>();
+  /** Number of statements executed so far. */
+  int executed;
+  /** Number of rows affected by the statements executed so far, where the
+   * driver reports it. */
+  long rowsAffected;
+
+  void add(String sql) {
+    statements.add(sql);
+  }
+
+  /** Returns whether enough statements are waiting that they should be
+   * executed now. */
+  boolean isFull(int batchSize) {
+    return batchSize > 0 && statements.size() >= batchSize;
+  }
+
+  /** Returns whether counts should be printed one per line, if
+   * {@code n} more statements are executed. */
+  boolean isReported(int n) {
+    return executed + n <= MAX_REPORTED_STATEMENTS;
+  }
+
+  /** Records that the waiting statements have been executed. */
+  void executed(int[] counts) {
+    for (int count : counts) {
+      if (count > 0) {
+        rowsAffected += count;
+      }
+    }
+    executed += statements.size();
+    statements.clear();
+  }
+}
+
+// End StatementBatch.java
@@ -0,0 +1,143 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Least-recently-used cache of the prepared statements of a connection,
+ * keyed by SQL text, so that a statement that is executed many times (say
+ * by a script, or by {@code !rerun}) is parsed by the database only once.
+ *
+ * <p>A statement is taken out of the cache while it is executing, by
+ * {@link #take(Connection, String)}, and put back by
+ * {@link #release(String, PreparedStatement)}; so a statement is never
+ * used by two callers at once, and is never closed while it is in use.
+ * Statements that do not fit are closed.
+ */
+class StatementCache {
+  private static final Pattern CACHEABLE =
+      Pattern.compile("\\s*(SELECT|INSERT|UPDATE|DELETE|MERGE|UPSERT|WITH"
+          + "|VALUES)\\b", Pattern.CASE_INSENSITIVE);
+
+  private final SqlLine sqlLine;
+  private final Map<String, PreparedStatement> map =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  StatementCache(SqlLine sqlLine) {
+    this.sqlLine = sqlLine;
+  }
+
+  /** Returns the key of a statement; the SQL text with leading and trailing
+   * white space removed. */
+  static String key(String sql) {
+    return sql.trim();
+  }
+
+  /** Returns whether a statement can be cached. Only queries and DML are;
+   * DDL is seldom repeated, and some drivers fail if a prepared DDL
+   * statement is kept open after it has executed. Statements that contain
+   * '?' are not, because preparing would make it a parameter marker (it is
+   * an operator in PostgreSQL, for instance). */
+  static boolean isCacheable(String sql) {
+    return sql.indexOf('?') < 0
+        && CACHEABLE.matcher(sql).lookingAt();
+  }
+
+  /** Returns whether a statement may make the statements in the cache
+   * stale. Any statement other than a query or DML may be DDL, which can
+   * change the columns that a cached query returns; some drivers then
+   * return the old columns, and others fail. */
+  static boolean invalidates(String sql) {
+    return !CACHEABLE.matcher(sql).lookingAt();
+  }
+
+  /**
+   * Takes the statement for some SQL from the cache, or prepares one if
+   * there is none.
+   *
+   * @param connection Connection to prepare the statement on
+   * @param sql SQL text
+   * @return Prepared statement; give it back by calling {@link #release}
+   * @throws SQLException if the statement cannot be prepared
+   */
+  PreparedStatement take(Connection connection, String sql)
+      throws SQLException {
+    final PreparedStatement statement;
+    synchronized (this) {
+      statement = map.remove(key(sql));
+    }
+    if (statement != null && !statement.isClosed()) {
+      return statement;
+    }
+    return connection.prepareStatement(sql);
+  }
+
+  /**
+   * Gives back a statement returned by {@link #take}. If the cache is full,
+   * the least recently used statement is closed.
+   *
+   * @param sql SQL text
+   * @param statement Statement
+   */
+  void release(String sql, PreparedStatement statement) {
+    final List<PreparedStatement> evicted = new ArrayList<>();
+    synchronized (this) {
+      final PreparedStatement previous = map.put(key(sql), statement);
+      if (previous != null && previous != statement) {
+        evicted.add(previous);
+      }
+      final int size = sqlLine.getOpts().getStatementCacheSize();
+      for (Iterator<PreparedStatement> i = map.values().iterator();
+          map.size() > Math.max(size, 0) && i.hasNext();) {
+        evicted.add(i.next());
+        i.remove();
+      }
+    }
+    close(evicted);
+  }
+
+  /** Closes every statement in the cache. */
+  void clear() {
+    final List<PreparedStatement> statements;
+    synchronized (this) {
+      statements = new ArrayList<>(map.values());
+      map.clear();
+    }
+    close(statements);
+  }
+
+  /** Returns the number of statements in the cache. */
+  synchronized int size() {
+    return map.size();
+  }
+
+  private void close(List<PreparedStatement> statements) {
+    for (PreparedStatement statement : statements) {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        sqlLine.handleException(e);
+      }
+    }
+  }
+}
+
+// End StatementCache.java
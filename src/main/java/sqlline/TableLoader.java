@@ -0,0 +1,328 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Inserts rows of string values into a table, in batches, for the
+ * {@code !import} command.
+ *
+ * <p>The loader switches off auto-commit while it works, commits every
+ * {@code commitInterval} rows (at the end of a batch) and when it is
+ * flushed, and restores auto-commit when it is closed. If it is closed
+ * without being flushed, rows that it has not committed are rolled back.
+ */
+class TableLoader implements AutoCloseable {
+  private final Connection connection;
+  private final PreparedStatement statement;
+  private final Target target;
+  private final int batchSize;
+  private final int commitInterval;
+  private final boolean autoCommit;
+  /** Number of rows in the current batch. */
+  private int batched;
+  /** Number of rows inserted but not committed. */
+  private int uncommitted;
+
+  /**
+   * Creates a loader.
+   *
+   * @param connection Connection
+   * @param target Table and columns
+   * @param batchSize Number of rows to insert in each batch
+   * @param commitInterval Number of rows after which to commit, or 0 to
+   *                       commit only when flushed
+   */
+  TableLoader(Connection connection, Target target, int batchSize,
+      int commitInterval) throws SQLException {
+    this.connection = connection;
+    this.target = target;
+    this.batchSize = Math.max(batchSize, 1);
+    this.commitInterval = commitInterval;
+    this.autoCommit = connection.getAutoCommit();
+    this.statement = connection.prepareStatement(target.sql);
+    try {
+      connection.setAutoCommit(false);
+    } catch (SQLException e) {
+      statement.close();
+      throw e;
+    }
+  }
+
+  /** Returns the statement, so that it can be canceled. */
+  PreparedStatement getStatement() {
+    return statement;
+  }
+
+  /**
+   * Adds a row to the current batch, and inserts the batch if it is full.
+   *
+   * @param values Values, one for each column of the target
+   */
+  void add(List<String> values) throws SQLException {
+    for (int i = 0; i < target.types.length; i++) {
+      setValue(i + 1, target.types[i], values.get(i));
+    }
+    statement.addBatch();
+    if (++batched >= batchSize) {
+      executeBatch();
+      if (commitInterval > 0 && uncommitted >= commitInterval) {
+        commit();
+      }
+    }
+  }
+
+  /** Inserts the current batch and commits. */
+  void flush() throws SQLException {
+    executeBatch();
+    commit();
+  }
+
+  @Override public void close() throws SQLException {
+    try {
+      if (uncommitted > 0 || batched > 0) {
+        connection.rollback();
+      }
+    } finally {
+      try {
+        statement.close();
+      } finally {
+        connection.setAutoCommit(autoCommit);
+      }
+    }
+  }
+
+  private void executeBatch() throws SQLException {
+    if (batched > 0) {
+      statement.executeBatch();
+      uncommitted += batched;
+      batched = 0;
+    }
+  }
+
+  private void commit() throws SQLException {
+    connection.commit();
+    uncommitted = 0;
+  }
+
+  /** Sets a parameter from a string, converted to the type of its column
+   * if possible. An empty string is null, unless the column is a string. */
+  private void setValue(int i, int type, String value) throws SQLException {
+    if (value == null) {
+      statement.setNull(i, type);
+      return;
+    }
+    if (value.isEmpty() && !isString(type)) {
+      statement.setNull(i, type);
+      return;
+    }
+    final Object o;
+    try {
+      o = convert(type, value.trim());
+    } catch (IllegalArgumentException e) {
+      // Not in the format we expect; let the driver try
+      statement.setString(i, value);
+      return;
+    }
+    if (o == null) {
+      statement.setString(i, value);
+    } else {
+      statement.setObject(i, o, type);
+    }
+  }
+
+  private static boolean isString(int type) {
+    switch (type) {
+    case Types.CHAR:
+    case Types.VARCHAR:
+    case Types.LONGVARCHAR:
+    case Types.NCHAR:
+    case Types.NVARCHAR:
+    case Types.LONGNVARCHAR:
+    case Types.CLOB:
+    case Types.NCLOB:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /** Converts a string to a value of a given SQL type, or returns null if
+   * the string should be given to the driver as it is. */
+  private static Object convert(int type, String value) {
+    switch (type) {
+    case Types.BIT:
+    case Types.BOOLEAN:
+      if (value.equalsIgnoreCase("true") || value.equals("1")) {
+        return Boolean.TRUE;
+      }
+      if (value.equalsIgnoreCase("false") || value.equals("0")) {
+        return Boolean.FALSE;
+      }
+      throw new IllegalArgumentException(value);
+    case Types.TINYINT:
+    case Types.SMALLINT:
+    case Types.INTEGER:
+      return Integer.valueOf(value);
+    case Types.BIGINT:
+      return Long.valueOf(value);
+    case Types.REAL:
+    case Types.FLOAT:
+    case Types.DOUBLE:
+      return Double.valueOf(value);
+    case Types.DECIMAL:
+    case Types.NUMERIC:
+      return new BigDecimal(value);
+    case Types.DATE:
+      return Date.valueOf(value);
+    case Types.TIME:
+      return Time.valueOf(value);
+    case Types.TIMESTAMP:
+      return Timestamp.valueOf(value);
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Reads the columns of a table from the database metadata, and returns
+   * the INSERT statement that loads them.
+   *
+   * @param sqlLine SqlLine
+   * @param meta Database metadata
+   * @param names Name of the table, and of its schema and catalog if
+   *              given; for example {"SCOTT", "EMP"}
+   * @param columns Names of the columns in the order of the values of each
+   *                row, or null for all columns of the table in order
+   * @return Target
+   * @throws IllegalArgumentException if the table or a column is not found
+   */
+  static Target target(SqlLine sqlLine, DatabaseMetaData meta,
+      String[] names, List<String> columns) throws SQLException {
+    final String table = names[names.length - 1];
+    final String schema = names.length > 1 ? names[names.length - 2] : null;
+    final String catalog = names.length > 2
+        ? names[names.length - 3]
+        : meta.getConnection().getCatalog();
+    final List<String> tableColumns = new ArrayList<>();
+    final List<Integer> tableTypes = new ArrayList<>();
+    String[] qualifiedName = null;
+    try (ResultSet rs = meta.getColumns(catalog, schema, table, "%")) {
+      while (rs.next()) {
+        final String[] name = {
+            rs.getString("TABLE_CAT"), rs.getString("TABLE_SCHEM"),
+            rs.getString("TABLE_NAME")};
+        if (!name[2].equals(table)) {
+          // Matched a pattern character such as '_'
+          continue;
+        }
+        if (qualifiedName == null) {
+          qualifiedName = name;
+        } else if (!Objects.equals(qualifiedName[0], name[0])
+            || !Objects.equals(qualifiedName[1], name[1])) {
+          // A table of the same name in another schema
+          continue;
+        }
+        tableColumns.add(rs.getString("COLUMN_NAME"));
+        tableTypes.add(rs.getInt("DATA_TYPE"));
+      }
+    }
+    if (qualifiedName == null) {
+      throw new IllegalArgumentException(
+          sqlLine.loc("no-such-table", String.join(".", names)));
+    }
+
+    final List<String> targetColumns = new ArrayList<>();
+    final int[] types;
+    if (columns == null) {
+      targetColumns.addAll(tableColumns);
+      types = tableTypes.stream().mapToInt(Integer::intValue).toArray();
+    } else {
+      types = new int[columns.size()];
+      for (int i = 0; i < columns.size(); i++) {
+        final int j = indexOf(tableColumns, columns.get(i));
+        if (j < 0) {
+          throw new IllegalArgumentException(
+              sqlLine.loc("no-such-column", columns.get(i), table));
+        }
+        targetColumns.add(tableColumns.get(j));
+        types[i] = tableTypes.get(j);
+      }
+    }
+
+    String quote = meta.getIdentifierQuoteString();
+    if (quote == null || quote.trim().isEmpty()) {
+      quote = "";
+    }
+    final StringBuilder sql = new StringBuilder("INSERT INTO ");
+    for (String name : qualifiedName) {
+      if (name != null && !name.isEmpty()) {
+        sql.append(quote).append(name).append(quote).append('.');
+      }
+    }
+    sql.setLength(sql.length() - 1);
+    sql.append(" (");
+    for (int i = 0; i < targetColumns.size(); i++) {
+      sql.append(i > 0 ? ", " : "")
+          .append(quote).append(targetColumns.get(i)).append(quote);
+    }
+    sql.append(") VALUES (");
+    for (int i = 0; i < targetColumns.size(); i++) {
+      sql.append(i > 0 ? ", ?" : "?");
+    }
+    sql.append(")");
+    return new Target(sql.toString(), types);
+  }
+
+  /** Returns the index of a column, matching exactly if possible,
+   * otherwise ignoring case; or -1 if not found. */
+  private static int indexOf(List<String> columns, String column) {
+    final int i = columns.indexOf(column);
+    if (i >= 0) {
+      return i;
+    }
+    for (int j = 0; j < columns.size(); j++) {
+      if (columns.get(j).toUpperCase(Locale.ROOT)
+          .equals(column.toUpperCase(Locale.ROOT))) {
+        return j;
+      }
+    }
+    return -1;
+  }
+
+  /** INSERT statement into a table, and the types of its parameters. */
+  static class Target {
+    final String sql;
+    final int[] types;
+
+    Target(String sql, int[] types) {
+      this.sql = sql;
+      this.types = types;
+    }
+  }
+}
+
+// End TableLoader.java
@@ -11,16 +11,24 @@
 */
 package sqlline;
 
+import java.util.Arrays;
+
 import org.jline.utils.AttributedString;
 import org.jline.utils.AttributedStringBuilder;
 import org.jline.utils.AttributedStyle;
 
-import static sqlline.SqlLine.rpad;
-
 /**
  * OutputFormat for a pretty, table-like format.
+ *
+ * <p>Border lines are computed once per result set from the normalized
+ * column sizes, and recomputed only if the sizes change. Each row is
+ * written into a {@link Line} that is reused from one row to the next;
+ * styles are only recorded if {@link SqlLineOpts#getColor() color} is on.
  */
 class TableOutputFormat implements OutputFormat {
+  /** Spaces from which cells are padded. */
+  private static final String SPACES = String.format("%80s", "");
+
   private final SqlLine sqlLine;
 
   TableOutputFormat(SqlLine sqlLine) {
@@ -33,36 +41,46 @@ public int print(Rows rows) {
     AttributedString bottomHeader = null;
     AttributedString headerCols = null;
     final int width = getCalculatedWidth();
-    final boolean showTypes = sqlLine.getOpts().getShowTypes();
+    final SqlLineOpts opts = sqlLine.getOpts();
+    final boolean showTypes = opts.getShowTypes();
+    final boolean showHeader = opts.getShowHeader();
+    final int headerInterval = opts.getHeaderInterval();
     final TableOutputFormatStyle style =
-        BuiltInTableOutputFormatStyles.BY_NAME.get(
-            sqlLine.getOpts().getTableStyle());
+        BuiltInTableOutputFormatStyles.BY_NAME.get(opts.getTableStyle());
     final String bLine = style.getBodyLine() + "";
     final String hLine = style.getHeaderLine() + "";
+    final String headerDelim = " " + style.getHeaderSeparator() + " ";
+    final String bodyDelim = " " + style.getBodySeparator() + " ";
+    final String bodyLeft = style.getBodySeparator() + " ";
+    final String bodyRight = " " + style.getBodySeparator();
+    final Line line = new Line(opts.getColor());
+    Borders borders = null;
 
     // normalize the columns sizes
-    rows.normalizeWidths(sqlLine.getOpts().getMaxColumnWidth());
+    rows.normalizeWidths(opts.getMaxColumnWidth());
 
     while (rows.hasNext()) {
       final boolean isHeader = index == 0 || index == 1 && showTypes;
+      final boolean isEarly = index <= 1 || index <= 2 && showTypes;
       Rows.Row row = rows.next();
-      AttributedString attributedString =
-          getOutputString(rows, row, style, isHeader);
-      attributedString = attributedString
-          .substring(0, Math.min(attributedString.length(), width));
-
-      if (index <= 1 || index <= 2 && showTypes) {
-        StringBuilder top = buildHeaderLine(row, style, index == 0, false);
-        StringBuilder bottom = buildHeaderLine(row, style, false, true);
-        headerCols = isHeader ? attributedString : headerCols;
-        header = buildHeader(headerCols, top);
-        bottomHeader = buildHeader(headerCols, bottom);
+
+      if (isEarly) {
+        if (isHeader) {
+          line.clear();
+          appendCells(line, rows, row, headerDelim);
+          line.truncate(width);
+          headerCols = line.toAttributedString();
+        }
+        if (borders == null || !borders.matches(row.sizes)) {
+          borders = new Borders(row.sizes, style);
+        }
+        header = buildHeader(headerCols,
+            index == 0 ? borders.top : borders.cross);
+        bottomHeader = buildHeader(headerCols, borders.bottom);
       }
 
-      if (sqlLine.getOpts().getShowHeader()) {
-        final int headerInterval =
-            sqlLine.getOpts().getHeaderInterval();
-        if ((index <= 1 || index <= 2 && showTypes)
+      if (showHeader) {
+        if (isEarly
             || headerInterval > 0 && index % headerInterval == 0) {
           if (index == 0) {
             printRow(header, style.getHeaderTopLeft() + hLine,
@@ -80,14 +98,19 @@ public int print(Rows rows) {
       }
 
       if (!isHeader) { // don't output the header twice
-        printRow(attributedString,
-            style.getBodySeparator() + " ", " " + style.getBodySeparator());
+        line.clear();
+        line.append(bodyLeft, AttributedStyles.GREEN);
+        final int start = line.length();
+        appendCells(line, rows, row, bodyDelim);
+        line.truncate(start + width);
+        line.append(bodyRight, AttributedStyles.GREEN);
+        line.output();
       }
 
       index++;
     }
 
-    if (bottomHeader != null && sqlLine.getOpts().getShowHeader()) {
+    if (bottomHeader != null && showHeader) {
       printRow(bottomHeader, style.getBodyBottomLeft() + bLine,
           bLine + style.getBodyBottomRight());
     }
@@ -112,92 +135,160 @@ void printRow(AttributedString attributedString, String left, String right) {
             .toAttributedString());
   }
 
-  private StringBuilder buildHeaderLine(Rows.Row row,
-      TableOutputFormatStyle style, boolean top, boolean lastLine) {
-    StringBuilder header = new StringBuilder();
-    final String bLine = style.getBodyLine() + "";
-    final String hLine = style.getHeaderLine() + "";
-    for (int j = 0; j < row.sizes.length; j++) {
-      for (int k = 0; k < row.sizes[j]; k++) {
-        header.append(lastLine ? bLine : hLine);
+  private AttributedString buildHeader(
+      AttributedString headerCols, String hTop) {
+    return new AttributedString(
+        hTop.substring(0, Math.min(hTop.length(), headerCols.length())),
+        AttributedStyles.GREEN);
+  }
+
+  /** Appends the cells of a row, padded to the column sizes and separated
+   * by a delimiter. */
+  private void appendCells(Line line, Rows rows, Rows.Row row,
+      String delim) {
+    // make deleted rows red, updated rows blue, and new rows green
+    line.rowStyle = row.deleted ? AttributedStyles.RED
+        : row.updated ? AttributedStyles.BLUE
+        : row.inserted ? AttributedStyles.GREEN
+        : null;
+    final AttributedStyle delimStyle =
+        line.color ? AttributedStyles.GREEN : AttributedStyle.DEFAULT;
+    for (int i = 0; i < row.values.length; i++) {
+      if (i > 0) {
+        line.append(delim, delimStyle);
       }
-      header.append(lastLine ? bLine : hLine);
-      if (lastLine) {
-        header.append(style.getBodyCrossUp());
+      final AttributedStyle cellStyle = rows.isPrimaryKey(i)
+          ? AttributedStyles.CYAN
+          : row.isMeta ? AttributedStyle.BOLD : AttributedStyle.DEFAULT;
+      final int size = row.sizes[i];
+      if (row.isMeta) {
+        // center
+        final String value = row.values[i];
+        final int n = size - value.length();
+        if (n > 0) {
+          line.pad(n / 2, cellStyle);
+        }
+        line.append(value, cellStyle);
+        if (n > 0) {
+          line.pad(n - n / 2, cellStyle);
+        }
       } else {
-        header.append(
-            top ? style.getHeaderCrossDown() : style.getHeaderBodyCross());
+        // pad on the right
+        final String value = row.values[i] == null ? "" : row.values[i];
+        line.append(value, cellStyle);
+        line.pad(size - value.length(), cellStyle);
       }
-      header.append(lastLine ? bLine : hLine);
     }
-    return header;
+    line.rowStyle = null;
   }
 
-  private AttributedString buildHeader(
-      AttributedString headerCols, StringBuilder hTop) {
-    AttributedString topHeader;
-    topHeader =
-        new AttributedStringBuilder()
-            .append(hTop.toString(), AttributedStyles.GREEN)
-            .toAttributedString()
-            .subSequence(0, Math.min(hTop.length(), headerCols.length()));
-    return topHeader;
-  }
+  /** Border lines for a given set of column sizes. */
+  private static class Borders {
+    final int[] sizes;
+    final String top;
+    final String cross;
+    final String bottom;
+
+    Borders(int[] sizes, TableOutputFormatStyle style) {
+      this.sizes = sizes.clone();
+      this.top = build(sizes, style.getHeaderLine(),
+          style.getHeaderCrossDown());
+      this.cross = build(sizes, style.getHeaderLine(),
+          style.getHeaderBodyCross());
+      this.bottom = build(sizes, style.getBodyLine(),
+          style.getBodyCrossUp());
+    }
+
+    boolean matches(int[] sizes) {
+      return Arrays.equals(this.sizes, sizes);
+    }
 
-  public AttributedString getOutputString(
-      Rows rows, Rows.Row row, TableOutputFormatStyle style, boolean header) {
-    return getOutputString(rows, row,
-        " " + (header ? style.getHeaderSeparator() : style.getBodySeparator())
-        + ' ');
+    private static String build(int[] sizes, char line, char cross) {
+      final StringBuilder sb = new StringBuilder();
+      for (int size : sizes) {
+        for (int k = 0; k <= size; k++) {
+          sb.append(line);
+        }
+        sb.append(cross).append(line);
+      }
+      return sb.toString();
+    }
   }
 
-  private AttributedString getOutputString(
-      Rows rows, Rows.Row row, String delim) {
-    AttributedStringBuilder builder = new AttributedStringBuilder();
+  /** A line of output that is built up and written, then cleared and
+   * reused. */
+  private class Line {
+    final boolean color;
+    private final StringBuilder plain = new StringBuilder();
+    private final AttributedStringBuilder styled =
+        new AttributedStringBuilder();
+    /** Style that overrides the style of each cell, or null. */
+    AttributedStyle rowStyle;
 
-    boolean isStyled = sqlLine.getOpts().getColor();
-    for (int i = 0; i < row.values.length; i++) {
-      if (builder.length() > 0) {
-        builder.append(delim,
-            isStyled ? AttributedStyles.GREEN : AttributedStyle.DEFAULT);
+    Line(boolean color) {
+      this.color = color;
+    }
+
+    void clear() {
+      if (color) {
+        styled.setLength(0);
+      } else {
+        plain.setLength(0);
       }
+    }
 
-      String v;
+    int length() {
+      return color ? styled.length() : plain.length();
+    }
 
-      if (row.isMeta) {
-        v = SqlLine.center(row.values[i], row.sizes[i]);
-        if (rows.isPrimaryKey(i)) {
-          builder.append(v, AttributedStyles.CYAN);
+    /** Removes characters beyond a given length. */
+    void truncate(int length) {
+      if (length() > length) {
+        if (color) {
+          styled.setLength(length);
         } else {
-          builder.append(v, AttributedStyle.BOLD);
+          plain.setLength(length);
         }
+      }
+    }
+
+    void append(String s, AttributedStyle style) {
+      if (color) {
+        styled.append(s, rowStyle == null ? style : rowStyle);
       } else {
-        v = rpad(row.values[i], row.sizes[i]);
-        if (rows.isPrimaryKey(i)) {
-          builder.append(v, AttributedStyles.CYAN);
+        plain.append(s);
+      }
+    }
+
+    /** Appends {@code n} spaces. */
+    void pad(int n, AttributedStyle style) {
+      for (; n > 0; n -= SPACES.length()) {
+        final int k = Math.min(n, SPACES.length());
+        if (color) {
+          styled.append(SPACES.substring(0, k),
+              rowStyle == null ? style : rowStyle);
         } else {
-          builder.append(v);
+          plain.append(SPACES, 0, k);
         }
       }
     }
 
-    if (row.deleted) { // make deleted rows red
-      return new AttributedStringBuilder()
-          .append(builder.toString(), AttributedStyles.RED)
-          .toAttributedString();
-    } else if (row.updated) { // make updated rows blue
-      return new AttributedStringBuilder()
-          .append(builder.toString(), AttributedStyles.BLUE)
-          .toAttributedString();
-    } else if (row.inserted) { // make new rows green
-      return new AttributedStringBuilder()
-          .append(builder.toString(), AttributedStyles.GREEN)
-          .toAttributedString();
+    AttributedString toAttributedString() {
+      return color
+          ? styled.toAttributedString()
+          : new AttributedString(plain);
     }
 
-    return builder.toAttributedString();
+    /** Writes the line. Without color, styles do not matter, so the
+     * characters are written as a plain string. */
+    void output() {
+      if (color) {
+        sqlLine.output(styled.toAttributedString());
+      } else {
+        sqlLine.output(plain.toString());
+      }
+    }
   }
-
 }
 
 // End TableOutputFormat.java
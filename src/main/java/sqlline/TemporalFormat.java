@@ -0,0 +1,232 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Thread-safe formatter for DATE, TIME and TIMESTAMP values.
+ *
+ * <p>Patterns use the syntax of {@link SimpleDateFormat}, as the
+ * {@code dateFormat}, {@code timeFormat} and {@code timestampFormat}
+ * properties always have. Where a pattern means the same to
+ * {@link DateTimeFormatter}, values are formatted as {@code java.time}
+ * objects; otherwise (for instance, week-based fields, whose meaning
+ * depends on the calendar) a per-thread {@link SimpleDateFormat} is used,
+ * so that output does not change.
+ *
+ * <p>As with {@link SimpleDateFormat}, values without a time zone are
+ * formatted in the default time zone, and TIME values on 1970-01-01.
+ */
+final class TemporalFormat {
+  private static final LocalDate EPOCH_DAY = LocalDate.of(1970, 1, 1);
+
+  private final String pattern;
+  private final DateTimeFormatter formatter;
+  private final ThreadLocal<SimpleDateFormat> legacyFormat;
+
+  private TemporalFormat(String pattern) {
+    this.pattern = pattern;
+    this.formatter = toFormatter(pattern);
+    this.legacyFormat = formatter == null
+        ? ThreadLocal.withInitial(
+            () -> new SimpleDateFormat(pattern, Locale.ROOT))
+        : null;
+  }
+
+  /**
+   * Creates a formatter.
+   *
+   * @param pattern Pattern in {@link SimpleDateFormat} syntax
+   * @return Formatter
+   * @throws IllegalArgumentException if the pattern is invalid
+   */
+  static TemporalFormat of(String pattern) {
+    // Validate with the class whose syntax we promise
+    new SimpleDateFormat(pattern, Locale.ROOT);
+    return new TemporalFormat(pattern);
+  }
+
+  String getPattern() {
+    return pattern;
+  }
+
+  /** Returns whether this format can work on {@code java.time} values
+   * without converting them to {@link java.util.Date}. */
+  boolean isJavaTime() {
+    return formatter != null;
+  }
+
+  /**
+   * Formats a value.
+   *
+   * <p>Accepts {@code java.time} values and {@link java.util.Date} and its
+   * JDBC subclasses; other values are converted using
+   * {@link Object#toString()}.
+   *
+   * @param value Value, not null
+   * @return Formatted value
+   */
+  String format(Object value) {
+    if (formatter == null) {
+      final Date date = toDate(value);
+      return date == null ? value.toString() : legacyFormat.get().format(date);
+    }
+    final TemporalAccessor temporal = toTemporal(value);
+    return temporal == null ? value.toString() : formatter.format(temporal);
+  }
+
+  private static TemporalAccessor toTemporal(Object value) {
+    final ZoneId zone = ZoneId.systemDefault();
+    if (value instanceof LocalDateTime) {
+      return ((LocalDateTime) value).atZone(zone);
+    } else if (value instanceof LocalDate) {
+      return ((LocalDate) value).atStartOfDay(zone);
+    } else if (value instanceof LocalTime) {
+      return EPOCH_DAY.atTime((LocalTime) value).atZone(zone);
+    } else if (value instanceof OffsetDateTime) {
+      return ((OffsetDateTime) value).toZonedDateTime();
+    } else if (value instanceof ZonedDateTime) {
+      return (ZonedDateTime) value;
+    } else if (value instanceof OffsetTime) {
+      return ((OffsetTime) value).atDate(EPOCH_DAY).toZonedDateTime();
+    } else if (value instanceof Timestamp) {
+      return ((Timestamp) value).toLocalDateTime().atZone(zone);
+    } else if (value instanceof java.sql.Date) {
+      return ((java.sql.Date) value).toLocalDate().atStartOfDay(zone);
+    } else if (value instanceof Time) {
+      return EPOCH_DAY.atTime(((Time) value).toLocalTime()).atZone(zone);
+    } else if (value instanceof Date) {
+      return Instant.ofEpochMilli(((Date) value).getTime()).atZone(zone);
+    }
+    return null;
+  }
+
+  private static Date toDate(Object value) {
+    if (value instanceof Date) {
+      return (Date) value;
+    } else if (value instanceof LocalDateTime) {
+      return Timestamp.valueOf((LocalDateTime) value);
+    } else if (value instanceof LocalDate) {
+      return java.sql.Date.valueOf((LocalDate) value);
+    } else if (value instanceof LocalTime) {
+      return Time.valueOf((LocalTime) value);
+    } else if (value instanceof OffsetDateTime) {
+      return Date.from(((OffsetDateTime) value).toInstant());
+    } else if (value instanceof ZonedDateTime) {
+      return Date.from(((ZonedDateTime) value).toInstant());
+    } else if (value instanceof OffsetTime) {
+      return Date.from(((OffsetTime) value).atDate(EPOCH_DAY).toInstant());
+    }
+    return null;
+  }
+
+  /**
+   * Compiles a {@link SimpleDateFormat} pattern into an equivalent
+   * {@link DateTimeFormatter}, or returns null if the two classes would
+   * format the pattern differently.
+   */
+  private static DateTimeFormatter toFormatter(String pattern) {
+    boolean quoted = false;
+    for (int i = 0; i < pattern.length(); i++) {
+      final char c = pattern.charAt(i);
+      if (c == '\'') {
+        quoted = !quoted;
+        continue;
+      }
+      if (quoted) {
+        continue;
+      }
+      switch (c) {
+      case 'u': // day number of week, but year in DateTimeFormatter
+      case 'F': // day of week in month
+      case 'G': // era names differ
+      case 'Y': // week-based fields depend on the calendar's week rules
+      case 'w':
+      case 'W':
+      case 'z': // zone names differ
+      case '[': // optional section in DateTimeFormatter, but literal text
+      case ']': // in SimpleDateFormat
+      case '{': // reserved in DateTimeFormatter
+      case '}':
+      case '#':
+        return null;
+      case 'Z': {
+        // four letters are "GMT" and an offset in DateTimeFormatter, but
+        // the same as one letter in SimpleDateFormat
+        final int n = run(pattern, i);
+        if (n >= 4) {
+          return null;
+        }
+        i += n - 1;
+        break;
+      }
+      case 'M':
+      case 'L':
+      case 'E': {
+        // five letters are the full name in SimpleDateFormat, but the
+        // narrow form (one letter) in DateTimeFormatter
+        final int n = run(pattern, i);
+        if (n >= 5) {
+          return null;
+        }
+        i += n - 1;
+        break;
+      }
+      case 'S': {
+        // milliseconds, but fraction of second in DateTimeFormatter;
+        // the two agree only for "SSS"
+        final int n = run(pattern, i);
+        if (n != 3) {
+          return null;
+        }
+        i += n - 1;
+        break;
+      }
+      default:
+        break;
+      }
+    }
+    try {
+      return DateTimeFormatter.ofPattern(pattern, Locale.ROOT);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /** Returns the number of times the character at position {@code i} of a
+   * pattern is repeated, starting there. */
+  private static int run(String pattern, int i) {
+    int n = 1;
+    while (i + n < pattern.length()
+        && pattern.charAt(i + n) == pattern.charAt(i)) {
+      n++;
+    }
+    return n;
+  }
+}
+
+// End TemporalFormat.java
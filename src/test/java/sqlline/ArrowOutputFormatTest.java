@@ -0,0 +1,115 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.tools.SimpleResultSet;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test cases for {@link ArrowOutputFormat}.
+ */
+public class ArrowOutputFormatTest {
+  /** Checks the framing of the stream and the contents of the record
+   * batches, reading the FlatBuffers metadata by hand. */
+  @Test
+  public void testStream() throws Exception {
+    final SqlLine sqlLine = new SqlLine();
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    sqlLine.setOutputStream(new PrintStream(os, false, "UTF-8"));
+    sqlLine.setErrorStream(new PrintStream(new ByteArrayOutputStream()));
+    final InputStream is = new ByteArrayInputStream(new byte[0]);
+    sqlLine.begin(new String[] {"-e", "!set incrementalBufferRows 2"}, is,
+        false);
+    os.reset();
+
+    final SimpleResultSet rs = new SimpleResultSet();
+    rs.addColumn("I", Types.INTEGER, 10, 0);
+    rs.addColumn("S", Types.VARCHAR, 20, 0);
+    rs.addRow(1, "a");
+    rs.addRow(null, "bc");
+    rs.addRow(3, null);
+    final int count = new ArrowOutputFormat(sqlLine)
+        .print(rs, new DispatchCallback());
+    assertThat(count, is(3));
+
+    final ByteBuffer buf = ByteBuffer.wrap(os.toByteArray())
+        .order(ByteOrder.LITTLE_ENDIAN);
+    final List<Integer> headerTypes = new ArrayList<>();
+    final List<Long> rowCounts = new ArrayList<>();
+    final List<String> values = new ArrayList<>();
+    for (;;) {
+      assertThat(buf.getInt(), is(0xFFFFFFFF));
+      final int length = buf.getInt();
+      if (length == 0) {
+        break;
+      }
+      assertThat(length % 8, is(0));
+      final int message = buf.position();
+      final int root = message + buf.getInt(message);
+      headerTypes.add((int) buf.get(field(buf, root, 1)));
+      final long bodyLength = buf.getLong(field(buf, root, 3));
+      final int body = message + length;
+      if (headerTypes.get(headerTypes.size() - 1) == 3) {
+        final int batch = ref(buf, field(buf, root, 2));
+        rowCounts.add(buf.getLong(field(buf, batch, 0)));
+        // Buffers: validity, data; validity, offsets, data
+        final int buffers = ref(buf, field(buf, batch, 2)) + 4;
+        final int ints = body + (int) buf.getLong(buffers + 16);
+        final byte intValidity = buf.get(body + (int) buf.getLong(buffers));
+        final int offsets = body + (int) buf.getLong(buffers + 48);
+        final int chars = body + (int) buf.getLong(buffers + 64);
+        for (int i = 0; i < rowCounts.get(rowCounts.size() - 1); i++) {
+          final int start = buf.getInt(offsets + 4 * i);
+          final int end = buf.getInt(offsets + 4 * i + 4);
+          final byte[] bytes = new byte[end - start];
+          for (int j = 0; j < bytes.length; j++) {
+            bytes[j] = buf.get(chars + start + j);
+          }
+          values.add(((intValidity >> i) & 1) == 0
+              ? "null" : String.valueOf(buf.getInt(ints + 4 * i)));
+          values.add(new String(bytes, "UTF-8"));
+        }
+      }
+      buf.position(body + (int) bodyLength);
+    }
+    assertThat(buf.remaining(), is(0));
+    assertThat(headerTypes.toString(), is("[1, 3, 3]"));
+    assertThat(rowCounts.toString(), is("[2, 1]"));
+    assertThat(values.toString(), is("[1, a, null, bc, 3, ]"));
+  }
+
+  /** Returns the position of a field of a table. */
+  private static int field(ByteBuffer buf, int table, int id) {
+    final int vtable = table - buf.getInt(table);
+    return table + buf.getShort(vtable + 4 + 2 * id);
+  }
+
+  /** Follows an offset. */
+  private static int ref(ByteBuffer buf, int position) {
+    return position + buf.getInt(position);
+  }
+}
+
+// End ArrowOutputFormatTest.java
@@ -17,6 +17,13 @@
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.stream.Stream;
 
 import org.h2.result.RowImpl;
@@ -24,6 +31,7 @@
 import org.h2.value.Value;
 import org.h2.value.ValueInt;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -64,6 +72,164 @@ public void nextListTest(int buffer, int size) {
     }
   }
 
+  /** Tests that the columnar buffer yields the same rows as the row
+   * buffer, including nulls, multi-line values and a numeric column whose
+   * values are not all integral objects. */
+  @ParameterizedTest
+  @MethodSource("sizeOfBatchAndLimitProvider")
+  public void testColumnarBuffer(int buffer, int size) {
+    try {
+      final SqlLine sqlLine = getSqlLine();
+      sqlLine.getOpts().set(BuiltInProperty.INCREMENTAL_BUFFER_ROWS, buffer);
+      final List<String> rowBuffered = readRows(sqlLine, size, true);
+      sqlLine.getOpts().set(BuiltInProperty.COLUMNAR_BUFFER, true);
+      final List<String> columnBuffered = readRows(sqlLine, size, true);
+      Assertions.assertEquals(rowBuffered, columnBuffered);
+      Assertions.assertEquals(size + 1, columnBuffered.size());
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Tests that the off-heap buffer yields the same rows as the row
+   * buffer; with a budget too small for all rows, it yields them in more
+   * batches, so only the values are compared. */
+  @ParameterizedTest
+  @MethodSource("sizeOfBatchAndLimitProvider")
+  public void testOffHeapBuffer(int buffer, int size) {
+    try {
+      final SqlLine sqlLine = getSqlLine();
+      sqlLine.getOpts().set(BuiltInProperty.INCREMENTAL_BUFFER_ROWS, buffer);
+      final List<String> rowBuffered = readRows(sqlLine, size, true);
+      final List<String> rowValues = readRows(sqlLine, size, false);
+      sqlLine.getOpts().set(BuiltInProperty.RESULT_BUFFER_MEMORY, "1m");
+      Assertions.assertEquals(1L << 20,
+          sqlLine.getOpts().getResultBufferMemory());
+      Assertions.assertEquals(rowBuffered, readRows(sqlLine, size, true));
+      // Room for two or three rows per batch
+      sqlLine.getOpts().set(BuiltInProperty.RESULT_BUFFER_MEMORY, "120");
+      Assertions.assertEquals(rowValues, readRows(sqlLine, size, false));
+      // Room for no row at all; each row is held on the heap by itself
+      sqlLine.getOpts().set(BuiltInProperty.RESULT_BUFFER_MEMORY, "1");
+      Assertions.assertEquals(rowValues, readRows(sqlLine, size, false));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Tests that fetching rows on a background thread yields the same rows,
+   * in the same batches, as fetching them on the calling thread. */
+  @ParameterizedTest
+  @MethodSource("sizeOfBatchAndLimitProvider")
+  public void testPipelinedFetch(int buffer, int size) {
+    try {
+      final SqlLine sqlLine = getSqlLine();
+      sqlLine.getOpts().set(BuiltInProperty.INCREMENTAL_BUFFER_ROWS, buffer);
+      final List<String> fetched = readRows(sqlLine, size, true);
+      sqlLine.getOpts().set(BuiltInProperty.PIPELINED_FETCH, true);
+      Assertions.assertEquals(fetched, readRows(sqlLine, size, true));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Tests that canceling the query stops a pipelined fetch. */
+  @Test
+  public void testPipelinedFetchCancel() throws Exception {
+    final SqlLine sqlLine = getSqlLine();
+    sqlLine.getOpts().set(BuiltInProperty.INCREMENTAL_BUFFER_ROWS, 1);
+    sqlLine.getOpts().set(BuiltInProperty.PIPELINED_FETCH, true);
+    final SimpleResultSet rs = new SimpleResultSet();
+    rs.addColumn("I", Types.INTEGER, 10, 0);
+    for (int i = 0; i < 10_000; i++) {
+      rs.addRow(i);
+    }
+    final DispatchCallback callback = new DispatchCallback();
+    final BufferedRows rows = new BufferedRows(sqlLine, rs, callback);
+    int count = 0;
+    while (rows.hasNext()) {
+      rows.next();
+      if (++count == 3) {
+        callback.setToCancel();
+      }
+    }
+    rows.close();
+    // Header and the first batch, then the batches read before the cancel
+    Assertions.assertTrue(count < 10_000, "count " + count);
+    Assertions.assertTrue(rs.getRow() < 10_000, "row " + rs.getRow());
+  }
+
+  /** Tests that primary keys are looked up before a pipelined fetch starts
+   * reading the result set, rather than while it is reading on the same
+   * connection. */
+  @Test
+  public void testPipelinedFetchPrimaryKeys() throws Exception {
+    final SqlLine sqlLine = getSqlLine();
+    sqlLine.getOpts().set(BuiltInProperty.PIPELINED_FETCH, true);
+    final DispatchCallback callback = new DispatchCallback();
+    sqlLine.runCommands(callback,
+        "!connect jdbc:hsqldb:mem:pipelinedFetchPrimaryKeys SA \"\"",
+        "create table t (k int primary key, v int)",
+        "insert into t values (1, 2)");
+    Assertions.assertTrue(callback.isSuccess());
+    final Connection connection =
+        sqlLine.getDatabaseConnection().getConnection();
+    for (boolean incremental : new boolean[] {false, true}) {
+      try (Statement statement = connection.createStatement();
+           ResultSet rs = statement.executeQuery("select k, v from t")) {
+        final Rows rows = incremental
+            ? new IncrementalRows(sqlLine, rs, callback)
+            : new BufferedRows(sqlLine, rs, callback);
+        Assertions.assertArrayEquals(new Boolean[] {true, false},
+            rows.primaryKeys);
+        rows.close();
+      }
+    }
+    sqlLine.runCommands(callback, "!close");
+  }
+
+  @Test
+  public void testParseMemorySize() {
+    Assertions.assertEquals(0L, SqlLineOpts.parseMemorySize("0"));
+    Assertions.assertEquals(100L, SqlLineOpts.parseMemorySize(" 100 "));
+    Assertions.assertEquals(2048L, SqlLineOpts.parseMemorySize("2k"));
+    Assertions.assertEquals(64L << 20, SqlLineOpts.parseMemorySize("64MB"));
+    Assertions.assertEquals(3L << 30, SqlLineOpts.parseMemorySize("3g"));
+    Assertions.assertEquals(-1L, SqlLineOpts.parseMemorySize("-5"));
+    Assertions.assertEquals(-1L, SqlLineOpts.parseMemorySize("5t"));
+    Assertions.assertEquals(-1L,
+        SqlLineOpts.parseMemorySize("99999999999999999999"));
+  }
+
+  private static List<String> readRows(SqlLine sqlLine, int size,
+      boolean withSizes) throws Exception {
+    final SimpleResultSet rs = new SimpleResultSet();
+    rs.addColumn("I", Types.INTEGER, 10, 0);
+    rs.addColumn("B", Types.BIGINT, 19, 0);
+    rs.addColumn("D", Types.DOUBLE, 17, 0);
+    rs.addColumn("S", Types.VARCHAR, 20, 0);
+    for (int i = 0; i < size; i++) {
+      rs.addRow(i % 3 == 0 ? null : i * 1000,
+          i == 5 ? (Object) "five" : (Object) ((long) i << 40),
+          i % 4 == 0 ? null : i / 3d,
+          i % 2 == 0 ? null : "line " + i + (i % 3 == 0 ? "\nmore" : ""));
+    }
+    final BufferedRows rows = new BufferedRows(sqlLine, rs);
+    rows.normalizeWidths(-1);
+    final List<String> list = new ArrayList<>();
+    while (rows.hasNext()) {
+      final Rows.Row row = rows.next();
+      list.add(Arrays.toString(row.values)
+          + (withSizes ? Arrays.toString(row.sizes) : "")
+          + row.deleted + row.updated + row.inserted);
+    }
+    rows.close();
+    return list;
+  }
+
   private static Stream<Arguments> sizeOfBatchAndLimitProvider() {
     return Stream.of(of(0, 10), of(1, 10), of(2, 10), of(3, 10), of(4, 10),
         of(5, 10), of(6, 10), of(7, 10), of(8, 10), of(9, 10), of(10, 10),
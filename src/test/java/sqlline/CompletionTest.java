@@ -175,7 +175,8 @@ private static Stream<Arguments> propertyCompletionProvider() {
         of("!set verbose false", "!set verbose false"),
         of("!set mode v", "!set mode vi"),
         of("!set mode e", "!set mode emacs"),
-        of("!set outputFormat js", "!set outputFormat json"),
+        of("!set outputFormat json-", "!set outputFormat json-lines"),
+        of("!set outputFormat arr", "!set outputFormat arrow"),
         of("!set outputFormat xmlel", "!set outputFormat xmlelements"),
         of("!set colorScheme che", "!set colorScheme chester"),
         of("!set colorScheme sol", "!set colorScheme solarized"),
@@ -0,0 +1,122 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.SQLException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import static sqlline.SqlLineArgsTest.ConnectionSpec.HSQLDB;
+import static sqlline.SqlLineArgsTest.begin;
+
+/**
+ * Test cases for {@link ConnectionPool}.
+ */
+public class ConnectionPoolTest {
+  /** Tests that a released connection is reused, unless it is broken, and
+   * that the current connection is left alone. */
+  @Test
+  public void testReuse() throws Exception {
+    final SqlLine sqlLine = BufferedRowsTest.getSqlLine();
+    final DatabaseConnection prototype = prototype(sqlLine);
+    final ConnectionPool pool = sqlLine.getConnectionPool();
+
+    final DatabaseConnection c1 = pool.borrow(prototype);
+    assertThat(c1, not(sameInstance(prototype)));
+    assertThat(c1.connection, not(sameInstance(prototype.connection)));
+    c1.connection.setAutoCommit(false);
+    pool.release(c1);
+    assertThat(pool.idleCount(prototype), is(1));
+
+    final DatabaseConnection c2 = pool.borrow(prototype);
+    assertThat(c2, sameInstance(c1));
+    assertThat(c2.connection.getAutoCommit(), is(true));
+    assertThat(pool.idleCount(prototype), is(0));
+
+    // A connection that is no longer valid is not reused
+    c2.connection.close();
+    pool.release(c2);
+    final DatabaseConnection c3 = pool.borrow(prototype);
+    assertThat(c3, not(sameInstance(c2)));
+    pool.release(c3);
+
+    pool.clear();
+    assertThat(pool.idleCount(prototype), is(0));
+    assertThat(c3.connection == null, is(true));
+    assertThat(prototype.connection.isClosed(), is(false));
+    prototype.close();
+  }
+
+  /** Tests that the pool opens connections in the background until
+   * connectionPoolMinIdle are idle. */
+  @Test
+  public void testMinIdle() throws Exception {
+    final SqlLine sqlLine = BufferedRowsTest.getSqlLine();
+    sqlLine.getOpts().set(BuiltInProperty.CONNECTION_POOL_MIN_IDLE, 2);
+    final DatabaseConnection prototype = prototype(sqlLine);
+    final ConnectionPool pool = sqlLine.getConnectionPool();
+    pool.warm(prototype);
+    for (int i = 0; i < 100 && pool.idleCount(prototype) < 2; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(pool.idleCount(prototype), is(2));
+
+    // Borrowing one starts opening another
+    final DatabaseConnection c1 = pool.borrow(prototype);
+    for (int i = 0; i < 100 && pool.idleCount(prototype) < 2; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(pool.idleCount(prototype), is(2));
+    pool.release(c1);
+    assertThat(pool.idleCount(prototype), is(3));
+    pool.clear();
+    prototype.close();
+  }
+
+  /** Tests that messages from connecting go to the console when borrowing,
+   * and are discarded when borrowing quietly, but that failure is thrown
+   * either way. */
+  @Test
+  public void testBorrowQuietly() throws Exception {
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    final SqlLine sqlLine = new SqlLine();
+    begin(sqlLine, os, false, "-e", "!set maxwidth 80");
+    final DatabaseConnection prototype = new DatabaseConnection(sqlLine,
+        null, "jdbc:nonexistent:pool", "sa", "", null);
+    final ConnectionPool pool = sqlLine.getConnectionPool();
+    os.reset();
+    assertThrows(SQLException.class, () -> pool.borrowQuietly(prototype));
+    sqlLine.getOutputStream().flush();
+    assertThat(os.size(), is(0));
+    assertThrows(SQLException.class, () -> pool.borrow(prototype));
+    sqlLine.getOutputStream().flush();
+    assertThat(os.size(), not(is(0)));
+  }
+
+  private static DatabaseConnection prototype(SqlLine sqlLine) {
+    final DispatchCallback callback = new DispatchCallback();
+    sqlLine.runCommands(callback,
+        "!connect " + HSQLDB.url + " \"" + HSQLDB.username + "\" \""
+            + HSQLDB.password + "\"");
+    assertThat(callback.isSuccess(), is(true));
+    return sqlLine.getDatabaseConnection();
+  }
+}
+
+// End ConnectionPoolTest.java
@@ -0,0 +1,129 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static sqlline.SqlLineArgsTest.begin;
+import static sqlline.SqlLineArgsTest.dispatch;
+
+/**
+ * Test cases for {@link DatabaseConnection}.
+ */
+public class DatabaseConnectionTest {
+  /** Tests that the columns of the least recently used tables are
+   * forgotten when more than columnCacheSize tables have columns. */
+  @Test
+  public void testColumnCacheEviction() throws Exception {
+    final SqlLine sqlLine = sqlLine("columnCacheEviction");
+    final DatabaseConnection.Schema schema =
+        sqlLine.getDatabaseConnection().getSchema();
+    final Map<String, Set<String>> tables =
+        schema.getSchema2tables().get("PUBLIC");
+    assertThat(schema.getColumnNames("PUBLIC", "T1"),
+        is(Collections.singleton("I")));
+    schema.getColumnNames("PUBLIC", "T2");
+    schema.getColumnNames("PUBLIC", "T1");
+    schema.getColumnNames("PUBLIC", "T3");
+    assertThat(schema.columnCacheSize(), is(2));
+    assertThat(tables.get("T1"), notNullValue());
+    assertThat(tables.get("T2"), nullValue());
+    assertThat(tables.get("T3"), notNullValue());
+
+    // Forgotten columns are read again
+    assertThat(schema.getColumnNames("PUBLIC", "T2"),
+        is(Collections.singleton("I")));
+    assertThat(tables.get("T1"), nullValue());
+    dispatch(sqlLine, "!close");
+  }
+
+  /** Tests that columns are loaded in the background, but only if
+   * backgroundMetadata is set. */
+  @Test
+  public void testPrefetchColumns() throws Exception {
+    final SqlLine sqlLine = sqlLine("prefetchColumns");
+    final DatabaseConnection.Schema schema =
+        sqlLine.getDatabaseConnection().getSchema();
+    final Map<String, Map<String, Set<String>>> schema2tables =
+        schema.getSchema2tables();
+    schema.prefetchColumns(
+        Collections.singleton(Arrays.asList("PUBLIC", "T1")));
+    assertThat(schema.columnCacheSize(), is(0));
+
+    dispatch(sqlLine, "!set backgroundMetadata true");
+    schema.prefetchColumns(
+        Arrays.asList(Arrays.asList("PUBLIC", "T1"),
+            Arrays.asList(null, "T2"),
+            Arrays.asList(null, "NO_SUCH_TABLE")));
+    for (int i = 0; schema.columnCacheSize() < 2; i++) {
+      assertThat("loaded in time", i < 100, is(true));
+      Thread.sleep(100);
+    }
+    assertThat(schema2tables.get("PUBLIC").get("T1"),
+        is(Collections.singleton("I")));
+    assertThat(schema2tables.get(null).get("T2"),
+        is(Collections.singleton("I")));
+    assertThat(schema2tables.get(null).containsKey("NO_SUCH_TABLE"),
+        is(false));
+    dispatch(sqlLine, "!close");
+  }
+
+  /** Tests that a table that the pooled connection cannot see, here
+   * because each connection to "jdbc:h2:mem:" has its own database, gets
+   * its columns from the user's connection. */
+  @Test
+  public void testPrefetchColumnsPrivateTable() throws Exception {
+    final SqlLine sqlLine = sqlLine("jdbc:h2:mem:", "sa");
+    final DatabaseConnection connection = sqlLine.getDatabaseConnection();
+    final DatabaseConnection.Schema schema = connection.getSchema();
+    dispatch(sqlLine, "!set backgroundMetadata true");
+    schema.getSchema2tables();
+    schema.prefetchColumns(
+        Collections.singleton(Arrays.asList("PUBLIC", "T1")));
+    for (int i = 0;
+         sqlLine.getConnectionPool().idleCount(connection) == 0; i++) {
+      assertThat("loaded in time", i < 100, is(true));
+      Thread.sleep(100);
+    }
+    assertThat(schema.columnCacheSize(), is(0));
+    assertThat(schema.getColumnNames("PUBLIC", "T1"),
+        is(Collections.singleton("I")));
+    dispatch(sqlLine, "!close");
+  }
+
+  private static SqlLine sqlLine(String name) throws Exception {
+    return sqlLine("jdbc:hsqldb:mem:" + name, "SA");
+  }
+
+  private static SqlLine sqlLine(String url, String user) throws Exception {
+    final SqlLine sqlLine = new SqlLine();
+    begin(sqlLine, new ByteArrayOutputStream(), false,
+        "-e", "!set columnCacheSize 2");
+    dispatch(sqlLine, "!connect " + url + " " + user + " \"\"");
+    for (int i = 1; i <= 3; i++) {
+      dispatch(sqlLine, "create table t" + i + " (i int)");
+    }
+    return sqlLine;
+  }
+}
+
+// End DatabaseConnectionTest.java
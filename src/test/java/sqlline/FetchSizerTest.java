@@ -0,0 +1,136 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.h2.tools.SimpleResultSet;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test cases for {@link FetchSizer}.
+ */
+public class FetchSizerTest {
+  /** Tests that the fetch size doubles while round-trips are slow, until
+   * a fetch would hold {@link FetchSizer#MAX_FETCH_BYTES}. */
+  @Test
+  public void testGrowth() throws Exception {
+    final List<Integer> sizes = new ArrayList<>();
+    final ResultSet rs = resultSet(2_000, true, sizes);
+    final FetchSizer fetchSizer = new FetchSizer(rs, 1);
+    final String[] values = {new String(new char[10_000])};
+    while (fetchSizer.next()) {
+      fetchSizer.observe(values);
+    }
+    // 10,000 characters per row: about 419 rows per 8 MB
+    assertThat(sizes, is(Arrays.asList(200, 400, 419)));
+    assertThat(fetchSizer.fetchSize(), is(419));
+  }
+
+  /** Tests that the fetch size shrinks if rows are too wide for it, however
+   * long round-trips take. */
+  @Test
+  public void testShrink() throws Exception {
+    final List<Integer> sizes = new ArrayList<>();
+    final ResultSet rs = resultSet(2_000, false, sizes);
+    rs.setFetchSize(1_000);
+    sizes.clear();
+    final FetchSizer fetchSizer = new FetchSizer(rs, 1);
+    final String[] values = {new String(new char[10_000])};
+    while (fetchSizer.next()) {
+      fetchSizer.observe(values);
+    }
+    assertThat(sizes, is(Arrays.asList(419)));
+    assertThat(fetchSizer.fetchSize(), is(419));
+  }
+
+  /** Tests that rows read into a columnar or off-heap buffer are observed,
+   * as rows read into a list are. */
+  @Test
+  public void testBufferedRows() throws Exception {
+    for (String buffer : new String[] {"list", "columnar", "offHeap"}) {
+      final SqlLine sqlLine = BufferedRowsTest.getSqlLine();
+      sqlLine.getOpts().set(BuiltInProperty.ADAPTIVE_FETCH_SIZE, true);
+      sqlLine.getOpts().set(BuiltInProperty.INCREMENTAL_BUFFER_ROWS, -1);
+      if (buffer.equals("columnar")) {
+        sqlLine.getOpts().set(BuiltInProperty.COLUMNAR_BUFFER, true);
+      } else if (buffer.equals("offHeap")) {
+        sqlLine.getOpts().set(BuiltInProperty.RESULT_BUFFER_MEMORY, "64m");
+      }
+      final SimpleResultSet rs = new SimpleResultSet() {
+        private int fetchSize;
+
+        @Override public int getFetchSize() {
+          return fetchSize;
+        }
+
+        @Override public void setFetchSize(int rows) {
+          fetchSize = rows;
+        }
+      };
+      rs.addColumn("S", Types.VARCHAR, 50_000, 0);
+      final String value = new String(new char[50_000]).replace('\0', 'x');
+      for (int i = 0; i < 150; i++) {
+        rs.addRow(value);
+      }
+      final BufferedRows rows = new BufferedRows(sqlLine, rs);
+      // 50,000 characters per row: about 83 rows per 8 MB
+      assertThat(buffer, rows.fetchSizer.fetchSize(), is(83));
+    }
+  }
+
+  /** Returns a result set with the given number of rows that, if
+   * {@code slow}, waits a few milliseconds at the start of each fetch, and
+   * records the fetch sizes that are set. */
+  private static ResultSet resultSet(int rowCount, boolean slow,
+      List<Integer> sizes) {
+    final int[] state = {0, 0, 0}; // row, fetch size, rows left in fetch
+    return (ResultSet) Proxy.newProxyInstance(
+        FetchSizerTest.class.getClassLoader(),
+        new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+          case "getFetchSize":
+            return state[1];
+          case "setFetchSize":
+            state[1] = (Integer) args[0];
+            sizes.add(state[1]);
+            return null;
+          case "next":
+            if (state[0] == rowCount) {
+              return false;
+            }
+            if (state[2] == 0) {
+              state[2] = state[1] > 0
+                  ? state[1] : FetchSizer.INITIAL_FETCH_SIZE;
+              if (slow) {
+                Thread.sleep(2);
+              }
+            }
+            state[0]++;
+            state[2]--;
+            return true;
+          default:
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+}
+
+// End FetchSizerTest.java
@@ -0,0 +1,120 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static sqlline.SqlLineArgsTest.begin;
+import static sqlline.SqlLineArgsTest.dispatch;
+
+/**
+ * Test cases for {@link MetadataCache}.
+ */
+public class MetadataCacheTest {
+  private static final String URL = "jdbc:hsqldb:mem:metadataCache";
+
+  private String baseDir;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    baseDir = System.getProperty(SqlLine.SQLLINE_BASE_DIR);
+    System.setProperty(SqlLine.SQLLINE_BASE_DIR,
+        Files.createTempDirectory("sqlline").toString());
+  }
+
+  @AfterEach
+  public void tearDown() {
+    if (baseDir == null) {
+      System.clearProperty(SqlLine.SQLLINE_BASE_DIR);
+    } else {
+      System.setProperty(SqlLine.SQLLINE_BASE_DIR, baseDir);
+    }
+  }
+
+  /** Tests that tables and columns are read from the cache file when
+   * connecting, and that "!rehash" reads them from the database again. */
+  @Test
+  public void testCache() throws Exception {
+    final File file = MetadataCache.file(URL, "SA");
+    final SqlLine sqlLine = sqlLine(3600);
+    dispatch(sqlLine, "create table t1 (i int)");
+    dispatch(sqlLine, "!rehash");
+    assertThat(file.exists(), is(true));
+    assertThat(tableNames(sqlLine), hasItem("T1"));
+    sqlLine.getDatabaseConnection().getSchema()
+        .getColumnNames("PUBLIC", "T1");
+    dispatch(sqlLine, "!close");
+
+    // The new connection gets its tables and columns from the file
+    final SqlLine sqlLine2 = sqlLine(3600);
+    dispatch(sqlLine2, "drop table t1");
+    dispatch(sqlLine2, "create table t2 (j int)");
+    assertThat(tableNames(sqlLine2), hasItem("T1"));
+    assertThat(tableNames(sqlLine2), not(hasItem("T2")));
+    assertThat(
+        sqlLine2.getDatabaseConnection().getSchema()
+            .getSchema2tables().get("PUBLIC").get("T1"),
+        is(Collections.singleton("I")));
+
+    dispatch(sqlLine2, "!rehash");
+    assertThat(tableNames(sqlLine2), not(hasItem("T1")));
+    assertThat(tableNames(sqlLine2), hasItem("T2"));
+    dispatch(sqlLine2, "!close");
+  }
+
+  /** Tests that a cache file older than metadataCacheTtl is used, and
+   * reloaded in the background. */
+  @Test
+  public void testReload() throws Exception {
+    final SqlLine sqlLine = sqlLine(1);
+    dispatch(sqlLine, "create table t3 (i int)");
+    dispatch(sqlLine, "!rehash");
+    Thread.sleep(1100);
+    dispatch(sqlLine, "drop table t3");
+    dispatch(sqlLine, "create table t4 (i int)");
+    dispatch(sqlLine, "!close");
+
+    final SqlLine sqlLine2 = sqlLine(1);
+    for (int i = 0; tableNames(sqlLine2).contains("T3"); i++) {
+      assertThat("reloaded in time", i < 100, is(true));
+      Thread.sleep(100);
+    }
+    assertThat(tableNames(sqlLine2), hasItem("T4"));
+    dispatch(sqlLine2, "!close");
+  }
+
+  private static Collection<String> tableNames(SqlLine sqlLine) {
+    return sqlLine.getDatabaseConnection().getTableNames(false);
+  }
+
+  private static SqlLine sqlLine(int ttl) throws Exception {
+    final SqlLine sqlLine = new SqlLine();
+    begin(sqlLine, new ByteArrayOutputStream(), false,
+        "-e", "!set metadataCacheTtl " + ttl);
+    dispatch(sqlLine, "!connect " + URL + " SA \"\"");
+    return sqlLine;
+  }
+}
+
+// End MetadataCacheTest.java
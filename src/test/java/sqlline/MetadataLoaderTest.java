@@ -0,0 +1,97 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import mockit.Mock;
+import mockit.MockUp;
+
+import static org.hamcrest.CoreMatchers.everyItem;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static sqlline.SqlLineArgsTest.begin;
+import static sqlline.SqlLineArgsTest.dispatch;
+
+/**
+ * Test cases for {@link MetadataLoader}.
+ */
+public class MetadataLoaderTest {
+  /** Tests that tables are loaded in the background, and that completion
+   * is available while they load. */
+  @Test
+  public void testLoad() throws Exception {
+    final SqlLine sqlLine = sqlLine("metadataLoader");
+    final DatabaseConnection connection = sqlLine.getDatabaseConnection();
+    dispatch(sqlLine, "create table t1 (i int)");
+    dispatch(sqlLine, "!rehash");
+    assertThat(connection.getSqlCompleter(), notNullValue());
+    for (int i = 0; !connection.getTableNames(false).contains("T1"); i++) {
+      assertThat("loaded in time", i < 100, is(true));
+      Thread.sleep(100);
+    }
+    assertThat(connection.getTableNames(false), hasItem("T1"));
+
+    // Nothing to cancel once loading has finished
+    assertThat(connection.cancelMetadataLoad(), is(false));
+    dispatch(sqlLine, "!close");
+  }
+
+  /** Tests that the loader borrows its connection on its own thread, and
+   * that if it cannot, completion loads tables on the user's connection. */
+  @Test
+  public void testBorrowFails() throws Exception {
+    final List<String> threads = new ArrayList<>();
+    new MockUp<ConnectionPool>() {
+      @Mock DatabaseConnection borrowQuietly(DatabaseConnection prototype)
+          throws SQLException {
+        synchronized (threads) {
+          threads.add(Thread.currentThread().getName());
+        }
+        throw new SQLException("no more connections");
+      }
+    };
+    final SqlLine sqlLine = sqlLine("metadataLoaderBorrow");
+    final DatabaseConnection connection = sqlLine.getDatabaseConnection();
+    dispatch(sqlLine, "create table t1 (i int)");
+    dispatch(sqlLine, "!rehash");
+    for (int i = 0; !connection.getTableNames(false).contains("T1"); i++) {
+      assertThat("loaded in time", i < 100, is(true));
+      Thread.sleep(100);
+      // Completion notices that the loader has failed
+      assertThat(connection.getSqlCompleter(), notNullValue());
+    }
+    synchronized (threads) {
+      assertThat(threads.isEmpty(), is(false));
+      assertThat(threads, everyItem(is("sqlline-metadata-loader")));
+    }
+    dispatch(sqlLine, "!close");
+  }
+
+  private static SqlLine sqlLine(String name) {
+    final SqlLine sqlLine = new SqlLine();
+    begin(sqlLine, new ByteArrayOutputStream(), false,
+        "-e", "!set backgroundMetadata true");
+    dispatch(sqlLine, "!set fastConnect false");
+    dispatch(sqlLine, "!connect jdbc:hsqldb:mem:" + name + " SA \"\"");
+    return sqlLine;
+  }
+}
+
+// End MetadataLoaderTest.java
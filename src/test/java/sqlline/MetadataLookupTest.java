@@ -0,0 +1,71 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static sqlline.SqlLineArgsTest.begin;
+import static sqlline.SqlLineArgsTest.dispatch;
+
+/**
+ * Test cases for {@link MetadataLookup}.
+ */
+public class MetadataLookupTest {
+  @Test
+  public void testEscape() {
+    assertThat(MetadataLookup.escape("EMP", "\\"), is("EMP"));
+    assertThat(MetadataLookup.escape("T_1%", "\\"), is("T\\_1\\%"));
+    assertThat(MetadataLookup.escape("A\\B", "\\"), is("A\\\\B"));
+    assertThat(MetadataLookup.escape("T_1", ""), is("T_1"));
+    assertThat(MetadataLookup.escape(null, "\\"), is((String) null));
+  }
+
+  /** Tests that prefixes are matched exactly, even if they contain
+   * wildcards, and that results are cached. */
+  @Test
+  public void testLookup() throws Exception {
+    final SqlLine sqlLine = new SqlLine();
+    begin(sqlLine, new ByteArrayOutputStream(), false,
+        "-e", "!set onDemandMetadata true");
+    dispatch(sqlLine, "!connect jdbc:hsqldb:mem:metadataLookup SA \"\"");
+    dispatch(sqlLine, "create table t_one (a_b int, ab int, c int)");
+    dispatch(sqlLine, "create table txone (i int)");
+    dispatch(sqlLine, "create table u (i int)");
+
+    final MetadataLookup lookup =
+        new MetadataLookup(sqlLine, sqlLine.getDatabaseConnection());
+    assertThat(lookup.schemas("PUB"), is(Collections.singletonList("PUBLIC")));
+    assertThat(lookup.tables("PUBLIC", "T_"),
+        is(Collections.singletonList("T_ONE")));
+    assertThat(lookup.tables(null, "T").size(), is(2));
+    assertThat(lookup.tables("PUBLIC", null), hasItem("U"));
+    assertThat(lookup.tables("PUBLIC", "V"), is(Collections.emptyList()));
+    assertThat(lookup.columns("PUBLIC", "T_ONE", "A_"),
+        is(Collections.singletonList("A_B")));
+    assertThat(lookup.columns(null, "T_ONE", null),
+        is(Arrays.asList("A_B", "AB", "C")));
+
+    // The database is not asked again
+    dispatch(sqlLine, "drop table u");
+    assertThat(lookup.tables("PUBLIC", null), hasItem("U"));
+    dispatch(sqlLine, "!close");
+  }
+}
+
+// End MetadataLookupTest.java
@@ -0,0 +1,106 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test cases for {@link OutputChannel}.
+ */
+public class OutputChannelTest {
+  /** Tests that output is written in blocks of the buffer size, and in
+   * full when the command ends. */
+  @Test
+  public void testBuffered() throws Exception {
+    final CountingStream out = new CountingStream();
+    final SqlLine sqlLine = sqlLine(out, "!set outputBufferSize 1000");
+    out.reset();
+    final String line = "0123456789012345678";
+    final int lineSize = line.length() + System.lineSeparator().length();
+    for (int i = 0; i < 120; i++) {
+      sqlLine.output(line);
+    }
+    // Two blocks written, the rest still in the buffer, unless the writes
+    // took longer than the flush interval
+    assertThat(out.writes - out.flushes <= 2, is(true));
+    sqlLine.getOutputStream().flush();
+    assertThat(out.size(), is(120 * lineSize));
+    sqlLine.dispatch("!set outputBufferSize 0", new DispatchCallback());
+    out.reset();
+    for (int i = 0; i < 10; i++) {
+      sqlLine.output(line);
+    }
+    // At least one write per line
+    assertThat(out.writes >= 10, is(true));
+    assertThat(out.size(), is(10 * lineSize));
+  }
+
+  /** Tests that output is written before an error message, so that the
+   * two stay in order if they go to the same place. */
+  @Test
+  public void testOrderWithErrors() throws Exception {
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    final SqlLine sqlLine = sqlLine(os, "!set outputBufferSize 1000");
+    os.reset();
+    sqlLine.output("first");
+    sqlLine.error("second");
+    sqlLine.output("third");
+    sqlLine.getOutputStream().flush();
+    final String nl = System.lineSeparator();
+    assertThat(os.toString(StandardCharsets.UTF_8.name()),
+        is("first" + nl + "second" + nl + "third" + nl));
+  }
+
+  private static SqlLine sqlLine(OutputStream os, String command)
+      throws IOException {
+    final SqlLine sqlLine = new SqlLine();
+    sqlLine.setOutputStream(os);
+    sqlLine.setErrorStream(os);
+    final InputStream is = new ByteArrayInputStream(new byte[0]);
+    sqlLine.begin(new String[] {"-e", command}, is, false);
+    return sqlLine;
+  }
+
+  /** Stream that counts the writes to it. */
+  private static class CountingStream extends ByteArrayOutputStream {
+    int writes;
+    int flushes;
+
+    @Override public synchronized void write(byte[] b, int off, int len) {
+      writes++;
+      super.write(b, off, len);
+    }
+
+    @Override public void flush() {
+      flushes++;
+    }
+
+    @Override public synchronized void reset() {
+      super.reset();
+      writes = 0;
+      flushes = 0;
+    }
+  }
+}
+
+// End OutputChannelTest.java
@@ -0,0 +1,57 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test cases for {@link PrefixIndex}.
+ */
+public class PrefixIndexTest {
+  private static final PrefixIndex<String> INDEX = new PrefixIndex<>(
+      Arrays.asList("EMP", "DEPT", "emp_history", "Emp", "BONUS", "EMP"),
+      Function.identity());
+
+  @Test
+  public void testStartingWith() {
+    assertThat(INDEX.size(), is(6));
+    assertThat(INDEX.startingWith("emp"),
+        is(Arrays.asList("EMP", "Emp", "EMP", "emp_history")));
+    assertThat(INDEX.startingWith("EMP_"),
+        is(Collections.singletonList("emp_history")));
+    assertThat(INDEX.startingWith("d"),
+        is(Collections.singletonList("DEPT")));
+    assertThat(INDEX.startingWith("a"), is(Collections.emptyList()));
+    assertThat(INDEX.startingWith("z"), is(Collections.emptyList()));
+    assertThat(INDEX.startingWith("emps"), is(Collections.emptyList()));
+  }
+
+  @Test
+  public void testEmptyPrefix() {
+    assertThat(INDEX.startingWith(""), is(INDEX.values()));
+    assertThat(INDEX.startingWith(null), is(INDEX.values()));
+    assertThat(INDEX.values().get(0), is("BONUS"));
+    assertThat(
+        new PrefixIndex<String>(Collections.emptyList(), Function.identity())
+            .startingWith("a"),
+        is(Collections.emptyList()));
+  }
+}
+
+// End PrefixIndexTest.java
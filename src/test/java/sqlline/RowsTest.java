@@ -55,6 +55,16 @@ public void testEscapeControlSymbols() {
     assertThat(Rows.escapeControlSymbols("\\"), is("\\"));
     assertThat(Rows.escapeControlSymbols("\\\\"), is("\\\\"));
   }
+
+  @Test
+  public void testDisplayWidth() {
+    assertThat(Rows.displayWidth(null), is(1));
+    assertThat(Rows.displayWidth(""), is(0));
+    assertThat(Rows.displayWidth("abc"), is(3));
+    assertThat(Rows.displayWidth("abc\n"), is(3));
+    assertThat(Rows.displayWidth("a\nabcd\nab"), is(4));
+    assertThat(Rows.displayWidth("\n\n"), is(1));
+  }
 }
 
 // End RowsTest.java
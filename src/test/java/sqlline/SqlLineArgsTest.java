@@ -27,6 +27,8 @@
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.h2.util.StringUtils;
 import org.hamcrest.BaseMatcher;
@@ -104,6 +106,13 @@ static SqlLine.Status begin(SqlLine sqlLine, OutputStream os,
     }
   }
 
+  /** Dispatches a line, and asserts that it succeeds. */
+  static void dispatch(SqlLine sqlLine, String line) {
+    final DispatchCallback callback = new DispatchCallback();
+    sqlLine.dispatch(line, callback);
+    assertThat(line, callback.isSuccess(), is(true));
+  }
+
   /**
    * Execute a script with "beeline -f".
    *
@@ -598,6 +607,8 @@ public void testHelpSet() {
         + "Variable        Value      Description\n"
         + "=============== ========== "
         + "==================================================\n"
+        + "adaptiveFetchSize true/false "
+        + "Grow the fetch size while reading rows\n"
         + "autoCommit      true/false "
         + "Enable/disable automatic transaction commit\n"
         + "autoPairing     true/false Enable/disable widget that "
@@ -819,6 +830,269 @@ public void testRecord() {
             + "6/8          !record\n"));
   }
 
+  /** Tests that a record file whose name ends in ".gz" is compressed, and
+   * that record files are rotated when they reach maxOutputFileSize. */
+  @Test
+  public void testRecordCompressedAndRotated() throws IOException {
+    final Path dir = Files.createTempDirectory("sqlline");
+    final File file = new File(dir.toFile(), "session.log.gz");
+    final String script = "!set maxOutputFileSize 1\n"
+        + "!set outputformat csv\n"
+        + "!record " + file.getAbsolutePath() + "\n"
+        + "values 'first';\n"
+        + "values 'second';\n"
+        + "!record\n";
+    checkScriptFile(script, false, equalTo(SqlLine.Status.OK),
+        containsString("Recording stopped."));
+
+    // Each file is a complete gzip stream; together, in order, they hold
+    // all the output
+    final StringBuilder contents = new StringBuilder();
+    int rotated = 0;
+    for (;; rotated++) {
+      final File f = new File(dir.toFile(),
+          "session.log." + (rotated + 1) + ".gz");
+      if (!f.exists()) {
+        break;
+      }
+      contents.append(gunzip(f));
+    }
+    contents.append(gunzip(file));
+    assertThat(rotated > 1, is(true));
+    assertThat(contents.toString(),
+        RegexMatcher.of("(?s)Saving all output to .*"
+            + "values 'first';\n'C1'\n'first'\n.*"
+            + "values 'second';\n'C1'\n'second'\n.*"
+            + "!record\n"));
+    for (File f : dir.toFile().listFiles()) {
+      Files.delete(f.toPath());
+    }
+    Files.delete(dir);
+  }
+
+  /** Tests the {@code !export} command, which writes rows to a file but
+   * not to the console or the record file. */
+  @Test
+  public void testExport() throws IOException {
+    final Path dir = Files.createTempDirectory("sqlline");
+    final File record = new File(dir.toFile(), "session.log");
+    final File csv = new File(dir.toFile(), "export.csv");
+    final File json = new File(dir.toFile(), "export.json.gz");
+    final String script = "!set color true\n"
+        + "!set force true\n"
+        + "!record " + record.getAbsolutePath() + "\n"
+        + "!export csv " + csv.getAbsolutePath()
+        + " values (1, 'one'), (2, 'two');\n"
+        + "!export json " + json.getAbsolutePath()
+        + " values 'third';\n"
+        + "!export csv " + csv.getAbsolutePath() + "\n"
+        + "!export nonexistent " + csv.getAbsolutePath() + " values 1;\n"
+        + "!record\n";
+    checkScriptFile(script, true, equalTo(SqlLine.Status.OTHER),
+        allOf(containsString("2 rows, "), containsString("1 row, "),
+            containsString("Usage: export <format> <file name> <query>"),
+            containsString("Unknown outputFormat \"nonexistent\""),
+            not(containsString("'1','one'"))));
+    final String nl = System.lineSeparator();
+    assertThat(
+        new String(Files.readAllBytes(csv.toPath()), StandardCharsets.UTF_8),
+        is("'C1','C2'" + nl + "'1','one'" + nl + "'2','two'" + nl));
+    assertThat(gunzip(json), containsString("\"C1\":\"third\""));
+    final String recorded =
+        new String(Files.readAllBytes(record.toPath()), StandardCharsets.UTF_8);
+    assertThat(recorded, containsString("!export csv "));
+    assertThat(recorded, not(containsString("'1','one'")));
+    for (File f : dir.toFile().listFiles()) {
+      Files.delete(f.toPath());
+    }
+    Files.delete(dir);
+  }
+
+  /** Tests that "!batch" executes statements every batchSize statements,
+   * and summarizes the counts if there are many. */
+  @Test
+  public void testBatch() {
+    final StringBuilder script = new StringBuilder()
+        .append("!set batchSize 50\n")
+        .append("create table batch_test (i int);\n")
+        .append("!batch\n");
+    for (int i = 0; i < 120; i++) {
+      script.append("insert into batch_test values (").append(i)
+          .append(");\n");
+    }
+    script.append("!batch\n")
+        .append("!set outputformat csv\n")
+        .append("select count(*) from batch_test;\n")
+        .append("!batch\n")
+        .append("insert into batch_test values (1);\n")
+        .append("delete from batch_test;\n")
+        .append("!batch\n")
+        .append("drop table batch_test;\n");
+    checkScriptFile(script.toString(), true, equalTo(SqlLine.Status.OK),
+        allOf(
+            // Counts of the first 100 statements are printed as the
+            // chunks of 50 are executed; after that, only progress
+            RegexMatcher.of("(?s).*53/131 +insert into batch_test values"
+                + " \\(49\\);\n"
+                + "COUNT +STATEMENT\n"
+                + "1 +insert into batch_test values \\(0\\)\n.*"),
+            RegexMatcher.of("(?s).*103/131 +insert into batch_test values"
+                + " \\(99\\);\n"
+                + "1 +insert into batch_test values \\(50\\)\n.*"),
+            not(containsString("values (100)\n")),
+            containsString("Executed 120 batched statements\n"),
+            containsString("Executed 120 batched statements;"
+                + " 120 rows affected\n"),
+            containsString("'C1'\n'120'\n"),
+            containsString("COUNT   STATEMENT\n"
+                + "1       insert into batch_test values (1)\n"
+                + "121     delete from batch_test\n")));
+  }
+
+  @Test
+  public void testImport() throws IOException {
+    final Path dir = Files.createTempDirectory("sqlline");
+    final File csv = new File(dir.toFile(), "import.csv");
+    final File tsv = new File(dir.toFile(), "import.tsv.gz");
+    final File bad = new File(dir.toFile(), "bad.csv");
+    Files.write(csv.toPath(),
+        ("NAME,ID,D\n"
+            + "'a, b',1,2020-01-02\n"
+            + "'multi\nline',2,\n"
+            + ",3,2020-03-04\n").getBytes(StandardCharsets.UTF_8));
+    try (OutputStream out =
+             new GZIPOutputStream(new FileOutputStream(tsv))) {
+      out.write(
+          ("4\tfour\t2021-01-01\n"
+              + "5\tfive\t\n"
+              + "6\tsix\t2021-06-06\n"
+              + "7\t\"se\"\"ven\"\t\n").getBytes(StandardCharsets.UTF_8));
+    }
+    Files.write(bad.toPath(),
+        "ID,NAME\n8,eight\n9\n".getBytes(StandardCharsets.UTF_8));
+    final String script = "!set force true\n"
+        + "!set outputformat csv\n"
+        + "create table import_test (id int, name varchar(20), d date);\n"
+        + "!import import_test " + csv.getAbsolutePath()
+        + " -batch=2 -commit=2\n"
+        + "!import import_test " + tsv.getAbsolutePath()
+        + " -noheader -parallel=2 -batch=1\n"
+        + "!import import_test " + bad.getAbsolutePath() + "\n"
+        + "!import nonexistent " + csv.getAbsolutePath() + "\n"
+        + "!import import_test\n"
+        + "select * from import_test order by id;\n"
+        + "select id from import_test where name is null;\n"
+        + "drop table import_test;\n";
+    checkScriptFile(script, true, equalTo(SqlLine.Status.OTHER),
+        allOf(containsString("3 rows inserted into import_test from"),
+            containsString("4 rows inserted into import_test from"),
+            containsString("Line 3 has 1 values; expected 2"),
+            containsString("Table NONEXISTENT not found"),
+            containsString("Usage: import <table> <file name>"),
+            containsString("'1','a, b','2020-01-02'\n"
+                + "'2','multi\nline','null'\n"
+                + "'3','','2020-03-04'\n"
+                + "'4','four','2021-01-01'\n"
+                + "'5','five','null'\n"
+                + "'6','six','2021-06-06'\n"
+                + "'7','se\"ven','null'\n"),
+            containsString("7 rows selected"),
+            containsString("'ID'\n'3'\n1 row selected")));
+    for (File f : dir.toFile().listFiles()) {
+      Files.delete(f.toPath());
+    }
+    Files.delete(dir);
+  }
+
+  /** Tests that {@code !import} without {@code -parallel} refuses to run
+   * while autocommit is off, and leaves the transaction as it was. */
+  @Test
+  public void testImportInTransaction() throws IOException {
+    final File bad = createTempFile("bad", ".csv");
+    Files.write(bad.toPath(),
+        "ID\n1\n2,3\n".getBytes(StandardCharsets.UTF_8));
+    final String script = "!set force true\n"
+        + "!set outputformat csv\n"
+        + "create table import_tx (id int);\n"
+        + "!autocommit off\n"
+        + "insert into import_tx values (10);\n"
+        + "!import import_tx " + bad.getAbsolutePath() + "\n"
+        + "!commit\n"
+        + "!autocommit on\n"
+        + "select id from import_tx;\n"
+        + "drop table import_tx;\n";
+    checkScriptFile(script, true, equalTo(SqlLine.Status.OTHER),
+        allOf(containsString("Cannot import on a connection whose autocommit"
+                + " is off"),
+            containsString("'ID'\n'10'\n1 row selected")));
+  }
+
+  /** Tests that null values written by {@code !export} are loaded as null
+   * by {@code !import -null}, including in columns that are not strings,
+   * and that without {@code -null}, a string equal to the marker is
+   * loaded as it is. */
+  @Test
+  public void testExportImportNull() throws IOException {
+    final Path dir = Files.createTempDirectory("sqlline");
+    final File csv = new File(dir.toFile(), "null.csv");
+    final File tsv = new File(dir.toFile(), "null.tsv");
+    final File strings = new File(dir.toFile(), "strings.csv");
+    final String script = "!set force true\n"
+        + "!set outputformat csv\n"
+        + "create table null_test (id int, n int, d date);\n"
+        + "insert into null_test values (1, null, null), (2, 3, null);\n"
+        + "!export csv " + csv.getAbsolutePath()
+        + " select * from null_test;\n"
+        + "!set nullValue ***\n"
+        + "!export tsv " + tsv.getAbsolutePath()
+        + " select * from null_test;\n"
+        + "delete from null_test;\n"
+        + "!import null_test " + tsv.getAbsolutePath() + " -null=***\n"
+        + "!set nullValue default\n"
+        + "!import null_test " + csv.getAbsolutePath() + " -null=null\n"
+        + "select id, count(*) from null_test where n is null and d is null"
+        + " group by id;\n"
+        + "select n from null_test where n is not null;\n"
+        + "drop table null_test;\n"
+        // Without -null, a quoted "null" is a string
+        + "create table null_string (s varchar(10));\n"
+        + "insert into null_string values ('null');\n"
+        + "!export csv " + strings.getAbsolutePath()
+        + " select * from null_string;\n"
+        + "delete from null_string;\n"
+        + "!import null_string " + strings.getAbsolutePath() + "\n"
+        + "select count(*) from null_string where s = 'null';\n"
+        + "drop table null_string;\n";
+    checkScriptFile(script, true, equalTo(SqlLine.Status.OK),
+        allOf(containsString("2 rows inserted into null_test from"),
+            containsString("'ID','C2'\n'1','2'\n1 row selected"),
+            containsString("'N'\n'3'\n'3'\n2 rows selected"),
+            containsString("1 row inserted into null_string from"),
+            containsString("'C1'\n'1'\n1 row selected")));
+    final String nl = System.lineSeparator();
+    assertThat(
+        new String(Files.readAllBytes(csv.toPath()), StandardCharsets.UTF_8),
+        is("'ID','N','D'" + nl + "'1','null','null'" + nl
+            + "'2','3','null'" + nl));
+    for (File f : dir.toFile().listFiles()) {
+      Files.delete(f.toPath());
+    }
+    Files.delete(dir);
+  }
+
+  private static String gunzip(File file) throws IOException {
+    try (Reader r = new InputStreamReader(
+        new GZIPInputStream(new FileInputStream(file)),
+        StandardCharsets.UTF_8)) {
+      final StringWriter w = new StringWriter();
+      final char[] buf = new char[1024];
+      for (int n; (n = r.read(buf)) > 0;) {
+        w.write(buf, 0, n);
+      }
+      return w.toString().replace(System.lineSeparator(), "\n");
+    }
+  }
+
   /** Test case for
    * <a href="https://github.com/julianhyde/sqlline/issues/62">[SQLLINE-62]
    * Expand ~ to user's home directory</a>. */
@@ -1331,6 +1605,20 @@ public void testCsvDelimiterAndQuoteCharacter() {
             containsString(line3), containsString(line4)));
   }
 
+  @Test
+  public void testCsvQuoteAllFalse() {
+    final String script = "!set outputformat csv\n"
+        + "!set csvQuoteAll false\n"
+        + "values (1, 'a,b', 'it''s', 'plain', cast(null as int));\n"
+        + "!set csvDelimiter ##\n"
+        + "values ('x#y', 'x##y', '#');\n";
+    checkScriptFile(script, true, equalTo(SqlLine.Status.OK),
+        allOf(containsString("C1,C2,C3,C4,C5"),
+            containsString("1,'a,b','it''s',plain,null"),
+            containsString("C1##C2##C3"),
+            containsString("x#y##'x##y'###")));
+  }
+
   @Test
   public void testCsvOneLiner() {
     final String script = "!outputformat csv \"'\" @\n"
@@ -1419,6 +1707,73 @@ public void testSelectJson() {
                 + "\"C6\":\" 1'2\\\"3\\t4\"}")));
   }
 
+  @Test
+  public void testSelectJsonLines() {
+    final String script = "!set outputformat json-lines\n"
+        + "values (1, 'a\\b'), (2, 'c/d');\n";
+    checkScriptFile(script, true, equalTo(SqlLine.Status.OK),
+        allOf(not(containsString("resultset")),
+            containsString("{\"C1\":1,\"C2\":\"a\\\\b\"}"
+                + System.lineSeparator()
+                + "{\"C1\":2,\"C2\":\"c\\/d\"}"
+                + System.lineSeparator())));
+  }
+
+  /** Tests that a pipelined fetch prints every row, in order, in both
+   * incremental and buffered mode. */
+  @Test
+  public void testPipelinedFetch() {
+    for (String incremental : new String[] {"true", "false"}) {
+      final String script = "!set pipelinedFetch true\n"
+          + "!set incremental " + incremental + "\n"
+          + "!set incrementalBufferRows 2\n"
+          + "!set outputformat csv\n"
+          + "values (1, 'a'), (2, 'b'), (3, 'c'), (4, 'd'), (5, 'e');\n";
+      checkScriptFile(script, true, equalTo(SqlLine.Status.OK),
+          containsString("'C1','C2'" + System.lineSeparator()
+              + "'1','a'" + System.lineSeparator()
+              + "'2','b'" + System.lineSeparator()
+              + "'3','c'" + System.lineSeparator()
+              + "'4','d'" + System.lineSeparator()
+              + "'5','e'" + System.lineSeparator()));
+    }
+  }
+
+  /** Tests that queries, calls and metadata commands work with a fixed or
+   * an adaptive fetch size. */
+  @Test
+  public void testFetchSize() {
+    final String script = "!set fetchSize 2\n"
+        + "values (1), (2), (3);\n"
+        + "!call select 4 from (values 1);\n"
+        + "!set fetchSize 0\n"
+        + "!set adaptiveFetchSize true\n"
+        + "select count(*) as total from information_schema.columns;\n"
+        + "!tables\n";
+    checkScriptFile(script, true, equalTo(SqlLine.Status.OK),
+        allOf(containsString("| 3  |"),
+            containsString("| 4  |"),
+            containsString("TOTAL"),
+            containsString("TABLE_SCHEM")));
+  }
+
+  @Test
+  public void testDateTimeFormats() {
+    final String script = "!set outputformat csv\n"
+        + "!set dateFormat dd/MM/yyyy\n"
+        + "!set timeFormat HH-mm\n"
+        + "!set timestampFormat 'yyyy.MM.dd HH:mm:ss.SSS'\n"
+        + "values (date '1969-07-20', time '20:17:40',\n"
+        + " timestamp '1969-07-20 20:17:40.123', cast(null as date));\n"
+        + "!set timestampFormat \"yyyyMMdd'T'HHmmss\"\n"
+        + "values timestamp '1969-07-21 02:56:15';\n";
+    checkScriptFile(script, true, equalTo(SqlLine.Status.OK),
+        CoreMatchers.allOf(
+            containsString("'20/07/1969','20-17','1969.07.20 20:17:40.123',"
+                + "'null'"),
+            containsString("'19690721T025615'")));
+  }
+
   @Test
   public void testNullValue() {
     final String script = "!set nullValue %%%\n"
@@ -2244,6 +2599,125 @@ public void testAllMultiline() {
         containsString(line1));
   }
 
+  /** Tests {@code !all} with the {@code -parallel}, {@code -unordered}
+   * and {@code -filter} options. */
+  @Test
+  public void testAllParallel() {
+    final String script = "!set force true\n"
+        + "!set outputformat csv\n"
+        + "!connect " + CONNECTION_SPEC.url + " \""
+        + CONNECTION_SPEC.username + "\" \""
+        + CONNECTION_SPEC.password + "\"\n"
+        + "!nickname second\n"
+        + "!all -parallel values 'v1';\n"
+        + "!all -parallel=2 -unordered -filter=^sec values 'v2';\n"
+        + "!all -parallel values nonexistent;\n"
+        + "!all -bogus values 'v3';\n";
+    checkScriptFile(script, true, equalTo(SqlLine.Status.OTHER),
+        allOf(RegexMatcher.of("(?s).*"
+                + "Executing SQL against: jdbc:hsqldb:res:scott\n"
+                + "'C1'\n'v1'\n.*"
+                + "Executing SQL against: jdbc:hsqldb:res:scott\n"
+                + "'C1'\n'v1'\n.*"
+                + "Succeeded on 2 of 2 connections\n.*"
+                + "'C1'\n'v2'\n.*"
+                + "Succeeded on 1 of 1 connections\n.*"
+                + "Failed on jdbc:hsqldb:res:scott .*"
+                + "Succeeded on 0 of 2 connections\n.*"
+                + "Usage: all \\[-parallel.*"),
+            not(RegexMatcher.of("(?s).*'C1'\n'v2'\n.*'C1'\n'v2'\n.*"))));
+  }
+
+  /** Tests {@code !run -parallel}, which runs several scripts at a time,
+   * each on a connection of its own. */
+  @Test
+  public void testRunParallel() throws IOException {
+    final File a = createTempFile("a", ".sql");
+    final File b = createTempFile("b", ".sql");
+    Files.write(a.toPath(),
+        "values 'a1';\nvalues 'a2';\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(b.toPath(),
+        "values nonexistent;\n".getBytes(StandardCharsets.UTF_8));
+    final String script = "!set outputformat csv\n"
+        + "!run -parallel=2 " + a.getAbsolutePath() + " "
+        + b.getAbsolutePath() + "\n";
+    final String succeeded = "Succeeded on " + a.getAbsolutePath() + " ";
+    final String failed = "Failed on " + b.getAbsolutePath() + " ";
+    checkScriptFile(script, true, equalTo(SqlLine.Status.OTHER),
+        allOf(
+            RegexMatcher.of("(?s).*"
+                + "Running script: " + a.getAbsolutePath() + "\n"
+                + "1/2 +values 'a1';\n'C1'\n'a1'\n.*"
+                + "2/2 +values 'a2';\n'C1'\n'a2'\n.*"
+                + succeeded + ".*"
+                + "Running script: " + b.getAbsolutePath() + "\n"
+                + "1/1 +values nonexistent;\n.*NONEXISTENT.*"
+                + failed + ".*"
+                + "Succeeded on 1 of 2 scripts\n.*"),
+            // Each status is printed once
+            not(RegexMatcher.of("(?s).*" + succeeded + ".*" + succeeded
+                + ".*")),
+            not(RegexMatcher.of("(?s).*" + failed + ".*" + failed + ".*"))));
+  }
+
+  /** Tests that a script run by "!run -parallel" cannot run commands that
+   * change the state of the whole session. */
+  @Test
+  public void testRunParallelSessionCommands() throws IOException {
+    final File a = createTempFile("a", ".sql");
+    final File b = createTempFile("b", ".sql");
+    Files.write(a.toPath(),
+        "!set outputformat json\nvalues 'a1';\n"
+            .getBytes(StandardCharsets.UTF_8));
+    Files.write(b.toPath(),
+        "!close\n".getBytes(StandardCharsets.UTF_8));
+    final String script = "!set outputformat csv\n"
+        + "!set force true\n"
+        + "!run -parallel=2 " + a.getAbsolutePath() + " "
+        + b.getAbsolutePath() + "\n"
+        + "values 'after';\n";
+    checkScriptFile(script, true, equalTo(SqlLine.Status.OTHER),
+        allOf(
+            containsString("Command set cannot run in a parallel script"),
+            containsString("Command close cannot run in a parallel script"),
+            containsString("Failed on " + a.getAbsolutePath() + " "),
+            containsString("Failed on " + b.getAbsolutePath() + " "),
+            containsString("Succeeded on 0 of 2 scripts\n"),
+            // The session still has its connection and output format
+            containsString("'C1'\n'after'\n")));
+  }
+
+  /** Tests that "!run -parallel" runs the scripts one at a time, on the
+   * current connection, while statements are being batched. */
+  @Test
+  public void testRunParallelBatch() throws IOException {
+    final File a = createTempFile("a", ".sql");
+    final File b = createTempFile("b", ".sql");
+    Files.write(a.toPath(),
+        "insert into run_batch values (1);\n"
+            .getBytes(StandardCharsets.UTF_8));
+    Files.write(b.toPath(),
+        "insert into run_batch values (2);\n"
+            .getBytes(StandardCharsets.UTF_8));
+    final String script = "!set outputformat csv\n"
+        + "create table run_batch (i int);\n"
+        + "!batch\n"
+        + "!run -parallel=2 " + a.getAbsolutePath() + " "
+        + b.getAbsolutePath() + "\n"
+        + "!batch\n"
+        + "select count(*) from run_batch;\n"
+        + "drop table run_batch;\n";
+    checkScriptFile(script, true, equalTo(SqlLine.Status.OK),
+        allOf(
+            // Run serially, so there is no status for each script
+            not(containsString("Succeeded on " + a.getAbsolutePath())),
+            containsString("Succeeded on 2 of 2 scripts\n"),
+            containsString("COUNT   STATEMENT\n"
+                + "1       insert into run_batch values (1)\n"
+                + "1       insert into run_batch values (2)\n"),
+            containsString("'C1'\n'2'\n")));
+  }
+
   @Test
   public void testAppInfoMessage() {
     Pair pair = run("-e", "!set maxwidth 80");
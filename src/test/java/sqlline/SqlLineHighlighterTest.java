@@ -14,6 +14,7 @@
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import org.jline.utils.AttributedString;
 import org.jline.utils.AttributedStyle;
@@ -717,6 +718,52 @@ Dialect getDefault() {
     }
   }
 
+  /**
+   * Checks that a highlighter that re-lexes only what changed since the
+   * previous buffer gives the same result as one that starts afresh, as a
+   * multi-line statement is edited.
+   */
+  @Test
+  public void testIncrementalHighlight() {
+    final String[] lines = {
+        "select 'a', \"b\", 1.5e+3 -- comment",
+        "from t /* multi-line",
+        "comment */ where x = 'it''s'",
+        "  and y in (1, 2, 3)",
+        "union all select \"quoted",
+        "identifier\" from dual;",
+    };
+    final String insertions = "'\"*/-\n 1e+x.";
+    final Random random = new Random(42);
+    for (SqlLine sqlLine : sqlLine2Highlighter.keySet()) {
+      final SqlLineHighlighter highlighter = new SqlLineHighlighter(sqlLine);
+      final StringBuilder buffer = new StringBuilder();
+      for (int i = 0; i < 20; i++) {
+        buffer.append(lines[i % lines.length]).append('\n');
+      }
+      for (int i = 0; i < 300; i++) {
+        final int pos = random.nextInt(buffer.length() + 1);
+        if (random.nextBoolean() && pos < buffer.length()) {
+          buffer.delete(pos, Math.min(buffer.length(),
+              pos + 1 + random.nextInt(3)));
+        } else {
+          buffer.insert(pos,
+              insertions.charAt(random.nextInt(insertions.length())));
+        }
+        final String line = buffer.toString();
+        if (i % 50 == 0) {
+          // A command in between does not disturb the previous buffer
+          highlighter.highlight(sqlLine.getLineReader(), "!set csvQuote '\"'");
+        }
+        assertEquals(
+            new SqlLineHighlighter(sqlLine)
+                .highlight(sqlLine.getLineReader(), line),
+            highlighter.highlight(sqlLine.getLineReader(), line),
+            line);
+      }
+    }
+  }
+
   /**
    * Check if there is an exception while highlight processing
    * then only the default style is applied
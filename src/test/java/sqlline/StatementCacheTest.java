@@ -0,0 +1,127 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static sqlline.SqlLineArgsTest.begin;
+import static sqlline.SqlLineArgsTest.dispatch;
+
+/**
+ * Test cases for {@link StatementCache}.
+ */
+public class StatementCacheTest {
+  /** Tests that statements are reused, that the least recently used is
+   * evicted, and that the cache is emptied when the connection closes. */
+  @Test
+  public void testCache() throws Exception {
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    final SqlLine sqlLine = sqlLine(os, "testCache");
+    final DatabaseConnection connection = sqlLine.getDatabaseConnection();
+    final StatementCache cache = connection.statementCache;
+
+    // DDL is not cached
+    dispatch(sqlLine, "create table t (i int)");
+    assertThat(cache.size(), is(0));
+    dispatch(sqlLine, "insert into t values (1)");
+    dispatch(sqlLine, "insert into t values (1)");
+    assertThat(cache.size(), is(1));
+
+    final PreparedStatement insert =
+        cache.take(connection.connection, "insert into t values (1)");
+    cache.release("insert into t values (1)", insert);
+    dispatch(sqlLine, "insert into t values (1)");
+    assertThat(
+        cache.take(connection.connection, "insert into t values (1) "),
+        sameInstance(insert));
+    cache.release("insert into t values (1)", insert);
+
+    // The row limit is applied to a statement from the cache
+    os.reset();
+    dispatch(sqlLine, "select i from t");
+    assertThat(os.toString(StandardCharsets.UTF_8.name()),
+        containsString("3 rows selected"));
+    dispatch(sqlLine, "!set rowLimit 1");
+    dispatch(sqlLine, "select i as j from t");
+    os.reset();
+    dispatch(sqlLine, "select i from t");
+    assertThat(os.toString(StandardCharsets.UTF_8.name()),
+        containsString("1 row selected"));
+
+    // The cache holds 2 statements; the insert is the least recently used
+    assertThat(cache.size(), is(2));
+    assertThat(insert.isClosed(), is(true));
+
+    // Statements that contain '?' are executed directly
+    dispatch(sqlLine, "select i, '?' from t");
+    assertThat(cache.size(), is(2));
+
+    dispatch(sqlLine, "!close");
+    assertThat(cache.size(), is(0));
+  }
+
+  /** Tests that the cache is emptied when a table is altered, so that a
+   * query returns the new columns. */
+  @Test
+  public void testAlterTable() throws Exception {
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    final SqlLine sqlLine = sqlLine(os, "testAlterTable");
+    final StatementCache cache =
+        sqlLine.getDatabaseConnection().statementCache;
+    dispatch(sqlLine, "!set outputFormat csv");
+    dispatch(sqlLine, "create table t (i int)");
+    dispatch(sqlLine, "insert into t values (1)");
+    dispatch(sqlLine, "select * from t");
+    assertThat(cache.size(), is(2));
+
+    dispatch(sqlLine, "alter table t add column j int default 2");
+    assertThat(cache.size(), is(0));
+    os.reset();
+    dispatch(sqlLine, "select * from t");
+    assertThat(os.toString(StandardCharsets.UTF_8.name()),
+        containsString("'I','J'\n'1','2'\n"));
+    dispatch(sqlLine, "!close");
+  }
+
+  /** Tests that nothing is cached if statementCacheSize is 0. */
+  @Test
+  public void testDisabled() throws Exception {
+    final SqlLine sqlLine =
+        sqlLine(new ByteArrayOutputStream(), "testDisabled");
+    final StatementCache cache =
+        sqlLine.getDatabaseConnection().statementCache;
+    dispatch(sqlLine, "values (1)");
+    assertThat(cache.size(), not(is(0)));
+    dispatch(sqlLine, "!set statementCacheSize 0");
+    dispatch(sqlLine, "values (1)");
+    assertThat(cache.size(), is(0));
+  }
+
+  private static SqlLine sqlLine(ByteArrayOutputStream os, String name)
+      throws Exception {
+    final SqlLine sqlLine = new SqlLine();
+    begin(sqlLine, os, false, "-e", "!set statementCacheSize 2");
+    dispatch(sqlLine, "!connect jdbc:hsqldb:mem:" + name + " SA \"\"");
+    return sqlLine;
+  }
+}
+
+// End StatementCacheTest.java
@@ -0,0 +1,131 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Modified BSD License
+// (the "License"); you may not use this file except in compliance with
+// the License. You may obtain a copy of the License at:
+//
+// http://opensource.org/licenses/BSD-3-Clause
+*/
+package sqlline;
+
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test cases for {@link TemporalFormat}.
+ */
+public class TemporalFormatTest {
+  /** Tests a pattern that both classes format alike, so values are
+   * formatted as {@code java.time} objects. */
+  @Test
+  public void testJavaTime() {
+    final TemporalFormat format = TemporalFormat.of("yyyy-MM-dd HH:mm:ss.SSS");
+    assertThat(format.isJavaTime(), is(true));
+    assertSame(format, "yyyy-MM-dd HH:mm:ss.SSS");
+  }
+
+  /** Tests that a zone name is formatted by {@link SimpleDateFormat}, whose
+   * names differ from those of {@link java.time.format.DateTimeFormatter}. */
+  @Test
+  public void testZoneName() {
+    final TimeZone timeZone = TimeZone.getDefault();
+    try {
+      TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+      for (String pattern : new String[] {"HH:mm z", "HH:mm zzzz"}) {
+        final TemporalFormat format = TemporalFormat.of(pattern);
+        assertThat(pattern, format.isJavaTime(), is(false));
+        assertSame(format, pattern);
+      }
+    } finally {
+      TimeZone.setDefault(timeZone);
+    }
+  }
+
+  /** Tests that five-letter month names are formatted by
+   * {@link SimpleDateFormat}; {@link java.time.format.DateTimeFormatter}
+   * formats them as one letter. */
+  @Test
+  public void testFullMonthName() {
+    for (String pattern : new String[] {"dd MMMMM yyyy", "LLLLL"}) {
+      final TemporalFormat format = TemporalFormat.of(pattern);
+      assertThat(pattern, format.isJavaTime(), is(false));
+      assertSame(format, pattern);
+    }
+  }
+
+  /** Tests that five-letter day names are formatted by
+   * {@link SimpleDateFormat}; {@link java.time.format.DateTimeFormatter}
+   * formats them as one letter. */
+  @Test
+  public void testFullDayName() {
+    final TemporalFormat format = TemporalFormat.of("EEEEE dd");
+    assertThat(format.isJavaTime(), is(false));
+    assertSame(format, "EEEEE dd");
+  }
+
+  /** Tests that a long zone offset is formatted by
+   * {@link SimpleDateFormat}; {@link java.time.format.DateTimeFormatter}
+   * formats it as "GMT" and an offset. */
+  @Test
+  public void testZoneOffset() {
+    final TimeZone timeZone = TimeZone.getDefault();
+    try {
+      TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+      final TemporalFormat offset = TemporalFormat.of("HH:mm Z");
+      assertThat(offset.isJavaTime(), is(true));
+      assertSame(offset, "HH:mm Z");
+      for (String pattern : new String[] {"HH:mm ZZZZ", "HH:mm ZZZZZ"}) {
+        final TemporalFormat format = TemporalFormat.of(pattern);
+        assertThat(pattern, format.isJavaTime(), is(false));
+        assertSame(format, pattern);
+      }
+    } finally {
+      TimeZone.setDefault(timeZone);
+    }
+  }
+
+  /** Tests that brackets, braces and '#', which
+   * {@link java.time.format.DateTimeFormatter} treats specially, are
+   * formatted by {@link SimpleDateFormat} as literal text, unless they are
+   * quoted. */
+  @Test
+  public void testSpecialCharacters() {
+    for (String pattern
+        : new String[] {"[HH:mm]", "HH:mm]", "{yyyy}", "yyyy #"}) {
+      final TemporalFormat format = TemporalFormat.of(pattern);
+      assertThat(pattern, format.isJavaTime(), is(false));
+      assertSame(format, pattern);
+    }
+    final TemporalFormat format = TemporalFormat.of("'['HH:mm']'");
+    assertThat(format.isJavaTime(), is(true));
+    assertSame(format, "'['HH:mm']'");
+  }
+
+  private static LocalDateTime value() {
+    return LocalDateTime.of(1969, 7, 20, 20, 17, 40, 123_000_000);
+  }
+
+  /** Asserts that a format formats values as {@link SimpleDateFormat}
+   * formats them. */
+  private static void assertSame(TemporalFormat format, String pattern) {
+    final LocalDateTime value = value();
+    final String expected = new SimpleDateFormat(pattern, Locale.ROOT)
+        .format(Timestamp.valueOf(value));
+    assertThat(pattern, format.format(value), is(expected));
+    assertThat(pattern, format.format(Timestamp.valueOf(value)),
+        is(expected));
+  }
+}
+
+// End TemporalFormatTest.java